@@ -16,19 +16,47 @@
  */
 package org.microbean.jndi;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 import javax.naming.Binding;
+import javax.naming.CannotProceedException;
 import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.ContextNotEmptyException;
+import javax.naming.InitialContext;
 import javax.naming.InvalidNameException;
+import javax.naming.LinkRef;
+import javax.naming.MalformedLinkException;
 import javax.naming.Name;
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameClassPair;
@@ -49,6 +77,19 @@ public abstract class AbstractContext<K> implements Context {
 
   private static final int CLOSED = 2;
 
+  public static final String LOOKUP_EXECUTOR = "org.microbean.jndi.lookupExecutor";
+
+  public static final String MAX_LINK_DEPTH = "org.microbean.jndi.maxLinkDepth";
+
+  private static final int DEFAULT_MAX_LINK_DEPTH = 16;
+
+  public static final String JOURNAL = "org.microbean.jndi.journal";
+
+  public static final String LOOKUP_TRACER = "org.microbean.jndi.lookupTracer";
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicLongFieldUpdater<AbstractContext> versionUpdater = AtomicLongFieldUpdater.newUpdater(AbstractContext.class, "version");
+
   public static final Name EMPTY_NAME = new CompositeName() {
 
       private static final long serialVersionUID = 1L;
@@ -86,6 +127,28 @@ public abstract class AbstractContext<K> implements Context {
   protected final Name prefix;
 
   private int state;
+
+  private volatile long version;
+
+  private volatile ConcurrentMap<Name, FederationBoundary> federationBoundaries;
+
+  private volatile ConcurrentMap<Object, ResolvedLink> resolvedLinks;
+
+  // Objects warmUp made from stored values, by key.  An entry is used
+  // only while its key is still bound to the value it was made from.
+  private volatile ConcurrentMap<Object, Warmed> warmed;
+
+  // Read on every lookup, so it is kept here rather than looked up in
+  // the environment each time.
+  private volatile LookupTracer lookupTracer;
+
+  // Null until the footprint is first asked for, so that contexts
+  // nobody measures pay nothing for it: until then, writes take no
+  // lock, and only check afterwards whether a count has begun, in
+  // which case they may have raced it, and mark it stale.  Once set,
+  // writes keep it up to date while holding this context's monitor,
+  // which every count is made under.
+  private volatile Footprint.Counter footprint;
   
   protected AbstractContext(final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
     super();
@@ -94,6 +157,7 @@ public abstract class AbstractContext<K> implements Context {
       this.environment = null;
     } else {
       this.environment = new Hashtable<>(environment);
+      this.lookupTracer = toLookupTracer(this.environment.get(LOOKUP_TRACER));
     }
     if (prefix == null) {
       this.prefix = EMPTY_NAME;
@@ -116,6 +180,153 @@ public abstract class AbstractContext<K> implements Context {
     }
   }
 
+  long version() {
+    return this.versionSource().version;
+  }
+
+  // The context whose version is this one's: itself, unless its
+  // bindings are another context's as well.
+  AbstractContext<?> versionSource() {
+    return this;
+  }
+
+  // Called after every change to this context's bindings; anything
+  // cached from an earlier resolution through this context is then
+  // stale.
+  protected final void modified() {
+    versionUpdater.incrementAndGet(this.versionSource());
+  }
+
+  protected boolean hasThreadSpecificBindings() {
+    return false;
+  }
+
+  final Object store(final K key, final Object value) throws NamingException {
+    final Object returnValue;
+    if (this.footprint == null) {
+      returnValue = this.put(key, value);
+      this.raced();
+    } else {
+      synchronized (this) {
+        returnValue = this.put(key, value);
+        final Footprint.Counter footprint = this.footprint;
+        if (returnValue != null) {
+          footprint.remove(key, returnValue);
+        }
+        footprint.add(key, value);
+      }
+    }
+    this.modified();
+    this.unwarm(key);
+    return returnValue;
+  }
+
+  final Object evict(final K key) throws NamingException {
+    final Object returnValue;
+    if (this.footprint == null) {
+      returnValue = this.remove(key);
+      this.raced();
+    } else {
+      synchronized (this) {
+        returnValue = this.remove(key);
+        if (returnValue != null) {
+          this.footprint.remove(key, returnValue);
+        }
+      }
+    }
+    this.modified();
+    this.unwarm(key);
+    return returnValue;
+  }
+
+  private final void raced() {
+    final Footprint.Counter footprint = this.footprint;
+    if (footprint != null) {
+      footprint.stale = true;
+    }
+  }
+
+  // Whether this context's bindings can change other than through
+  // its own store and evict calls: because they are shared with other
+  // contexts, or differ from thread to thread.  The footprint of such
+  // a context is counted afresh each time it is asked for.
+  boolean hasSharedStorage() {
+    return this.hasThreadSpecificBindings();
+  }
+
+  // Counts into counter every binding this context's footprint
+  // covers.
+  void count(final Footprint.Counter counter) throws NamingException {
+    this.forEachEntry(counter::add);
+  }
+
+  // What the storage holding this context's bindings spends on them,
+  // beyond the keys and values themselves.
+  long storageBytes(final long bindings) throws NamingException {
+    return Footprint.storageBytes(null, bindings);
+  }
+
+  // Counts this context's own bindings.  The first call reads them
+  // all; later calls read totals kept up to date by every write since.
+  public final Footprint getFootprint() throws NamingException {
+    failIfClosed();
+    if (this.hasSharedStorage()) {
+      final Footprint.Counter counter = new Footprint.Counter();
+      this.count(counter);
+      return counter.toFootprint(this.environment, this.storageBytes(counter.getBindingCount()));
+    }
+    Footprint.Counter footprint = this.footprint;
+    if (footprint == null || footprint.counting || footprint.stale) {
+      synchronized (this) {
+        footprint = this.footprint;
+        if (footprint == null || footprint.stale) {
+          // Published before counting, so that any write that misses
+          // the count finds it afterwards and marks it stale.
+          footprint = new Footprint.Counter();
+          footprint.counting = true;
+          this.footprint = footprint;
+          boolean counted = false;
+          try {
+            this.count(footprint);
+            counted = true;
+          } finally {
+            footprint.stale = !counted;
+            footprint.counting = false;
+          }
+        }
+      }
+    }
+    return footprint.toFootprint(this.environment, this.storageBytes(footprint.getBindingCount()));
+  }
+
+  // Counts this context and every AbstractContext bound beneath it.
+  // Only contexts that have subcontexts are read to find them.
+  public final Footprint getSubtreeFootprint() throws NamingException {
+    final Set<AbstractContext<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    visited.add(this);
+    return this.getSubtreeFootprint(visited);
+  }
+
+  private final Footprint getSubtreeFootprint(final Set<AbstractContext<?>> visited) throws NamingException {
+    Footprint returnValue = this.getFootprint();
+    if (returnValue.getSubcontextCount() > 0L) {
+      final List<AbstractContext<?>> subcontexts = new ArrayList<>();
+      this.forEachEntry((key, value) -> {
+          if (value instanceof AbstractContext && visited.add((AbstractContext<?>)value)) {
+            subcontexts.add((AbstractContext<?>)value);
+          }
+        });
+      for (final AbstractContext<?> subcontext : subcontexts) {
+        returnValue = returnValue.plus(subcontext.getSubtreeFootprint(visited));
+      }
+    }
+    return returnValue;
+  }
+
+  final boolean isOpen() {
+    return this.state == 0;
+  }
+
   protected final Name toCompoundName(final Name name) throws NamingException {
     Objects.requireNonNull(name);
     final Name returnValue;
@@ -167,24 +378,297 @@ public abstract class AbstractContext<K> implements Context {
       }
 
       if (i < size) {
-        // at this point i identifies the suffix to the CannotProceedException
-        // TODO: deal with federation
-        throw new InvalidNameException("compositeName could not be entirely parsed; successful parse: " + returnValue + "; remaining: " + compositeName.getSuffix(i));
+        // at this point i identifies the suffix to the
+        // CannotProceedException; the remainder belongs to whatever
+        // naming system the successfully parsed prefix resolves to
+        final CannotProceedException cannotProceedException =
+          new CannotProceedException("compositeName could not be entirely parsed; successful parse: " + returnValue + "; remaining: " + compositeName.getSuffix(i));
+        cannotProceedException.setResolvedName(returnValue);
+        cannotProceedException.setRemainingName(compositeName.getSuffix(i));
+        cannotProceedException.setAltName(compositeName);
+        cannotProceedException.setAltNameCtx(this);
+        cannotProceedException.setEnvironment(this.environment);
+        throw cannotProceedException;
       }
     }
     return returnValue;
   }
   
+  // Returns the context in the next naming system that can carry on
+  // with the remaining name of a CannotProceedException thrown by
+  // toCompoundName(CompositeName).  Boundaries are cached by the
+  // resolved prefix and reused until a context on the path to them
+  // changes.
+  final Context getContinuationContext(final CannotProceedException cannotProceedException) throws NamingException {
+    if (cannotProceedException.getAltNameCtx() != this) {
+      throw cannotProceedException;
+    }
+    final Name resolvedName = cannotProceedException.getResolvedName();
+    ConcurrentMap<Name, FederationBoundary> federationBoundaries = this.federationBoundaries;
+    if (federationBoundaries != null) {
+      final FederationBoundary federationBoundary = federationBoundaries.get(resolvedName);
+      if (federationBoundary != null && federationBoundary.stamp.isValid()) {
+        return federationBoundary.context;
+      }
+    }
+    final Stamp.Builder stamp = new Stamp.Builder();
+    final Object resolvedObject = this.resolve(resolvedName, stamp);
+    if (resolvedObject instanceof AbstractContext) {
+      // The remainder of the name could not be parsed by this naming
+      // system, and it does not belong to another one.
+      throw (InvalidNameException)new InvalidNameException(cannotProceedException.getExplanation()).initCause(cannotProceedException);
+    }
+    cannotProceedException.setResolvedObj(resolvedObject);
+    final Context returnValue = NamingManager.getContinuationContext(cannotProceedException);
+    final Stamp builtStamp = stamp.build();
+    if (builtStamp.isValid()) {
+      if (federationBoundaries == null) {
+        synchronized (this) {
+          federationBoundaries = this.federationBoundaries;
+          if (federationBoundaries == null) {
+            federationBoundaries = new ConcurrentHashMap<>();
+            this.federationBoundaries = federationBoundaries;
+          }
+        }
+      }
+      federationBoundaries.put(resolvedName, new FederationBoundary(returnValue, builtStamp));
+    }
+    return returnValue;
+  }
+
+  // Like lookup(Name), but takes a compound name, never copies, and
+  // records the contexts it passes through.
+  final Object resolve(final Name compoundName, final Stamp.Builder stamp) throws NamingException {
+    return this.resolve(compoundName, stamp, null);
+  }
+
+  // As above, also recording in location, if it is not null, the
+  // context and key of the binding the name leads to.
+  private final Object resolve(final Name compoundName, final Stamp.Builder stamp, final Location location) throws NamingException {
+    failIfNotOpen();
+    stamp.add(this);
+    final Object returnValue;
+    final int size = compoundName.size();
+    if (size == 0) {
+      returnValue = this;
+    } else {
+      final K mapKey = this.extractKey(compoundName);
+      if (mapKey == null ||
+          (mapKey instanceof String && ((String)mapKey).isEmpty()) ||
+          (mapKey instanceof Name && ((Name)mapKey).isEmpty())) {
+        throw new InvalidNameException(compoundName.toString());
+      }
+      if (size == 1 && location != null) {
+        location.context = this;
+        location.key = mapKey;
+        location.name = compoundName;
+      }
+      Object value = this.get(mapKey, compoundName);
+      if (value instanceof LinkRef) {
+        value = this.followLink(mapKey, (LinkRef)value, stamp);
+      }
+      if (size == 1) {
+        if (value == null) {
+          throw new NameNotFoundException(compoundName.toString());
+        }
+        returnValue = value;
+      } else if (value instanceof AbstractContext) {
+        returnValue = ((AbstractContext<?>)value).resolve(compoundName.getSuffix(1), stamp, location);
+      } else if (value instanceof Context) {
+        stamp.uncacheable();
+        returnValue = ((Context)value).lookup(compoundName.getSuffix(1));
+      } else {
+        throw new NotContextException(mapKey.toString());
+      }
+    }
+    return returnValue;
+  }
+
+  // Follows a LinkRef bound under mapKey in this context, and any
+  // links it leads to in turn.  Per the LinkRef contract, names
+  // beginning with "./" are relative to this context and all others
+  // are relative to the initial context.  Where the link leads, the
+  // context and key of the binding it names, is memoized until a
+  // context on the path to it changes; what is bound there is still
+  // dereferenced on every lookup, as it would be without the link.
+  final Object followLink(final K mapKey, final LinkRef linkRef, final Stamp.Builder stamp) throws NamingException {
+    LinkTrail.followed();
+    ConcurrentMap<Object, ResolvedLink> resolvedLinks = this.resolvedLinks;
+    if (resolvedLinks != null) {
+      final ResolvedLink resolvedLink = resolvedLinks.get(mapKey);
+      if (resolvedLink != null && resolvedLink.linkRef == linkRef && resolvedLink.stamp.isValid()) {
+        if (stamp != null) {
+          stamp.addAll(resolvedLink.stamp);
+        }
+        return resolvedLink.target.get(stamp);
+      }
+    }
+
+    final LinkTrail linkTrail = LinkTrail.enter(this, mapKey, this.getMaxLinkDepth());
+    final Object returnValue;
+    final Stamp.Builder linkStamp = new Stamp.Builder().add(this);
+    final Location location = new Location();
+    try {
+      final String linkName = linkRef.getLinkName();
+      if (linkName == null || linkName.isEmpty() || linkName.equals("./")) {
+        throw new MalformedLinkException(String.valueOf(linkName));
+      }
+      if (linkName.startsWith("./")) {
+        final Name relativeName = new CompositeName(linkName.substring(2));
+        Name compoundName = null;
+        try {
+          compoundName = this.toCompoundName(relativeName);
+        } catch (final CannotProceedException cannotProceedException) {
+          linkStamp.uncacheable();
+        }
+        if (compoundName == null) {
+          returnValue = this.lookup(relativeName);
+        } else {
+          returnValue = this.resolve(compoundName, linkStamp, location);
+        }
+      } else {
+        linkStamp.uncacheable();
+        final Context initialContext = new InitialContext(this.environment);
+        try {
+          returnValue = initialContext.lookup(linkName);
+        } finally {
+          initialContext.close();
+        }
+      }
+    } finally {
+      linkTrail.exit();
+    }
+
+    final Stamp builtStamp = linkStamp.build();
+    if (builtStamp.isValid() && location.context != null) {
+      if (resolvedLinks == null) {
+        synchronized (this) {
+          resolvedLinks = this.resolvedLinks;
+          if (resolvedLinks == null) {
+            resolvedLinks = new ConcurrentHashMap<>();
+            this.resolvedLinks = resolvedLinks;
+          }
+        }
+      }
+      resolvedLinks.put(mapKey, new ResolvedLink(linkRef, location, builtStamp));
+    }
+    if (stamp != null) {
+      stamp.addAll(builtStamp);
+    }
+    return returnValue;
+  }
+
+  protected Journal getJournal() {
+    final Object journal = this.environment == null ? null : this.environment.get(JOURNAL);
+    return journal instanceof Journal ? (Journal)journal : null;
+  }
+
+  // Returns the entry for a change about to be made, already given to
+  // the journal to prepare, or null if there is no journal.
+  protected final Journal.Entry prepareJournalEntry(final Journal.Operation operation, final K key, final Object value) throws NamingException {
+    final Journal journal = this.getJournal();
+    if (journal == null) {
+      return null;
+    }
+    final Journal.Entry returnValue = new Journal.Entry(operation, this.getChildName(key), value);
+    journal.prepare(returnValue);
+    return returnValue;
+  }
+
+  // Makes change, and records entry if there is one and change says
+  // it did anything, all while holding the journal's monitor, so that
+  // changes sharing a journal are recorded in the order they were
+  // made and replicas end up where this tree did.
+  protected final void publish(final Journal.Entry entry, final Change change) throws NamingException {
+    final Journal journal = entry == null ? null : this.getJournal();
+    if (journal == null) {
+      change.apply();
+    } else {
+      synchronized (journal) {
+        if (change.apply()) {
+          journal.record(entry);
+        }
+      }
+    }
+  }
+
+  @FunctionalInterface
+  protected static interface Change {
+
+    // Returns whether there was anything to record.
+    public boolean apply() throws NamingException;
+
+  }
+
+  // Returns the name, relative to the root of this tree, of the
+  // binding under key in this context.
+  final Name getChildName(final K key) throws InvalidNameException {
+    return ((Name)this.prefix.clone()).add(key.toString());
+  }
+
+  protected int getMaxLinkDepth() {
+    final Object maxLinkDepth = this.environment == null ? null : this.environment.get(MAX_LINK_DEPTH);
+    if (maxLinkDepth instanceof Number) {
+      return ((Number)maxLinkDepth).intValue();
+    } else if (maxLinkDepth != null) {
+      return Integer.parseInt(maxLinkDepth.toString());
+    }
+    return DEFAULT_MAX_LINK_DEPTH;
+  }
+
   protected abstract Context copy() throws NamingException;
 
   protected abstract Context newContext(final Name prefix) throws NamingException;
 
   protected final Object get(final K key, final Name name) throws NamingException {
     failIfClosed();
+    return this.dereference(key, this.get(key), name);
+  }
+
+  // Dereferences value, bound under key, unless warmUp has already
+  // done so.
+  final Object dereference(final K key, final Object value, final Name name) throws NamingException {
+    final ConcurrentMap<Object, Warmed> warmed = this.warmed;
+    if (warmed != null && value != null) {
+      final Warmed entry = warmed.get(key);
+      if (entry != null && entry.value == value) {
+        return entry.result;
+      }
+    }
+    return this.dereference(value, name);
+  }
+
+  // Keeps result, which value, bound under key, dereferenced to, for
+  // lookups to return while key stays bound to value.
+  final void warm(final K key, final Object value, final Object result) {
+    ConcurrentMap<Object, Warmed> warmed = this.warmed;
+    if (warmed == null) {
+      synchronized (this) {
+        warmed = this.warmed;
+        if (warmed == null) {
+          warmed = new ConcurrentHashMap<>();
+          this.warmed = warmed;
+        }
+      }
+    }
+    warmed.put(key, new Warmed(value, result));
+  }
+
+  private final void unwarm(final K key) {
+    final ConcurrentMap<Object, Warmed> warmed = this.warmed;
+    if (warmed != null) {
+      warmed.remove(key);
+    }
+  }
+
+  final Object dereference(final Object value, final Name name) throws NamingException {
+    if (value instanceof LazyBinding) {
+      return ((LazyBinding)value).get();
+    }
     final Object returnValue;
     Object temp = null;
     try {
-      temp = NamingManager.getObjectInstance(this.get(key), name, this, this.environment);
+      temp = FactoryRegistry.getObjectInstance(value, name, this, this.environment);
     } catch (final RuntimeException throwMe) {
       throw throwMe;
     } catch (final NamingException throwMe) {
@@ -210,6 +694,36 @@ public abstract class AbstractContext<K> implements Context {
   protected abstract Set<K> keySet() throws NamingException;
 
   protected abstract K extractKey(final Name name) throws NamingException;
+
+  // Hands each stored key and value to action.  Subclasses backed by
+  // a map override this to iterate it directly.
+  protected void forEachEntry(final BiConsumer<? super K, Object> action) throws NamingException {
+    for (final K key : this.keySet()) {
+      final Object value = this.get(key);
+      if (value != null) {
+        action.accept(key, value);
+      }
+    }
+  }
+
+  // Unlike listBindings(Name), allocates nothing per binding and
+  // dereferences nothing: action sees raw keys and stored values.
+  public void forEachBinding(final BiConsumer<? super K, Object> action) throws NamingException {
+    failIfClosed();
+    this.forEachEntry(Objects.requireNonNull(action));
+  }
+
+  // Visits the bindings of this context and, to at most maxDepth
+  // levels below it, of the AbstractContexts bound beneath it that
+  // visitor chooses to descend into.
+  public final void walk(final int maxDepth, final BindingVisitor visitor) throws NamingException {
+    failIfClosed();
+    final Walk walk = new Walk(Objects.requireNonNull(visitor), maxDepth);
+    walk.walk(this);
+    if (walk.failure != null) {
+      throw walk.failure;
+    }
+  }
   
   @Override
   public NamingEnumeration<NameClassPair> list(final Name name) throws NamingException {
@@ -288,11 +802,51 @@ public abstract class AbstractContext<K> implements Context {
 
   @Override
   public Object lookup(final Name name) throws NamingException {
+    return this.lookup(name, true);
+  }
+
+  private final Object lookup(final Name name, final boolean followTerminalLink) throws NamingException {
+    final LookupTracer lookupTracer = this.lookupTracer;
+    if (lookupTracer == null) {
+      return this.lookup(name, followTerminalLink, null);
+    }
+    final LookupTracer.Recording recording = lookupTracer.enter(this);
+    try {
+      return this.lookup(name, followTerminalLink, recording.isActive() ? recording : null);
+    } finally {
+      lookupTracer.exit(recording, name);
+    }
+  }
+
+  // recording is null unless this lookup is being traced.
+  private final Object lookup(final Name name, final boolean followTerminalLink, final LookupTracer.Recording recording) throws NamingException {
     failIfNotOpen();
     Objects.requireNonNull(name);
-    
-    final Name compoundName = toCompoundName(name);
+
+    long time = recording == null ? 0L : System.nanoTime();
+    final Name compoundName;
+    try {
+      compoundName = toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      final Context continuationContext = this.getContinuationContext(cannotProceedException);
+      if (recording != null) {
+        time = recording.step(LookupTrace.Stage.FEDERATION, cannotProceedException.getResolvedName(), time);
+      }
+      final Object returnValue;
+      if (followTerminalLink) {
+        returnValue = continuationContext.lookup(cannotProceedException.getRemainingName());
+      } else {
+        returnValue = continuationContext.lookupLink(cannotProceedException.getRemainingName());
+      }
+      if (recording != null) {
+        recording.step(LookupTrace.Stage.HOP, cannotProceedException.getRemainingName(), time);
+      }
+      return returnValue;
+    }
     assert compoundName != null;
+    if (recording != null) {
+      time = recording.step(LookupTrace.Stage.PARSE, name, time);
+    }
 
     final Object returnValue;
 
@@ -308,7 +862,22 @@ public abstract class AbstractContext<K> implements Context {
           (mapKey instanceof Name && ((Name)mapKey).isEmpty())) {
         throw new InvalidNameException(name.toString());
       }
-      final Object value = this.get(mapKey, compoundName);
+      Object value;
+      if (recording == null) {
+        value = this.get(mapKey, compoundName);
+      } else {
+        failIfClosed();
+        value = this.get(mapKey);
+        time = recording.step(LookupTrace.Stage.GET, mapKey, time);
+        value = this.dereference(mapKey, value, compoundName);
+        time = recording.step(LookupTrace.Stage.DEREFERENCE, mapKey, time);
+      }
+      if (value instanceof LinkRef && (size > 1 || followTerminalLink)) {
+        value = this.followLink(mapKey, (LinkRef)value, null);
+        if (recording != null) {
+          time = recording.step(LookupTrace.Stage.LINK, mapKey, time);
+        }
+      }
       if (size == 1) {
         returnValue = value;
         if (returnValue == null) {
@@ -316,7 +885,14 @@ public abstract class AbstractContext<K> implements Context {
         }
       } else if (value instanceof Context) {
         assert size > 1;
-        returnValue = ((Context)value).lookup(compoundName.getSuffix(1));
+        if (followTerminalLink) {
+          returnValue = ((Context)value).lookup(compoundName.getSuffix(1));
+        } else {
+          returnValue = ((Context)value).lookupLink(compoundName.getSuffix(1));
+        }
+        if (recording != null) {
+          recording.step(LookupTrace.Stage.HOP, mapKey, time);
+        }
       } else {
         throw new NotContextException(mapKey.toString());
       }
@@ -325,6 +901,287 @@ public abstract class AbstractContext<K> implements Context {
     return returnValue;
   }
 
+
+  public final CompletionStage<Object> lookupAsync(final String name) {
+    return this.lookupAsync(name, 0L, TimeUnit.MILLISECONDS);
+  }
+
+  public final CompletionStage<Object> lookupAsync(final String name, final long timeout, final TimeUnit unit) {
+    final Name compositeName;
+    try {
+      compositeName = new CompositeName(Objects.requireNonNull(name));
+    } catch (final InvalidNameException invalidNameException) {
+      final CompletableFuture<Object> returnValue = new CompletableFuture<>();
+      returnValue.completeExceptionally(invalidNameException);
+      return returnValue;
+    }
+    return this.lookupAsync(compositeName, timeout, unit);
+  }
+
+  public final CompletionStage<Object> lookupAsync(final Name name) {
+    return this.lookupAsync(name, 0L, TimeUnit.MILLISECONDS);
+  }
+
+  public CompletionStage<Object> lookupAsync(final Name name, final long timeout, final TimeUnit unit) {
+    Objects.requireNonNull(name);
+    Objects.requireNonNull(unit);
+    // Walk the name on the calling thread, which is cheap and which
+    // thread-specific contexts require; only the dereferencing of the
+    // terminal binding, which may invoke arbitrarily slow object
+    // factories, happens on the executor.
+    final Callable<?> task;
+    try {
+      failIfNotOpen();
+      task = this.lookupTask(this.toCompoundName(name), name);
+    } catch (final CannotProceedException cannotProceedException) {
+      return this.lookupAsync(cannotProceedException, timeout, unit);
+    } catch (final NamingException namingException) {
+      final CompletableFuture<Object> returnValue = new CompletableFuture<>();
+      returnValue.completeExceptionally(namingException);
+      return returnValue;
+    }
+    return AsyncLookup.submit(this.getLookupExecutor(), task, name, timeout, unit);
+  }
+
+  private final CompletionStage<Object> lookupAsync(final CannotProceedException cannotProceedException, final long timeout, final TimeUnit unit) {
+    final Context continuationContext;
+    try {
+      continuationContext = this.getContinuationContext(cannotProceedException);
+    } catch (final NamingException namingException) {
+      final CompletableFuture<Object> returnValue = new CompletableFuture<>();
+      returnValue.completeExceptionally(namingException);
+      return returnValue;
+    }
+    final Name remainingName = cannotProceedException.getRemainingName();
+    return AsyncLookup.submit(this.getLookupExecutor(), () -> continuationContext.lookup(remainingName), remainingName, timeout, unit);
+  }
+
+  protected Executor getLookupExecutor() {
+    final Object executor = this.environment == null ? null : this.environment.get(LOOKUP_EXECUTOR);
+    return executor instanceof Executor ? (Executor)executor : null;
+  }
+
+  private final Callable<?> lookupTask(final Name compoundName, final Name name) throws NamingException {
+    failIfNotOpen();
+    final Callable<?> returnValue;
+    final int size = compoundName.size();
+    if (size == 0) {
+      final Context copy = this.copy();
+      returnValue = () -> copy;
+    } else {
+      final K mapKey = this.extractKey(compoundName);
+      if (mapKey == null ||
+          (mapKey instanceof String && ((String)mapKey).isEmpty()) ||
+          (mapKey instanceof Name && ((Name)mapKey).isEmpty())) {
+        throw new InvalidNameException(name.toString());
+      }
+      if (size == 1) {
+        failIfClosed();
+        final Object value = this.get(mapKey);
+        if (value == null) {
+          throw new NameNotFoundException(name.toString());
+        } else if (value instanceof LinkRef) {
+          return this.linkTask(mapKey, (LinkRef)value);
+        }
+        returnValue = () -> {
+          final Object object = this.dereference(mapKey, value, compoundName);
+          if (object == null) {
+            throw new NameNotFoundException(name.toString());
+          }
+          return object;
+        };
+      } else {
+        Object value = this.get(mapKey, compoundName);
+        if (value instanceof LinkRef) {
+          value = this.followLink(mapKey, (LinkRef)value, null);
+        }
+        final Name suffix = compoundName.getSuffix(1);
+        if (value instanceof AbstractContext) {
+          returnValue = ((AbstractContext<?>)value).lookupTask(suffix, name);
+        } else if (value instanceof Context) {
+          final Context context = (Context)value;
+          returnValue = () -> context.lookup(suffix);
+        } else {
+          throw new NotContextException(mapKey.toString());
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  // Finds where a terminal link leads here, on the calling thread, like
+  // everything else on the way, and leaves only the dereferencing of
+  // what is bound there to the executor.  Links leaving this tree are
+  // followed whole, since nothing says the contexts they lead through
+  // can be walked from another thread.
+  private final Callable<?> linkTask(final K mapKey, final LinkRef linkRef) throws NamingException {
+    final String linkName = linkRef.getLinkName();
+    if (linkName != null && linkName.startsWith("./") && !linkName.equals("./")) {
+      final Name relativeName = new CompositeName(linkName.substring(2));
+      Name compoundName = null;
+      try {
+        compoundName = this.toCompoundName(relativeName);
+      } catch (final CannotProceedException cannotProceedException) {
+
+      }
+      if (compoundName != null) {
+        LinkTrail.followed();
+        final LinkTrail linkTrail = LinkTrail.enter(this, mapKey, this.getMaxLinkDepth());
+        try {
+          return this.lookupTask(compoundName, relativeName);
+        } finally {
+          linkTrail.exit();
+        }
+      }
+    }
+    final Object target = this.followLink(mapKey, linkRef, null);
+    return () -> target;
+  }
+
+  // Looks up every name in one traversal: names are grouped by their
+  // first component, so each shared subcontext is reached, and each
+  // shared binding dereferenced, once.  The returned map iterates in
+  // the order of the supplied names.
+  public Map<Name, Object> lookupAll(final Collection<? extends Name> names) throws NamingException {
+    failIfNotOpen();
+    Objects.requireNonNull(names);
+    final Map<Name, Object> returnValue = new LinkedHashMap<>();
+    final List<BatchLookup> batchLookups = new ArrayList<>(names.size());
+    for (final Name name : names) {
+      returnValue.put(Objects.requireNonNull(name), null);
+      Name compoundName = null;
+      try {
+        compoundName = this.toCompoundName(name);
+      } catch (final CannotProceedException cannotProceedException) {
+        returnValue.put(name, this.getContinuationContext(cannotProceedException).lookup(cannotProceedException.getRemainingName()));
+      }
+      if (compoundName != null) {
+        batchLookups.add(new BatchLookup(name, compoundName));
+      }
+    }
+    this.lookupAll(batchLookups, returnValue);
+    return returnValue;
+  }
+
+  private final void lookupAll(final List<BatchLookup> batchLookups, final Map<Name, Object> results) throws NamingException {
+    failIfNotOpen();
+    final Map<K, List<BatchLookup>> groups = new LinkedHashMap<>();
+    for (final BatchLookup batchLookup : batchLookups) {
+      final Name remainingName = batchLookup.remainingName;
+      if (remainingName.isEmpty()) {
+        results.put(batchLookup.name, this.copy());
+      } else {
+        final K mapKey = this.extractKey(remainingName);
+        if (mapKey == null ||
+            (mapKey instanceof String && ((String)mapKey).isEmpty()) ||
+            (mapKey instanceof Name && ((Name)mapKey).isEmpty())) {
+          throw new InvalidNameException(batchLookup.name.toString());
+        }
+        List<BatchLookup> group = groups.get(mapKey);
+        if (group == null) {
+          group = new ArrayList<>(2);
+          groups.put(mapKey, group);
+        }
+        group.add(batchLookup);
+      }
+    }
+
+    for (final Map.Entry<K, List<BatchLookup>> entry : groups.entrySet()) {
+      final K mapKey = entry.getKey();
+      final List<BatchLookup> group = entry.getValue();
+      Object value = this.get(mapKey, group.get(0).remainingName.getPrefix(1));
+      if (value instanceof LinkRef) {
+        value = this.followLink(mapKey, (LinkRef)value, null);
+      }
+      List<BatchLookup> descendants = null;
+      for (final BatchLookup batchLookup : group) {
+        if (batchLookup.remainingName.size() == 1) {
+          if (value == null) {
+            throw new NameNotFoundException(batchLookup.name.toString());
+          }
+          results.put(batchLookup.name, value);
+        } else if (value instanceof AbstractContext) {
+          if (descendants == null) {
+            descendants = new ArrayList<>(group.size());
+          }
+          descendants.add(new BatchLookup(batchLookup.name, batchLookup.remainingName.getSuffix(1)));
+        } else if (value instanceof Context) {
+          results.put(batchLookup.name, ((Context)value).lookup(batchLookup.remainingName.getSuffix(1)));
+        } else {
+          throw new NotContextException(mapKey.toString());
+        }
+      }
+      if (descendants != null) {
+        ((AbstractContext<?>)value).lookupAll(descendants, results);
+      }
+    }
+  }
+
+  public final Stream<Binding> stream(final String name) throws NamingException {
+    return this.stream(new CompositeName(Objects.requireNonNull(name)));
+  }
+
+  // Streams every binding beneath the named context, subcontexts
+  // included, with names relative to it and objects as stored.  The
+  // stream splits along subcontext boundaries, so it parallelizes
+  // well over a tree of any shape.
+  public Stream<Binding> stream(final Name name) throws NamingException {
+    failIfNotOpen();
+    Objects.requireNonNull(name);
+    final AbstractContext<?> root;
+    if (name.isEmpty()) {
+      root = this;
+    } else {
+      final Object target = this.lookup(name);
+      if (target instanceof AbstractContext) {
+        root = (AbstractContext<?>)target;
+      } else {
+        throw new NotContextException(name + " cannot be streamed");
+      }
+    }
+    return StreamSupport.stream(new BindingSpliterator(root, new CompositeName()), false);
+  }
+
+  public final Stream<Binding> parallelStream(final Name name) throws NamingException {
+    return this.stream(name).parallel();
+  }
+
+  public final LookupHandle compile(final String name) throws NamingException {
+    return this.compile(new CompositeName(Objects.requireNonNull(name)));
+  }
+
+  // Returns a handle whose get() is equivalent to lookup(name), but
+  // cheaper when called again and again.  See LookupHandle.
+  public final LookupHandle compile(final Name name) throws NamingException {
+    failIfNotOpen();
+    return new LookupHandle(this, name);
+  }
+
+  public final WarmUpReport warmUp(final String name) throws NamingException {
+    return this.warmUp(new CompositeName(Objects.requireNonNull(name)), n -> true);
+  }
+
+  public final WarmUpReport warmUp(final Name name, final Predicate<? super Name> selector) throws NamingException {
+    return this.warmUp(name, selector, ForkJoinPool.commonPool());
+  }
+
+  public WarmUpReport warmUp(final Name name, final Predicate<? super Name> selector, final ForkJoinPool pool) throws NamingException {
+    failIfNotOpen();
+    Objects.requireNonNull(name);
+    final AbstractContext<?> root;
+    if (name.isEmpty()) {
+      root = this;
+    } else {
+      final Object target = this.lookup(name);
+      if (target instanceof AbstractContext) {
+        root = (AbstractContext<?>)target;
+      } else {
+        throw new NotContextException(name + " cannot be warmed up");
+      }
+    }
+    return WarmUp.warmUp(root, selector, pool);
+  }
+
   @Override
   public final void bind(final Name name, final Object obj) throws NamingException {
     failIfNotOpen();
@@ -337,7 +1194,18 @@ public abstract class AbstractContext<K> implements Context {
       throw new InvalidNameException("name.isEmpty()");
     }
 
-    final Name compoundName = this.toCompoundName(name);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      final Context continuationContext = this.getContinuationContext(cannotProceedException);
+      if (rebindPermitted) {
+        continuationContext.rebind(cannotProceedException.getRemainingName(), obj);
+      } else {
+        continuationContext.bind(cannotProceedException.getRemainingName(), obj);
+      }
+      return;
+    }
     assert compoundName != null;
     if (compoundName.isEmpty()) {
       throw new InvalidNameException(name.toString());
@@ -353,20 +1221,33 @@ public abstract class AbstractContext<K> implements Context {
       throw new InvalidNameException(name.toString());
     }
     
-    final Object value = this.get(mapKey, compoundName);
+    // An existing binding is replaced, not used, so only
+    // intermediate contexts need dereferencing.
+    final Object value = size == 1 ? this.get(mapKey) : this.get(mapKey, compoundName);
     if (size == 1) {
-      if (value != null) {
-        if (rebindPermitted) {
-          final Object old = this.remove(mapKey);
-          assert old == value;
-        } else {
-          throw new NameAlreadyBoundException(name.toString());
-        }
+      if (value != null && !rebindPermitted) {
+        throw new NameAlreadyBoundException(name.toString());
       }
-      this.put(mapKey, NamingManager.getStateToBind(obj, this.getNameParser(EMPTY_NAME).parse(mapKey.toString()), this, this.environment));
+      final Object state = FactoryRegistry.getStateToBind(obj, mapKey, this, this.environment);
+      // A binding the journal cannot record is never made.
+      final Journal.Entry entry = this.prepareJournalEntry(rebindPermitted ? Journal.Operation.REBIND : Journal.Operation.BIND, mapKey, state);
+      this.publish(entry, () -> {
+          if (value != null) {
+            this.evict(mapKey);
+          }
+          this.store(mapKey, state);
+          return true;
+        });
+    } else if (value instanceof AbstractContext) {
+      assert size > 1;
+      ((AbstractContext<?>)value).bind(compoundName.getSuffix(1), obj, rebindPermitted);
     } else if (value instanceof Context) {
       assert size > 1;
-      ((Context)value).bind(compoundName.getSuffix(1), obj);
+      if (rebindPermitted) {
+        ((Context)value).rebind(compoundName.getSuffix(1), obj);
+      } else {
+        ((Context)value).bind(compoundName.getSuffix(1), obj);
+      }
     } else {
       assert size > 1;
       throw new NotContextException(mapKey.toString());
@@ -399,7 +1280,13 @@ public abstract class AbstractContext<K> implements Context {
       throw new InvalidNameException("name.isEmpty()");
     }
 
-    final Name compoundName = this.toCompoundName(name);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      this.getContinuationContext(cannotProceedException).unbind(cannotProceedException.getRemainingName());
+      return;
+    }
     assert compoundName != null;
     if (compoundName.isEmpty()) {
       throw new InvalidNameException(name.toString());
@@ -416,7 +1303,7 @@ public abstract class AbstractContext<K> implements Context {
     }
 
     if (size == 1) {
-      this.remove(mapKey);
+      this.publish(this.prepareJournalEntry(Journal.Operation.UNBIND, mapKey, null), () -> this.evict(mapKey) != null);
     } else {
       assert size > 1;
       final Object value = this.get(mapKey, compoundName);
@@ -469,7 +1356,13 @@ public abstract class AbstractContext<K> implements Context {
     if (name.isEmpty()) {
       throw new InvalidNameException("name.isEmpty()");
     }
-    final Name compoundName = this.toCompoundName(name);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      this.getContinuationContext(cannotProceedException).destroySubcontext(cannotProceedException.getRemainingName());
+      return;
+    }
     assert compoundName != null;
     if (!compoundName.isEmpty()) {
       final K mapKey = this.extractKey(compoundName);
@@ -490,8 +1383,12 @@ public abstract class AbstractContext<K> implements Context {
               throw new ContextNotEmptyException(name.toString());
             }
             subcontext.close();
-            final Object old = this.remove(mapKey);
-            assert old == subcontext;
+            // What is stored may be a LazyBinding, or the context a
+            // view wraps, rather than subcontext itself.
+            this.publish(this.prepareJournalEntry(Journal.Operation.DESTROY_SUBCONTEXT, mapKey, null), () -> {
+                this.evict(mapKey);
+                return true;
+              });
           } else {
             throw new NotContextException(mapKey + " in " + name.toString());
           }
@@ -521,7 +1418,12 @@ public abstract class AbstractContext<K> implements Context {
     if (name.isEmpty()) {
       throw new InvalidNameException("name.isEmpty()");
     }
-    final Name compoundName = toCompoundName(name);
+    final Name compoundName;
+    try {
+      compoundName = toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      return this.getContinuationContext(cannotProceedException).createSubcontext(cannotProceedException.getRemainingName());
+    }
     assert compoundName != null;
     final int size = compoundName.size();
     assert size > 0;
@@ -537,12 +1439,15 @@ public abstract class AbstractContext<K> implements Context {
     final Object value = this.get(mapKey, compoundName);
     final Context returnValue;
     if (size == 1) {
-      returnValue = this.newContext(name); // yes, name; not compoundName
+      returnValue = this.newContext(this.getChildName(mapKey));
       if (returnValue == null) {
         throw (NamingException)new NamingException().initCause(new IllegalStateException("newContext() == null"));
       }
-      final Object old = this.put(mapKey, returnValue);
-      assert old == null;
+      this.publish(this.prepareJournalEntry(Journal.Operation.CREATE_SUBCONTEXT, mapKey, null), () -> {
+          final Object old = this.store(mapKey, returnValue);
+          assert old == null;
+          return true;
+        });
     } else if (value instanceof Context) {
       assert size > 1;
       returnValue = ((Context)value).createSubcontext(compoundName.getSuffix(1));
@@ -559,8 +1464,7 @@ public abstract class AbstractContext<K> implements Context {
 
   @Override
   public Object lookupLink(final Name name) throws NamingException {
-    failIfNotOpen();
-    return this.lookup(name);
+    return this.lookup(name, false);
   }
 
   @Override
@@ -644,12 +1548,24 @@ public abstract class AbstractContext<K> implements Context {
 
   @Override
   public final Object addToEnvironment(final String propName, final Object propVal) throws NamingException {
-    return this.environment.put(propName, propVal);
+    final Object returnValue = this.environment.put(propName, propVal);
+    if (LOOKUP_TRACER.equals(propName)) {
+      this.lookupTracer = toLookupTracer(propVal);
+    }
+    return returnValue;
   }
 
   @Override
   public final Object removeFromEnvironment(final String propName) throws NamingException {
-    return this.environment.remove(propName);
+    final Object returnValue = this.environment.remove(propName);
+    if (LOOKUP_TRACER.equals(propName)) {
+      this.lookupTracer = null;
+    }
+    return returnValue;
+  }
+
+  private static final LookupTracer toLookupTracer(final Object lookupTracer) {
+    return lookupTracer instanceof LookupTracer ? (LookupTracer)lookupTracer : null;
   }
 
   @Override
@@ -659,29 +1575,180 @@ public abstract class AbstractContext<K> implements Context {
 
   @Override
   public void close() throws NamingException {
-    final int state = this.state;
-    if (state == 0) {
-      this.state = CLOSING;
-    }
-    final NamingEnumeration<Binding> contents = this.listBindings(EMPTY_NAME);
-    if (contents != null) {
-      while (contents.hasMore()) {
-        final Binding binding = contents.next();
-        if (binding != null) {
-          final Object value = binding.getObject();
-          if (value instanceof Context) {
-            ((Context)value).close();
-          }
-        }
-      }
+    if (this.state != 0) {
+      // Already closed, or reached again through a context bound
+      // beneath itself.
+      return;
     }
+    this.state = CLOSING;
+    this.closeSubcontexts();
     this.state = CLOSED;
   }
 
+  // Closes the subcontexts this context stores.  Stored values are
+  // read as they are, not dereferenced: closing must not run object
+  // factories, or initialize LazyBindings nobody has looked up, only
+  // to close what they make.
+  protected void closeSubcontexts() throws NamingException {
+    final List<Context> subcontexts = new ArrayList<>();
+    this.forEachEntry((key, value) -> {
+        if (value instanceof LazyBinding) {
+          value = ((LazyBinding)value).peek();
+        }
+        if (value instanceof Context) {
+          subcontexts.add((Context)value);
+        }
+      });
+    for (final Context subcontext : subcontexts) {
+      subcontext.close();
+    }
+  }
+
   @Override
   public String getNameInNamespace() throws NamingException {
     failIfNotOpen();
     return this.prefix.toString();
   }
 
+  // One Walk serves a whole walk, so that visiting a binding
+  // allocates nothing.
+  private static final class Walk implements BiConsumer<Object, Object> {
+
+    private final BindingVisitor visitor;
+
+    private final int maxDepth;
+
+    private AbstractContext<?> context;
+
+    private int depth;
+
+    private NamingException failure;
+
+    private Walk(final BindingVisitor visitor, final int maxDepth) {
+      super();
+      this.visitor = visitor;
+      this.maxDepth = maxDepth;
+    }
+
+    private final void walk(final AbstractContext<?> context) throws NamingException {
+      final AbstractContext<?> parent = this.context;
+      this.context = context;
+      try {
+        context.forEachEntry(this);
+      } finally {
+        this.context = parent;
+      }
+    }
+
+    @Override
+    public final void accept(final Object key, final Object value) {
+      if (this.failure == null &&
+          this.visitor.visit(this.context, key, value, this.depth) &&
+          value instanceof AbstractContext &&
+          this.depth < this.maxDepth) {
+        this.depth++;
+        try {
+          this.walk((AbstractContext<?>)value);
+        } catch (final NamingException namingException) {
+          this.failure = namingException;
+        } finally {
+          this.depth--;
+        }
+      }
+    }
+
+  }
+
+  private static final class BatchLookup {
+
+    private final Name name;
+
+    private final Name remainingName;
+
+    private BatchLookup(final Name name, final Name remainingName) {
+      super();
+      this.name = name;
+      this.remainingName = remainingName;
+    }
+
+  }
+
+  private static final class FederationBoundary {
+
+    private final Context context;
+
+    private final Stamp stamp;
+
+    private FederationBoundary(final Context context, final Stamp stamp) {
+      super();
+      this.context = context;
+      this.stamp = stamp;
+    }
+
+  }
+
+  private static final class Warmed {
+
+    private final Object value;
+
+    private final Object result;
+
+    private Warmed(final Object value, final Object result) {
+      super();
+      this.value = value;
+      this.result = result;
+    }
+
+  }
+
+  private static final class ResolvedLink {
+
+    private final LinkRef linkRef;
+
+    private final Location target;
+
+    private final Stamp stamp;
+
+    private ResolvedLink(final LinkRef linkRef, final Location target, final Stamp stamp) {
+      super();
+      this.linkRef = linkRef;
+      this.target = target;
+      this.stamp = stamp;
+    }
+
+  }
+
+  // The binding a resolution ended at.
+  private static final class Location {
+
+    private AbstractContext<?> context;
+
+    private Object key;
+
+    private Name name;
+
+    private Location() {
+      super();
+    }
+
+    // Reads the binding again, as the last step of a resolution
+    // would.
+    private final Object get(final Stamp.Builder stamp) throws NamingException {
+      return get(this.context, this.key, this.name, stamp);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final <K> Object get(final AbstractContext<K> context, final Object key, final Name name, final Stamp.Builder stamp) throws NamingException {
+      Object returnValue = context.get((K)key, name);
+      if (returnValue instanceof LinkRef) {
+        returnValue = context.followLink((K)key, (LinkRef)returnValue, stamp);
+      }
+      if (returnValue == null) {
+        throw new NameNotFoundException(name.toString());
+      }
+      return returnValue;
+    }
+
+  }
+
 }
@@ -19,7 +19,14 @@ package org.microbean.jndi;
 import java.net.URISyntaxException;
 import java.net.URI;
 
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.Context;
 import javax.naming.Name;
@@ -29,13 +36,34 @@ import javax.naming.spi.ObjectFactory;
 
 public abstract class AbstractURLContextFactory implements ObjectFactory {
 
+  private static final int MAX_URI_CACHE_SIZE = 256;
+
+  private static final int MAX_VIEW_CACHE_SIZE = 256;
+
+  private static final Object NO_URI = new Object();
+
+  private static final Object NO_ENVIRONMENT = new Object();
+
+  // JNDI may instantiate a URL context factory once per resolution,
+  // so everything that can be is computed once per factory class and
+  // shared by all of its instances.
+  private static final ClassValue<Cache> caches = new ClassValue<Cache>() {
+      @Override
+      protected final Cache computeValue(final Class<?> factoryClass) {
+        final String simpleClassName = factoryClass.getSimpleName();
+        final int index = simpleClassName.lastIndexOf("URLContextFactory");
+        return new Cache(simpleClassName.substring(0, index));
+      }
+    };
+
   protected final String scheme;
-  
+
+  private final Cache cache;
+
   protected AbstractURLContextFactory() {
     super();
-    final String simpleClassName = this.getClass().getSimpleName();
-    final int index = simpleClassName.lastIndexOf("URLContextFactory");
-    this.scheme = simpleClassName.substring(0, index);
+    this.cache = caches.get(this.getClass());
+    this.scheme = this.cache.scheme;
   }
 
   @Override
@@ -44,25 +72,44 @@ public abstract class AbstractURLContextFactory implements ObjectFactory {
                                   final Context contextContainingName, // nullable
                                   final Hashtable<?, ?> environment) // nullable
     throws Exception {
+    final Object lookupTracer = environment == null ? null : environment.get(AbstractContext.LOOKUP_TRACER);
+    if (!(lookupTracer instanceof LookupTracer)) {
+      return this.getObjectInstance(object, environment);
+    }
+    final long start = System.nanoTime();
+    final Object returnValue = this.getObjectInstance(object, environment);
+    if (returnValue instanceof Context) {
+      ((LookupTracer)lookupTracer).urlContextResolved((Context)returnValue, System.nanoTime() - start);
+    }
+    return returnValue;
+  }
 
+  private final Object getObjectInstance(final Object object, final Hashtable<?, ?> environment) throws Exception {
     final Object returnValue;
-    
+
     if (object == null) {
-      returnValue = this.newContext(environment, null);
+      returnValue = this.getContext(environment, null);
     } else if (object instanceof String) {
-      returnValue = this.newContext(environment, new URI(object.toString()));
+      returnValue = this.getContext(environment, this.cache.parse((String)object));
     } else if (object instanceof String[]) {
       final String[] uriStrings = (String[])object;
       Context temp = null;
       for (final String uriString : uriStrings) {
         if (uriString != null) {
+          URI uri = null;
           try {
-            final URI uri = new URI(uriString);
-            temp = this.newContext(environment, uri);
-            break;
-          } catch (final NamingException | URISyntaxException neverMind) {
+            uri = this.cache.parse(uriString);
+          } catch (final URISyntaxException invalid) {
 
           }
+          if (uri != null && this.accepts(uri)) {
+            try {
+              temp = this.getContext(environment, uri);
+              break;
+            } catch (final NamingException neverMind) {
+
+            }
+          }
         }
       }
       returnValue = temp;
@@ -73,6 +120,160 @@ public abstract class AbstractURLContextFactory implements ObjectFactory {
     return returnValue;
   }
 
+  protected boolean accepts(final URI uri) {
+    return uri == null || this.scheme.equals(uri.getScheme());
+  }
+
+  // Roots are cached by what selects them, and live as long as they
+  // are reusable, since they are the only home of whatever is bound
+  // in them (java:comp/env, for example).  What a caller is handed is
+  // a view of the root carrying the caller's environment; views hold
+  // nothing of their own, so only the most recently used are kept.
+  private final Context getContext(final Hashtable<?, ?> environment, final URI uri) throws NamingException {
+    final Object rootKey = this.getRootKey(environment);
+    final List<Object> key = Arrays.asList(uri == null ? NO_URI : uri, rootKey == null ? NO_ENVIRONMENT : rootKey);
+    Context root = this.cache.roots.get(key);
+    if (root == null || !this.isReusable(root)) {
+      root = this.cache.root(key, this, environment, uri);
+      if (root == null) {
+        return null;
+      }
+    }
+    final List<Object> viewKey = Arrays.asList(key, environment == null || environment.isEmpty() ? NO_ENVIRONMENT : environment);
+    View view;
+    synchronized (this.cache.views) {
+      view = this.cache.views.get(viewKey);
+    }
+    if (view == null || view.root != root || !this.isReusable(view.context)) {
+      view = new View(root, this.getView(root, environment));
+      // The environment is copied because whoever handed it to us
+      // is free to change it afterwards.
+      final List<Object> copiedKey = viewKey.get(1) == NO_ENVIRONMENT ? viewKey : Arrays.asList(key, new Hashtable<>(environment));
+      synchronized (this.cache.views) {
+        this.cache.views.put(copiedKey, view);
+      }
+    }
+    return view.context;
+  }
+
+  // Returns what, in environment, selects the root a caller gets, or
+  // null if every environment shares one root.  Each distinct key
+  // keeps a root for good, so keys should come from a small set.
+  protected Object getRootKey(final Hashtable<?, ?> environment) {
+    return null;
+  }
+
+  // Returns the context a caller with environment is handed for root,
+  // which is root itself unless overridden.  Closing a view should
+  // leave root open.
+  protected Context getView(final Context root, final Hashtable<?, ?> environment) throws NamingException {
+    return root;
+  }
+
+  // A cached context is reusable while it is open.  Roots whose
+  // subcontexts could be closed through a lookup should make them
+  // ignore close(), so that this stays one read.
+  protected boolean isReusable(final Context context) throws NamingException {
+    return !(context instanceof AbstractContext) || ((AbstractContext<?>)context).isOpen();
+  }
+
   protected abstract Context newContext(final Hashtable<?, ?> environment, final URI uri) throws NamingException;
-  
+
+  private static final class Cache {
+
+    private final String scheme;
+
+    // Parsed URIs, or the URISyntaxExceptions their strings caused.
+    // These can always be recomputed, so only the least recently
+    // used are kept.  Guarded by itself.
+    private final Map<String, Object> uris;
+
+    // Roots, by URI and root key; never evicted.
+    private final ConcurrentMap<List<Object>, Context> roots;
+
+    // Views, by root key and environment.  Guarded by itself.
+    private final Map<List<Object>, View> views;
+
+    private Cache(final String scheme) {
+      super();
+      this.scheme = scheme;
+      this.uris = new LeastRecentlyUsed<>(MAX_URI_CACHE_SIZE);
+      this.roots = new ConcurrentHashMap<>();
+      this.views = new LeastRecentlyUsed<>(MAX_VIEW_CACHE_SIZE);
+    }
+
+    private final URI parse(final String uriString) throws URISyntaxException {
+      Object uri;
+      synchronized (this.uris) {
+        uri = this.uris.get(uriString);
+      }
+      if (uri == null) {
+        try {
+          uri = new URI(uriString).normalize();
+        } catch (final URISyntaxException invalid) {
+          uri = invalid;
+        }
+        synchronized (this.uris) {
+          this.uris.put(uriString, uri);
+        }
+      }
+      if (uri instanceof URISyntaxException) {
+        final URISyntaxException cached = (URISyntaxException)uri;
+        throw new URISyntaxException(cached.getInput(), cached.getReason(), cached.getIndex());
+      }
+      return (URI)uri;
+    }
+
+    // Returns the reusable root under key, making it if need be.  Only
+    // one caller makes it, so nothing is bound in a root that loses.
+    private final Context root(final List<Object> key, final AbstractURLContextFactory factory, final Hashtable<?, ?> environment, final URI uri) throws NamingException {
+      final NamingException[] failure = new NamingException[1];
+      final Context returnValue = this.roots.compute(key, (k, existing) -> {
+          try {
+            return existing != null && factory.isReusable(existing) ? existing : factory.newContext(environment, uri);
+          } catch (final NamingException namingException) {
+            failure[0] = namingException;
+            return existing;
+          }
+        });
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+      return returnValue;
+    }
+
+  }
+
+  private static final class View {
+
+    private final Context root;
+
+    private final Context context;
+
+    private View(final Context root, final Context context) {
+      super();
+      this.root = root;
+      this.context = context;
+    }
+
+  }
+
+  private static final class LeastRecentlyUsed<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    private LeastRecentlyUsed(final int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected final boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+      return this.size() > this.maxSize;
+    }
+
+  }
+
 }
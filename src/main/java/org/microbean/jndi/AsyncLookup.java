@@ -0,0 +1,155 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.lang.reflect.Method;
+
+import java.util.Objects;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.TimeLimitExceededException;
+
+final class AsyncLookup {
+
+  private AsyncLookup() {
+    super();
+  }
+
+  static final CompletableFuture<Object> submit(final Executor executor,
+                                                final Callable<?> task,
+                                                final Name name,
+                                                final long timeout,
+                                                final TimeUnit unit) {
+    Objects.requireNonNull(task);
+    Objects.requireNonNull(unit);
+    final CompletableFuture<Object> returnValue = new CompletableFuture<>();
+    final FutureTask<Object> futureTask = new FutureTask<Object>(task::call) {
+        @Override
+        protected final void done() {
+          if (this.isCancelled()) {
+            returnValue.cancel(false);
+          } else {
+            try {
+              returnValue.complete(this.get());
+            } catch (final ExecutionException executionException) {
+              returnValue.completeExceptionally(executionException.getCause());
+            } catch (final InterruptedException interruptedException) {
+              Thread.currentThread().interrupt();
+              returnValue.completeExceptionally(interruptedException);
+            }
+          }
+        }
+      };
+
+    // Cancelling or timing out the returned stage interrupts
+    // whatever thread is busy dereferencing on its behalf.
+    returnValue.whenComplete((result, throwable) -> {
+        if (throwable != null && !futureTask.isDone()) {
+          futureTask.cancel(true);
+        }
+      });
+
+    if (timeout > 0L) {
+      final ScheduledFuture<?> deadline = Deadlines.scheduler.schedule(() -> {
+          final TimeLimitExceededException timeLimitExceededException =
+            new TimeLimitExceededException("lookup of " + name + " did not complete within " + timeout + " " + unit);
+          timeLimitExceededException.setRemainingName(name);
+          returnValue.completeExceptionally(timeLimitExceededException);
+        }, timeout, unit);
+      returnValue.whenComplete((result, throwable) -> deadline.cancel(false));
+    }
+
+    try {
+      (executor == null ? DefaultExecutor.executor : executor).execute(futureTask);
+    } catch (final RejectedExecutionException rejectedExecutionException) {
+      returnValue.completeExceptionally((NamingException)new NamingException(rejectedExecutionException.getMessage()).initCause(rejectedExecutionException));
+    }
+    return returnValue;
+  }
+
+  private static final class DefaultExecutor {
+
+    private static final Executor executor = newDefaultExecutor();
+
+    private static final Executor newDefaultExecutor() {
+      // Prefer virtual threads where the running JDK offers them; a
+      // slow object factory then costs nothing but a parked virtual
+      // thread.
+      try {
+        final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService)method.invoke(null);
+      } catch (final ReflectiveOperationException | RuntimeException noVirtualThreads) {
+        return Executors.newCachedThreadPool(new DaemonThreadFactory("microbean-jndi-lookup-"));
+      }
+    }
+
+  }
+
+  private static final class Deadlines {
+
+    private static final ScheduledExecutorService scheduler = newScheduler();
+
+    private static final ScheduledExecutorService newScheduler() {
+      final ScheduledThreadPoolExecutor returnValue = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("microbean-jndi-deadline-"));
+      // Nearly every deadline is cancelled because its lookup
+      // finished first; don't keep them queued until they would have
+      // fired.
+      returnValue.setRemoveOnCancelPolicy(true);
+      return returnValue;
+    }
+
+  }
+
+  static final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger counter;
+
+    DaemonThreadFactory(final String prefix) {
+      super();
+      this.prefix = Objects.requireNonNull(prefix);
+      this.counter = new AtomicInteger();
+    }
+
+    @Override
+    public final Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(runnable, this.prefix + this.counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -0,0 +1,160 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+// Inverted indexes over the attributes of every binding in a tree of
+// MapDirContexts, keyed by the binding's composite name relative to
+// the root of the tree.  Names sort component by component, so the
+// names beneath any context form one contiguous range and a query
+// scoped to a subtree touches only the names it returns.
+final class AttributeIndex {
+
+  private final NavigableMap<Name, Attributes> entries;
+
+  private final Map<String, NavigableSet<Name>> present;
+
+  private final Map<String, Map<String, NavigableSet<Name>>> equal;
+
+  AttributeIndex() {
+    super();
+    this.entries = new TreeMap<>();
+    this.present = new HashMap<>();
+    this.equal = new HashMap<>();
+  }
+
+  final synchronized Attributes get(final Name name) {
+    return this.entries.get(name);
+  }
+
+  // The attributes are indexed as they are; callers hand over a copy.
+  final synchronized void put(final Name name, final Attributes attributes) throws NamingException {
+    this.remove(name);
+    if (attributes != null && attributes.size() > 0) {
+      this.entries.put(name, attributes);
+      final NamingEnumeration<? extends Attribute> all = attributes.getAll();
+      while (all.hasMore()) {
+        final Attribute attribute = all.next();
+        final String id = normalizeId(attribute.getID());
+        this.present.computeIfAbsent(id, k -> new TreeSet<>()).add(name);
+        final Map<String, NavigableSet<Name>> values = this.equal.computeIfAbsent(id, k -> new HashMap<>());
+        final NamingEnumeration<?> attributeValues = attribute.getAll();
+        while (attributeValues.hasMore()) {
+          values.computeIfAbsent(normalizeValue(attributeValues.next()), k -> new TreeSet<>()).add(name);
+        }
+      }
+    }
+  }
+
+  final synchronized void remove(final Name name) throws NamingException {
+    final Attributes attributes = this.entries.remove(name);
+    if (attributes != null) {
+      final NamingEnumeration<? extends Attribute> all = attributes.getAll();
+      while (all.hasMore()) {
+        final Attribute attribute = all.next();
+        final String id = normalizeId(attribute.getID());
+        final NavigableSet<Name> names = this.present.get(id);
+        if (names != null && names.remove(name) && names.isEmpty()) {
+          this.present.remove(id);
+        }
+        final Map<String, NavigableSet<Name>> values = this.equal.get(id);
+        if (values != null) {
+          final NamingEnumeration<?> attributeValues = attribute.getAll();
+          while (attributeValues.hasMore()) {
+            final String value = normalizeValue(attributeValues.next());
+            final NavigableSet<Name> valueNames = values.get(value);
+            if (valueNames != null && valueNames.remove(name) && valueNames.isEmpty()) {
+              values.remove(value);
+            }
+          }
+          if (values.isEmpty()) {
+            this.equal.remove(id);
+          }
+        }
+      }
+    }
+  }
+
+  final synchronized void removeAll(final Name base) throws NamingException {
+    for (final Name name : range(this.entries.navigableKeySet(), base)) {
+      this.remove(name);
+    }
+  }
+
+  final synchronized List<Name> names(final Name base) {
+    return range(this.entries.navigableKeySet(), base);
+  }
+
+  final synchronized List<Name> present(final String id, final Name base) {
+    return range(this.present.get(normalizeId(id)), base);
+  }
+
+  final synchronized List<Name> equal(final String id, final String value, final Name base) {
+    final Map<String, NavigableSet<Name>> values = this.equal.get(normalizeId(id));
+    return values == null ? Collections.emptyList() : range(values.get(normalizeValue(value)), base);
+  }
+
+  private static final List<Name> range(final NavigableSet<Name> names, final Name base) {
+    if (names == null) {
+      return Collections.emptyList();
+    }
+    final List<Name> returnValue = new ArrayList<>();
+    for (final Name name : names.tailSet(base, true)) {
+      if (!name.startsWith(base)) {
+        break;
+      }
+      returnValue.add(name);
+    }
+    return returnValue;
+  }
+
+  static final String normalizeId(final String id) {
+    return id.toLowerCase(Locale.ROOT);
+  }
+
+  // Values are matched as case-insensitive strings, which is how the
+  // assertion values of a search filter arrive.
+  static final String normalizeValue(final Object value) {
+    final String returnValue;
+    if (value instanceof byte[]) {
+      returnValue = new String((byte[])value, StandardCharsets.UTF_8);
+    } else {
+      returnValue = String.valueOf(value);
+    }
+    return returnValue.toLowerCase(Locale.ROOT);
+  }
+
+}
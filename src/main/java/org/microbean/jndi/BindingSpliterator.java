@@ -0,0 +1,166 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+import java.util.function.Consumer;
+
+import javax.naming.Binding;
+import javax.naming.Name;
+import javax.naming.NamingException;
+
+// Traverses every binding in a subtree, subcontexts included, named
+// relative to the subtree's root.  Each context is read as one
+// segment; splitting hands off whole subtrees that have been
+// discovered but not yet read, and only splits a segment's own
+// bindings when there are no subtrees left to hand off.  Bound
+// objects are passed on as stored, never dereferenced.
+final class BindingSpliterator implements Spliterator<Binding> {
+
+  private static final int MIN_SPLIT = 64;
+
+  private final Deque<Segment> segments;
+
+  BindingSpliterator(final AbstractContext<?> root, final Name prefix) throws NamingException {
+    super();
+    this.segments = new ArrayDeque<>();
+    expand(root, prefix, this.segments);
+  }
+
+  private BindingSpliterator(final Deque<Segment> segments) {
+    super();
+    this.segments = segments;
+  }
+
+  @Override
+  public final boolean tryAdvance(final Consumer<? super Binding> action) {
+    Segment segment;
+    while ((segment = this.segments.peekFirst()) != null) {
+      if (segment.index < segment.end) {
+        final int index = segment.index++;
+        final Object value = segment.values[index];
+        final Name name;
+        try {
+          name = ((Name)segment.prefix.clone()).add(segment.keys[index].toString());
+          if (value instanceof AbstractContext && !segment.expanded) {
+            expand((AbstractContext<?>)value, name, this.segments);
+          }
+        } catch (final NamingException namingException) {
+          throw (NoSuchElementException)new NoSuchElementException(namingException.getMessage()).initCause(namingException);
+        }
+        action.accept(new Binding(name.toString(), value, true));
+        return true;
+      }
+      this.segments.pollFirst();
+    }
+    return false;
+  }
+
+  @Override
+  public final Spliterator<Binding> trySplit() {
+    final int size = this.segments.size();
+    if (size > 1) {
+      // Subtrees not yet started are the natural unit of work.
+      final Deque<Segment> split = new ArrayDeque<>();
+      for (int i = size / 2; i > 0; i--) {
+        split.addFirst(this.segments.pollLast());
+      }
+      return new BindingSpliterator(split);
+    }
+    final Segment segment = this.segments.peekFirst();
+    if (segment == null || segment.end - segment.index < MIN_SPLIT) {
+      return null;
+    }
+    final int middle = (segment.index + segment.end) >>> 1;
+    final Deque<Segment> split = new ArrayDeque<>();
+    split.add(new Segment(segment.prefix, segment.keys, segment.values, segment.index, middle, segment.expanded));
+    segment.index = middle;
+    return new BindingSpliterator(split);
+  }
+
+  @Override
+  public final long estimateSize() {
+    long returnValue = 0L;
+    for (final Segment segment : this.segments) {
+      returnValue += segment.end - segment.index;
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final int characteristics() {
+    return NONNULL;
+  }
+
+  // Reads context's bindings into a segment.  Contexts whose bindings
+  // depend on the reading thread have their whole subtree read now,
+  // on this thread, since the rest of the traversal may run on
+  // others.
+  private static final void expand(final AbstractContext<?> context, final Name prefix, final Deque<Segment> segments) throws NamingException {
+    final List<Object> keys = new ArrayList<>();
+    final List<Object> values = new ArrayList<>();
+    context.forEachBinding((key, value) -> {
+        keys.add(key);
+        values.add(value);
+      });
+    final boolean eager = context.hasThreadSpecificBindings();
+    final Segment segment = new Segment(prefix, keys.toArray(), values.toArray(), 0, keys.size(), eager);
+    segments.addLast(segment);
+    if (eager) {
+      for (int i = 0; i < segment.end; i++) {
+        if (segment.values[i] instanceof AbstractContext) {
+          expand((AbstractContext<?>)segment.values[i], ((Name)prefix.clone()).add(segment.keys[i].toString()), segments);
+        }
+      }
+    }
+  }
+
+  private static final class Segment {
+
+    private final Name prefix;
+
+    private final Object[] keys;
+
+    private final Object[] values;
+
+    private int index;
+
+    private final int end;
+
+    // Whether the subcontexts bound in this segment have already
+    // been read into segments of their own.
+    private final boolean expanded;
+
+    private Segment(final Name prefix, final Object[] keys, final Object[] values, final int index, final int end, final boolean expanded) {
+      super();
+      this.prefix = prefix;
+      this.keys = keys;
+      this.values = values;
+      this.index = index;
+      this.end = end;
+      this.expanded = expanded;
+    }
+
+  }
+
+}
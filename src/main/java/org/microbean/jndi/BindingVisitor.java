@@ -0,0 +1,30 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+// Visits bindings as AbstractContext.walk(int, BindingVisitor) finds
+// them.  The key and value are exactly what the context stores:
+// nothing is parsed, copied or dereferenced on the visitor's behalf.
+@FunctionalInterface
+public interface BindingVisitor {
+
+  // Returns whether to descend into value, if it is an
+  // AbstractContext; depth is 0 for the bindings of the context the
+  // walk started from.
+  public boolean visit(final AbstractContext<?> context, final Object key, final Object value, final int depth);
+
+}
@@ -0,0 +1,607 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.function.LongSupplier;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+// A context that remembers what another, slow one said.  Lookups and
+// listings are answered from the cache for a time to live, and the
+// first thread to miss loads the answer while any others that miss
+// the same name meanwhile wait for it rather than asking again.  With
+// refresh ahead, a hit close enough to expiry has the answer reloaded
+// in the background, so that busy names never miss at all.  Writes go
+// straight to the delegate and invalidate what they affect; changes
+// made behind this context's back are seen only once the cached
+// answer expires or is invalidated explicitly.  Mount one in an
+// AbstractContext and lookups forwarded to it get the same treatment.
+// Listings hand back the cached pairs and bindings themselves, which
+// callers must not modify.  An answer reached through a LinkRef in an
+// AbstractContext is not cached, since a write to where the link leads
+// would not invalidate it.  The cache holds at most maxSize answers;
+// making room evicts, of a few sampled, the one closest to expiry.
+public class CachingContext implements Context {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private static final int EVICTION_SAMPLE = 8;
+
+  private final Context delegate;
+
+  private final long timeToLiveNanos;
+
+  private final long refreshAheadNanos;
+
+  private final Executor executor;
+
+  private final int maxSize;
+
+  private final LongSupplier nanoTime;
+
+  private final ConcurrentMap<Key, Entry> entries;
+
+  // Evicts expired entries nobody asks for again; entries that are
+  // asked for are checked for freshness on the spot.
+  private final TimingWheel wheel;
+
+  public CachingContext(final Context delegate, final long timeToLive, final TimeUnit unit) {
+    this(delegate, timeToLive, 0L, unit, null);
+  }
+
+  // refreshAhead is how long before expiry a hit starts a reload on
+  // executor, or, if it is null, on the executor lookupAsync uses by
+  // default.  Zero turns refresh ahead off.
+  public CachingContext(final Context delegate, final long timeToLive, final long refreshAhead, final TimeUnit unit, final Executor executor) {
+    this(delegate, timeToLive, refreshAhead, unit, executor, DEFAULT_MAX_SIZE);
+  }
+
+  public CachingContext(final Context delegate, final long timeToLive, final long refreshAhead, final TimeUnit unit, final Executor executor, final int maxSize) {
+    this(delegate, timeToLive, refreshAhead, unit, executor, maxSize, System::nanoTime);
+  }
+
+  // nanoTime stands in for System.nanoTime() in deciding when answers
+  // expire, and drives the wheel that evicts them, so that the two
+  // agree on what time it is.
+  CachingContext(final Context delegate,
+                 final long timeToLive,
+                 final long refreshAhead,
+                 final TimeUnit unit,
+                 final Executor executor,
+                 final int maxSize,
+                 final LongSupplier nanoTime) {
+    super();
+    this.delegate = Objects.requireNonNull(delegate);
+    if (timeToLive <= 0L) {
+      throw new IllegalArgumentException("timeToLive <= 0: " + timeToLive);
+    }
+    if (refreshAhead < 0L || refreshAhead >= timeToLive) {
+      throw new IllegalArgumentException("refreshAhead: " + refreshAhead);
+    }
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+    }
+    this.timeToLiveNanos = unit.toNanos(timeToLive);
+    this.refreshAheadNanos = unit.toNanos(refreshAhead);
+    this.executor = executor;
+    this.maxSize = maxSize;
+    this.nanoTime = Objects.requireNonNull(nanoTime);
+    this.entries = new ConcurrentHashMap<>();
+    this.wheel = new TimingWheel(Math.max(TimeUnit.MILLISECONDS.toNanos(1L), this.timeToLiveNanos / 8L), 512, this.nanoTime);
+  }
+
+  public final Context getDelegate() {
+    return this.delegate;
+  }
+
+  public final void invalidate(final String name) throws NamingException {
+    this.invalidate(new CompositeName(name));
+  }
+
+  // Forgets name, everything beneath it, and the listings of the
+  // contexts above it.  The cost is a scan of the cache.
+  public final void invalidate(final Name name) {
+    final Name n = normalize(name);
+    this.entries.keySet().removeIf(key -> key.name.startsWith(n) || (key.operation.isListing() && n.startsWith(key.name)));
+  }
+
+  public final void invalidateAll() {
+    this.entries.clear();
+  }
+
+  @Override
+  public Object lookup(final String name) throws NamingException {
+    return this.lookup(new CompositeName(name));
+  }
+
+  @Override
+  public Object lookup(final Name name) throws NamingException {
+    if (name.isEmpty()) {
+      return this;
+    }
+    final Name n = normalize(name);
+    return this.cached(Operation.LOOKUP, n, () -> this.delegate.lookup(n));
+  }
+
+  @Override
+  public Object lookupLink(final String name) throws NamingException {
+    return this.lookupLink(new CompositeName(name));
+  }
+
+  @Override
+  public Object lookupLink(final Name name) throws NamingException {
+    if (name.isEmpty()) {
+      return this;
+    }
+    final Name n = normalize(name);
+    return this.cached(Operation.LOOKUP_LINK, n, () -> this.delegate.lookupLink(n));
+  }
+
+  @Override
+  public NamingEnumeration<NameClassPair> list(final String name) throws NamingException {
+    return this.list(new CompositeName(name));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public NamingEnumeration<NameClassPair> list(final Name name) throws NamingException {
+    final Name n = normalize(name);
+    return new ListEnumeration<>((List<NameClassPair>)this.cached(Operation.LIST, n, () -> drain(this.delegate.list(n))));
+  }
+
+  @Override
+  public NamingEnumeration<Binding> listBindings(final String name) throws NamingException {
+    return this.listBindings(new CompositeName(name));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public NamingEnumeration<Binding> listBindings(final Name name) throws NamingException {
+    final Name n = normalize(name);
+    return new ListEnumeration<>((List<Binding>)this.cached(Operation.LIST_BINDINGS, n, () -> drain(this.delegate.listBindings(n))));
+  }
+
+  @Override
+  public void bind(final String name, final Object object) throws NamingException {
+    this.bind(new CompositeName(name), object);
+  }
+
+  @Override
+  public void bind(final Name name, final Object object) throws NamingException {
+    try {
+      this.delegate.bind(name, object);
+    } finally {
+      this.invalidate(name);
+    }
+  }
+
+  @Override
+  public void rebind(final String name, final Object object) throws NamingException {
+    this.rebind(new CompositeName(name), object);
+  }
+
+  @Override
+  public void rebind(final Name name, final Object object) throws NamingException {
+    try {
+      this.delegate.rebind(name, object);
+    } finally {
+      this.invalidate(name);
+    }
+  }
+
+  @Override
+  public void unbind(final String name) throws NamingException {
+    this.unbind(new CompositeName(name));
+  }
+
+  @Override
+  public void unbind(final Name name) throws NamingException {
+    try {
+      this.delegate.unbind(name);
+    } finally {
+      this.invalidate(name);
+    }
+  }
+
+  @Override
+  public void rename(final String oldName, final String newName) throws NamingException {
+    this.rename(new CompositeName(oldName), new CompositeName(newName));
+  }
+
+  @Override
+  public void rename(final Name oldName, final Name newName) throws NamingException {
+    try {
+      this.delegate.rename(oldName, newName);
+    } finally {
+      this.invalidate(oldName);
+      this.invalidate(newName);
+    }
+  }
+
+  @Override
+  public void destroySubcontext(final String name) throws NamingException {
+    this.destroySubcontext(new CompositeName(name));
+  }
+
+  @Override
+  public void destroySubcontext(final Name name) throws NamingException {
+    try {
+      this.delegate.destroySubcontext(name);
+    } finally {
+      this.invalidate(name);
+    }
+  }
+
+  @Override
+  public Context createSubcontext(final String name) throws NamingException {
+    return this.createSubcontext(new CompositeName(name));
+  }
+
+  @Override
+  public Context createSubcontext(final Name name) throws NamingException {
+    try {
+      return this.delegate.createSubcontext(name);
+    } finally {
+      this.invalidate(name);
+    }
+  }
+
+  @Override
+  public NameParser getNameParser(final String name) throws NamingException {
+    return this.delegate.getNameParser(name);
+  }
+
+  @Override
+  public NameParser getNameParser(final Name name) throws NamingException {
+    return this.delegate.getNameParser(name);
+  }
+
+  @Override
+  public String composeName(final String name, final String prefix) throws NamingException {
+    return this.delegate.composeName(name, prefix);
+  }
+
+  @Override
+  public Name composeName(final Name name, final Name prefix) throws NamingException {
+    return this.delegate.composeName(name, prefix);
+  }
+
+  @Override
+  public Object addToEnvironment(final String propertyName, final Object propertyValue) throws NamingException {
+    return this.delegate.addToEnvironment(propertyName, propertyValue);
+  }
+
+  @Override
+  public Object removeFromEnvironment(final String propertyName) throws NamingException {
+    return this.delegate.removeFromEnvironment(propertyName);
+  }
+
+  @Override
+  public Hashtable<?, ?> getEnvironment() throws NamingException {
+    return this.delegate.getEnvironment();
+  }
+
+  @Override
+  public String getNameInNamespace() throws NamingException {
+    return this.delegate.getNameInNamespace();
+  }
+
+  @Override
+  public void close() throws NamingException {
+    this.invalidateAll();
+    this.delegate.close();
+  }
+
+  private final Object cached(final Operation operation, final Name name, final Loader loader) throws NamingException {
+    this.wheel.advanceIfDue();
+    final Key key = new Key(operation, name);
+    while (true) {
+      final Entry entry = this.entries.get(key);
+      if (entry == null) {
+        if (this.entries.size() >= this.maxSize) {
+          this.evictOne();
+        }
+        final Entry ours = new Entry();
+        if (this.entries.putIfAbsent(key, ours) == null) {
+          return this.load(key, ours, loader);
+        }
+      } else if (!entry.isDone()) {
+        if (entry.thread == Thread.currentThread()) {
+          throw new NamingException("circular lookup of " + name);
+        }
+        return entry.await();
+      } else if (entry.failure == null) {
+        final long now = this.nanoTime.getAsLong();
+        if (entry.expiresAt - now > 0L) {
+          if (entry.refreshAt - now <= 0L && entry.refreshing.compareAndSet(false, true)) {
+            this.refresh(key, entry, loader);
+          }
+          return entry.value;
+        }
+        final Entry ours = new Entry();
+        if (this.entries.replace(key, entry, ours)) {
+          return this.load(key, ours, loader);
+        }
+      }
+      // Otherwise someone else got there first, or a failed load is
+      // on its way out of the cache; look again.
+    }
+  }
+
+  private final Object load(final Key key, final Entry entry, final Loader loader) throws NamingException {
+    Throwable failure = null;
+    try {
+      final long links = LinkTrail.followedCount();
+      final Object returnValue = loader.load();
+      entry.loaded(returnValue);
+      if (LinkTrail.followedCount() == links) {
+        this.wheel.schedule(new Eviction(key, entry));
+      } else {
+        // Anyone already waiting gets the answer, but nobody later.
+        this.entries.remove(key, entry);
+      }
+      return returnValue;
+    } catch (final RuntimeException | Error | NamingException throwMe) {
+      failure = throwMe;
+      throw throwMe;
+    } finally {
+      if (failure != null) {
+        // Failures are not cached, so that the next lookup tries
+        // again.
+        this.entries.remove(key, entry);
+      }
+      entry.complete(failure);
+    }
+  }
+
+  private final void refresh(final Key key, final Entry stale, final Loader loader) {
+    AsyncLookup.submit(this.executor, () -> {
+        try {
+          final long links = LinkTrail.followedCount();
+          final Entry fresh = new Entry();
+          fresh.loaded(loader.load());
+          fresh.complete(null);
+          if (LinkTrail.followedCount() != links) {
+            this.entries.remove(key, stale);
+          } else if (this.entries.replace(key, stale, fresh)) {
+            this.wheel.schedule(new Eviction(key, fresh));
+          }
+        } finally {
+          // If the reload failed, the next hit tries again; the stale
+          // answer is served until it expires.
+          stale.refreshing.set(false);
+        }
+        return null;
+      }, key.name, 0L, TimeUnit.NANOSECONDS);
+  }
+
+  private final void evictOne() {
+    Map.Entry<Key, Entry> victim = null;
+    int sampled = 0;
+    for (final Map.Entry<Key, Entry> candidate : this.entries.entrySet()) {
+      final Entry entry = candidate.getValue();
+      if (entry.isDone()) {
+        if (victim == null || entry.expiresAt - victim.getValue().expiresAt < 0L) {
+          victim = candidate;
+        }
+        if (++sampled >= EVICTION_SAMPLE) {
+          break;
+        }
+      }
+    }
+    if (victim != null) {
+      this.entries.remove(victim.getKey(), victim.getValue());
+    }
+  }
+
+  private static final Name normalize(final Name name) {
+    try {
+      return name instanceof CompositeName ? (Name)name.clone() : new CompositeName(name.toString());
+    } catch (final NamingException namingException) {
+      throw new IllegalArgumentException(namingException.getMessage(), namingException);
+    }
+  }
+
+  private static final <T> List<T> drain(final NamingEnumeration<T> enumeration) throws NamingException {
+    final List<T> returnValue = new ArrayList<>();
+    try {
+      while (enumeration.hasMore()) {
+        returnValue.add(enumeration.next());
+      }
+    } finally {
+      enumeration.close();
+    }
+    return returnValue;
+  }
+
+  private static enum Operation {
+
+    LOOKUP,
+
+    LOOKUP_LINK,
+
+    LIST,
+
+    LIST_BINDINGS;
+
+    private final boolean isListing() {
+      return this == LIST || this == LIST_BINDINGS;
+    }
+
+  }
+
+  @FunctionalInterface
+  private static interface Loader {
+
+    public Object load() throws NamingException;
+
+  }
+
+  private static final class Key {
+
+    private final Operation operation;
+
+    private final Name name;
+
+    private Key(final Operation operation, final Name name) {
+      super();
+      this.operation = operation;
+      this.name = name;
+    }
+
+    @Override
+    public final int hashCode() {
+      return 31 * this.operation.hashCode() + this.name.hashCode();
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      if (other == this) {
+        return true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        return this.operation == her.operation && this.name.equals(her.name);
+      } else {
+        return false;
+      }
+    }
+
+  }
+
+  // A cached answer, or, until it is done, the load of one that
+  // others may wait for.
+  private final class Entry {
+
+    private final Thread thread;
+
+    private final CountDownLatch done;
+
+    private final AtomicBoolean refreshing;
+
+    private volatile Object value;
+
+    private volatile Throwable failure;
+
+    private volatile long expiresAt;
+
+    private volatile long refreshAt;
+
+    private Entry() {
+      super();
+      this.thread = Thread.currentThread();
+      this.done = new CountDownLatch(1);
+      this.refreshing = new AtomicBoolean();
+    }
+
+    private final void loaded(final Object value) {
+      final long now = CachingContext.this.nanoTime.getAsLong();
+      this.value = value;
+      this.expiresAt = now + CachingContext.this.timeToLiveNanos;
+      // Without refresh ahead, refreshAt is never reached before
+      // expiry.
+      this.refreshAt = CachingContext.this.refreshAheadNanos == 0L ? this.expiresAt : this.expiresAt - CachingContext.this.refreshAheadNanos;
+    }
+
+    private final boolean isDone() {
+      return this.done.getCount() == 0L;
+    }
+
+    private final void complete(final Throwable failure) {
+      this.failure = failure;
+      this.done.countDown();
+    }
+
+    private final Object await() throws NamingException {
+      try {
+        this.done.await();
+      } catch (final InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw (InterruptedNamingException)new InterruptedNamingException().initCause(interruptedException);
+      }
+      final Throwable failure = this.failure;
+      if (failure instanceof NamingException) {
+        // Handed on as is, so that waiters can tell a missing name
+        // from any other failure just as the loader could.
+        throw (NamingException)failure;
+      } else if (failure != null) {
+        throw (NamingException)new NamingException(failure.toString()).initCause(failure);
+      }
+      return this.value;
+    }
+
+  }
+
+  private final class Eviction extends TimingWheel.Timeout {
+
+    private final Key key;
+
+    private final Entry entry;
+
+    private Eviction(final Key key, final Entry entry) {
+      super(entry.expiresAt);
+      this.key = key;
+      this.entry = entry;
+    }
+
+    @Override
+    final void expire() {
+      CachingContext.this.entries.remove(this.key, this.entry);
+    }
+
+  }
+
+  private static final class ListEnumeration<T> extends AbstractNamingEnumeration<T, T> {
+
+    private ListEnumeration(final List<T> list) {
+      super(list.iterator());
+    }
+
+    @Override
+    protected final Object get(final T element) {
+      return element;
+    }
+
+    @Override
+    public final T next() {
+      return this.names.next();
+    }
+
+  }
+
+}
@@ -0,0 +1,300 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.function.BiConsumer;
+
+// Stores a small number of entries in packed parallel arrays that
+// are searched linearly, and promotes itself to a HashMap once it
+// grows past PROMOTION_THRESHOLD entries.  Most naming contexts hold
+// only a handful of bindings, and this avoids allocating a bucket
+// table and a node per entry for each of them.  Like HashMap, this
+// is not safe for concurrent use.
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+
+  static final int PROMOTION_THRESHOLD = 8;
+
+  private static final Object[] EMPTY = new Object[0];
+
+  private Object[] keys;
+
+  private Object[] values;
+
+  private int size;
+
+  private HashMap<K, V> table;
+
+  private int modCount;
+
+  CompactMap() {
+    super();
+    this.keys = EMPTY;
+    this.values = EMPTY;
+  }
+
+  CompactMap(final Map<? extends K, ? extends V> map) {
+    this();
+    if (map != null && !map.isEmpty()) {
+      if (map.size() > PROMOTION_THRESHOLD) {
+        this.table = new HashMap<>(map);
+      } else {
+        this.putAll(map);
+      }
+    }
+  }
+
+  final boolean isPromoted() {
+    return this.table != null;
+  }
+
+  private final int indexOf(final Object key) {
+    final Object[] keys = this.keys;
+    final int size = this.size;
+    for (int i = 0; i < size; i++) {
+      final Object k = keys[i];
+      if (k == key || k.equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public final int size() {
+    final HashMap<K, V> table = this.table;
+    return table == null ? this.size : table.size();
+  }
+
+  @Override
+  public final boolean isEmpty() {
+    return this.size() == 0;
+  }
+
+  @Override
+  public final boolean containsKey(final Object key) {
+    final HashMap<K, V> table = this.table;
+    if (table == null) {
+      return key != null && this.indexOf(key) >= 0;
+    }
+    return table.containsKey(key);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public final V get(final Object key) {
+    final HashMap<K, V> table = this.table;
+    if (table == null) {
+      if (key == null) {
+        return null;
+      }
+      final int index = this.indexOf(key);
+      return index < 0 ? null : (V)this.values[index];
+    }
+    return table.get(key);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public final V put(final K key, final V value) {
+    Objects.requireNonNull(key);
+    final HashMap<K, V> table = this.table;
+    if (table != null) {
+      return table.put(key, value);
+    }
+    final int index = this.indexOf(key);
+    if (index >= 0) {
+      final V old = (V)this.values[index];
+      this.values[index] = value;
+      return old;
+    }
+    final int size = this.size;
+    if (size >= PROMOTION_THRESHOLD) {
+      this.promote().put(key, value);
+      return null;
+    }
+    if (size == this.keys.length) {
+      final int newLength = size == 0 ? 2 : Math.min(size * 2, PROMOTION_THRESHOLD);
+      this.keys = Arrays.copyOf(this.keys, newLength);
+      this.values = Arrays.copyOf(this.values, newLength);
+    }
+    this.keys[size] = key;
+    this.values[size] = value;
+    this.size = size + 1;
+    this.modCount++;
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private final HashMap<K, V> promote() {
+    assert this.table == null;
+    // Sized so that no rehash happens on the way to the next resize.
+    final HashMap<K, V> table = new HashMap<>(PROMOTION_THRESHOLD * 4);
+    for (int i = 0; i < this.size; i++) {
+      table.put((K)this.keys[i], (V)this.values[i]);
+    }
+    this.table = table;
+    this.keys = EMPTY;
+    this.values = EMPTY;
+    this.size = 0;
+    this.modCount++;
+    return table;
+  }
+
+  @Override
+  public final V remove(final Object key) {
+    final HashMap<K, V> table = this.table;
+    if (table != null) {
+      return table.remove(key);
+    }
+    if (key == null) {
+      return null;
+    }
+    final int index = this.indexOf(key);
+    return index < 0 ? null : this.removeAt(index);
+  }
+
+  @SuppressWarnings("unchecked")
+  private final V removeAt(final int index) {
+    final V old = (V)this.values[index];
+    final int last = this.size - 1;
+    // Order is not significant, so fill the hole with the last entry.
+    this.keys[index] = this.keys[last];
+    this.values[index] = this.values[last];
+    this.keys[last] = null;
+    this.values[last] = null;
+    this.size = last;
+    this.modCount++;
+    return old;
+  }
+
+  @Override
+  public final void clear() {
+    final HashMap<K, V> table = this.table;
+    if (table == null) {
+      Arrays.fill(this.keys, 0, this.size, null);
+      Arrays.fill(this.values, 0, this.size, null);
+      this.size = 0;
+      this.modCount++;
+    } else {
+      table.clear();
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public final void forEach(final BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    final HashMap<K, V> table = this.table;
+    if (table == null) {
+      final int modCount = this.modCount;
+      for (int i = 0; i < this.size; i++) {
+        action.accept((K)this.keys[i], (V)this.values[i]);
+        if (modCount != this.modCount) {
+          throw new ConcurrentModificationException();
+        }
+      }
+    } else {
+      table.forEach(action);
+    }
+  }
+
+  @Override
+  public final Set<Map.Entry<K, V>> entrySet() {
+    return new AbstractSet<Map.Entry<K, V>>() {
+
+      @Override
+      public final int size() {
+        return CompactMap.this.size();
+      }
+
+      @Override
+      public final void clear() {
+        CompactMap.this.clear();
+      }
+
+      @Override
+      public final Iterator<Map.Entry<K, V>> iterator() {
+        final HashMap<K, V> table = CompactMap.this.table;
+        if (table != null) {
+          return table.entrySet().iterator();
+        }
+        return new ArrayIterator();
+      }
+    };
+  }
+
+  private final class ArrayIterator implements Iterator<Map.Entry<K, V>> {
+
+    private int next;
+
+    private int current;
+
+    private int expectedModCount;
+
+    private ArrayIterator() {
+      super();
+      this.current = -1;
+      this.expectedModCount = CompactMap.this.modCount;
+    }
+
+    @Override
+    public final boolean hasNext() {
+      return this.next < CompactMap.this.size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final Map.Entry<K, V> next() {
+      if (this.expectedModCount != CompactMap.this.modCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      this.current = this.next++;
+      return new AbstractMap.SimpleImmutableEntry<>((K)CompactMap.this.keys[this.current], (V)CompactMap.this.values[this.current]);
+    }
+
+    @Override
+    public final void remove() {
+      if (this.current < 0) {
+        throw new IllegalStateException();
+      }
+      if (this.expectedModCount != CompactMap.this.modCount) {
+        throw new ConcurrentModificationException();
+      }
+      CompactMap.this.removeAt(this.current);
+      // The last entry was moved into the hole; visit it next.
+      this.next = this.current;
+      this.current = -1;
+      this.expectedModCount = CompactMap.this.modCount;
+    }
+
+  }
+
+}
@@ -0,0 +1,54 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+public class ConcurrentMapContext extends MapContext {
+
+  public ConcurrentMapContext(final NameParser nameParser) {
+    this(null, null, nameParser, null);
+  }
+
+  public ConcurrentMapContext(final Hashtable<?, ?> environment, final NameParser nameParser) {
+    this(null, environment, nameParser, null);
+  }
+
+  public ConcurrentMapContext(final Map<? extends String, ?> map, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+    super(environment, nameParser, prefix, map == null || map.isEmpty() ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(map));
+  }
+
+  @Override
+  protected Context newContext(final Name prefix) throws NamingException {
+    return new ConcurrentMapContext(null, this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+  }
+
+  @Override
+  protected Context copy() throws NamingException {
+    return new ConcurrentMapContext(this.storage(), this.environment, this.getNameParser(EMPTY_NAME), this.prefix);
+  }
+
+}
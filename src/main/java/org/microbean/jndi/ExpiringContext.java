@@ -0,0 +1,502 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.BiConsumer;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+// A context whose bindings expire: after a time to live, given per
+// binding or defaulted for the whole tree, and, if values are held
+// softly or weakly, when the garbage collector clears them.
+// Subcontexts never expire.  An expired binding is never returned,
+// whether or not it has been evicted yet; eviction is the business of
+// a timing wheel shared by the tree, advanced by the operations made
+// on it and, optionally, by a scheduled executor.
+public class ExpiringContext extends AbstractContext<String> {
+
+  public static final String TICK_MILLIS = "org.microbean.jndi.expiryTickMillis";
+
+  private static final long DEFAULT_TICK_MILLIS = 100L;
+
+  private static final int WHEEL_SIZE = 512;
+
+  // Longer times to live mean forever; deadlines further off than
+  // this could not be compared with System.nanoTime() values.
+  private static final long MAX_TTL_NANOS = Long.MAX_VALUE / 2L;
+
+  // The time to live for the bind or rebind in progress on this
+  // thread, if it was given one; kept here, rather than passed along,
+  // because it must reach whichever subcontext the name resolves to.
+  private static final ThreadLocal<Long> pendingTtlNanos = new ThreadLocal<>();
+
+  public static enum ValueStrength {
+
+    STRONG,
+
+    SOFT,
+
+    WEAK;
+
+  }
+
+  private final ConcurrentMap<String, Slot> map;
+
+  private final Expiry expiry;
+
+  // Whether this is the context that created expiry, and so the one
+  // whose closing stops its scheduled task.
+  private final boolean expiryOwner;
+
+  public ExpiringContext(final Hashtable<?, ?> environment, final NameParser nameParser, final long defaultTtl, final TimeUnit unit) {
+    this(environment, nameParser, defaultTtl, unit, ValueStrength.STRONG, null);
+  }
+
+  // A negative defaultTtl means bindings live until unbound or
+  // collected.  If executor is not null, the wheel is also advanced
+  // on it every tick until this context is closed.
+  public ExpiringContext(final Hashtable<?, ?> environment,
+                         final NameParser nameParser,
+                         final long defaultTtl,
+                         final TimeUnit unit,
+                         final ValueStrength valueStrength,
+                         final ScheduledExecutorService executor) {
+    super(environment, nameParser, null);
+    this.map = new ConcurrentHashMap<>();
+    this.expiry = new Expiry(new TimingWheel(TimeUnit.MILLISECONDS.toNanos(getTickMillis(environment)), WHEEL_SIZE),
+                             defaultTtl < 0L ? -1L : unit.toNanos(defaultTtl),
+                             Objects.requireNonNull(valueStrength));
+    this.expiryOwner = true;
+    if (executor != null) {
+      final long tickNanos = this.expiry.wheel.getTickNanos();
+      this.expiry.task = executor.scheduleAtFixedRate(this.expiry::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private ExpiringContext(final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix, final ConcurrentMap<String, Slot> map, final Expiry expiry) {
+    super(environment, nameParser, prefix);
+    this.map = map;
+    this.expiry = expiry;
+    this.expiryOwner = false;
+  }
+
+  private static final long getTickMillis(final Hashtable<?, ?> environment) {
+    final Object tickMillis = environment == null ? null : environment.get(TICK_MILLIS);
+    if (tickMillis == null) {
+      return DEFAULT_TICK_MILLIS;
+    }
+    final long returnValue = Long.parseLong(tickMillis.toString());
+    if (returnValue <= 0L) {
+      throw new IllegalArgumentException(TICK_MILLIS + ": " + returnValue);
+    }
+    return returnValue;
+  }
+
+  public final void bind(final Name name, final Object obj, final long ttl, final TimeUnit unit) throws NamingException {
+    pendingTtlNanos.set(Long.valueOf(unit.toNanos(ttl)));
+    try {
+      this.bind(name, obj);
+    } finally {
+      pendingTtlNanos.remove();
+    }
+  }
+
+  public final void bind(final String name, final Object obj, final long ttl, final TimeUnit unit) throws NamingException {
+    this.bind(new CompositeName(Objects.requireNonNull(name)), obj, ttl, unit);
+  }
+
+  public final void rebind(final Name name, final Object obj, final long ttl, final TimeUnit unit) throws NamingException {
+    pendingTtlNanos.set(Long.valueOf(unit.toNanos(ttl)));
+    try {
+      this.rebind(name, obj);
+    } finally {
+      pendingTtlNanos.remove();
+    }
+  }
+
+  public final void rebind(final String name, final Object obj, final long ttl, final TimeUnit unit) throws NamingException {
+    this.rebind(new CompositeName(Objects.requireNonNull(name)), obj, ttl, unit);
+  }
+
+  @Override
+  protected Context newContext(final Name prefix) throws NamingException {
+    return new ExpiringContext(this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix), new ConcurrentHashMap<>(), this.expiry);
+  }
+
+  @Override
+  protected Context copy() throws NamingException {
+    return new ExpiringContext(this.environment, this.getNameParser(EMPTY_NAME), this.prefix, this.map, this.expiry);
+  }
+
+  @Override
+  final boolean hasSharedStorage() {
+    // Copies share storage, and bindings expire on their own.
+    return true;
+  }
+
+  @Override
+  final long storageBytes(final long bindings) {
+    // A slot per binding, and a reference object for each if values
+    // are held softly or weakly.
+    return Footprint.storageBytes(this.map, bindings) + bindings * (this.expiry.valueStrength == ValueStrength.STRONG ? 40L : 80L);
+  }
+
+  @Override
+  protected final boolean containsKey(final String mapKey) throws NamingException {
+    return this.get(mapKey) != null;
+  }
+
+  @Override
+  protected final Object get(final String mapKey) throws NamingException {
+    this.expiry.advanceIfDue();
+    Slot slot = this.map.get(Objects.requireNonNull(mapKey));
+    while (slot != null) {
+      final Object returnValue = slot.get(System.nanoTime());
+      if (returnValue != null) {
+        return returnValue;
+      } else if (!slot.isCancelled()) {
+        // Expired, but its tick has not come round yet.
+        slot.cancel();
+        this.expire(slot);
+        return null;
+      }
+      // Released by a write racing this read; whatever replaced it
+      // is what is bound now.
+      final Slot current = this.map.get(mapKey);
+      if (current == slot) {
+        return null;
+      }
+      slot = current;
+    }
+    return null;
+  }
+
+  @Override
+  protected final Set<String> keySet() throws NamingException {
+    this.expiry.advanceIfDue();
+    final long now = System.nanoTime();
+    final Set<String> returnValue = new HashSet<>();
+    this.map.forEach((key, slot) -> {
+        if (slot.get(now) != null) {
+          returnValue.add(key);
+        }
+      });
+    return returnValue;
+  }
+
+  @Override
+  protected void forEachEntry(final BiConsumer<? super String, Object> action) {
+    this.expiry.advanceIfDue();
+    final long now = System.nanoTime();
+    this.map.forEach((key, slot) -> {
+        final Object value = slot.get(now);
+        if (value != null) {
+          action.accept(key, value);
+        }
+      });
+  }
+
+  @Override
+  protected final Object put(final String key, final Object value) throws NamingException {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    this.expiry.advanceIfDue();
+    final Slot slot;
+    if (value instanceof Context) {
+      slot = new Slot(this, key, value, Long.MAX_VALUE, ValueStrength.STRONG, null);
+    } else {
+      final Long pending = pendingTtlNanos.get();
+      final long ttlNanos = pending == null ? this.expiry.defaultTtlNanos : pending.longValue();
+      final long deadline = deadline(System.nanoTime(), ttlNanos);
+      slot = new Slot(this, key, value, deadline, this.expiry.valueStrength, this.expiry.referenceQueue);
+      if (deadline != Long.MAX_VALUE) {
+        this.expiry.wheel.schedule(slot);
+      }
+    }
+    final Slot old = this.map.put(key, slot);
+    return old == null ? null : old.release(System.nanoTime());
+  }
+
+  // Long.MAX_VALUE, meaning never, for a negative or too long ttlNanos.
+  private static final long deadline(final long now, final long ttlNanos) {
+    if (ttlNanos < 0L || ttlNanos > MAX_TTL_NANOS) {
+      return Long.MAX_VALUE;
+    }
+    final long returnValue = now + ttlNanos;
+    return returnValue == Long.MAX_VALUE ? returnValue - 1L : returnValue;
+  }
+
+  @Override
+  protected final Object remove(final String key) throws NamingException {
+    final Slot slot = this.map.remove(Objects.requireNonNull(key));
+    return slot == null ? null : slot.release(System.nanoTime());
+  }
+
+  @Override
+  protected final String extractKey(final Name name) throws NamingException {
+    final Name compoundName = this.toCompoundName(Objects.requireNonNull(name));
+    assert compoundName != null;
+    final String returnValue;
+    if (compoundName.isEmpty()) {
+      returnValue = "";
+    } else {
+      returnValue = compoundName.get(0);
+    }
+    return returnValue;
+  }
+
+  @Override
+  public void rename(final Name oldName, final Name newName) throws NamingException {
+    Objects.requireNonNull(oldName);
+    Objects.requireNonNull(newName);
+    if (oldName.isEmpty()) {
+      throw new InvalidNameException("oldName.isEmpty()");
+    } else if (newName.isEmpty()) {
+      throw new InvalidNameException("newName.isEmpty()");
+    }
+
+    final String newKey = this.toCompoundName(newName).toString();
+    if (this.containsKey(newKey)) {
+      throw new NameAlreadyBoundException(newName.toString());
+    }
+
+    final String oldKey = this.toCompoundName(oldName).toString();
+    final long now = System.nanoTime();
+    final Slot slot = this.map.get(oldKey);
+    final Object value = slot == null ? null : slot.get(now);
+    if (value == null) {
+      throw new NameNotFoundException(oldName.toString());
+    }
+
+    // The binding keeps whatever time it had left.
+    final long ttlNanos = slot.deadline == Long.MAX_VALUE ? -1L : Math.max(0L, slot.deadline - now);
+    this.publish(this.prepareJournalEntry(Journal.Operation.RENAME, oldKey, this.getChildName(newKey)), () -> {
+        pendingTtlNanos.set(Long.valueOf(ttlNanos));
+        try {
+          this.store(newKey, value);
+        } finally {
+          pendingTtlNanos.remove();
+        }
+        this.evict(oldKey);
+        return true;
+      });
+  }
+
+  @Override
+  public void close() throws NamingException {
+    try {
+      super.close();
+    } finally {
+      if (this.expiryOwner && this.expiry.task != null) {
+        this.expiry.task.cancel(false);
+      }
+    }
+  }
+
+  // Evicts slot if it is still what its key is bound to, and
+  // journals the eviction so that replicas drop the binding too.
+  private final void expire(final Slot slot) {
+    Journal.Entry entry;
+    try {
+      entry = this.prepareJournalEntry(Journal.Operation.UNBIND, slot.key, null);
+    } catch (final NamingException namingException) {
+      // Expiry goes ahead whether or not the journal can record it.
+      entry = null;
+    }
+    try {
+      this.publish(entry, () -> {
+          if (this.map.remove(slot.key, slot)) {
+            this.modified();
+            return true;
+          }
+          return false;
+        });
+    } catch (final NamingException namingException) {
+      // The journal could not record the expiry, which expiry has no
+      // caller to tell.
+    }
+  }
+
+  // What every context in one tree shares.
+  private static final class Expiry {
+
+    private final TimingWheel wheel;
+
+    private final long defaultTtlNanos;
+
+    private final ValueStrength valueStrength;
+
+    private final ReferenceQueue<Object> referenceQueue;
+
+    private volatile ScheduledFuture<?> task;
+
+    private Expiry(final TimingWheel wheel, final long defaultTtlNanos, final ValueStrength valueStrength) {
+      super();
+      this.wheel = wheel;
+      this.defaultTtlNanos = defaultTtlNanos;
+      this.valueStrength = valueStrength;
+      this.referenceQueue = valueStrength == ValueStrength.STRONG ? null : new ReferenceQueue<>();
+    }
+
+    private final void advanceIfDue() {
+      this.drainReferenceQueue();
+      this.wheel.advanceIfDue();
+    }
+
+    private final void advance() {
+      this.drainReferenceQueue();
+      this.wheel.advance(System.nanoTime());
+    }
+
+    private final void drainReferenceQueue() {
+      if (this.referenceQueue != null) {
+        Reference<?> reference;
+        while ((reference = this.referenceQueue.poll()) != null) {
+          final Slot slot = ((Value)reference).slot();
+          slot.cancel();
+          slot.context.expire(slot);
+        }
+      }
+    }
+
+  }
+
+  private interface Value {
+
+    Slot slot();
+
+  }
+
+  private static final class SoftValue extends SoftReference<Object> implements Value {
+
+    private final Slot slot;
+
+    private SoftValue(final Object value, final ReferenceQueue<Object> referenceQueue, final Slot slot) {
+      super(value, referenceQueue);
+      this.slot = slot;
+    }
+
+    @Override
+    public final Slot slot() {
+      return this.slot;
+    }
+
+  }
+
+  private static final class WeakValue extends WeakReference<Object> implements Value {
+
+    private final Slot slot;
+
+    private WeakValue(final Object value, final ReferenceQueue<Object> referenceQueue, final Slot slot) {
+      super(value, referenceQueue);
+      this.slot = slot;
+    }
+
+    @Override
+    public final Slot slot() {
+      return this.slot;
+    }
+
+  }
+
+  private static final class Slot extends TimingWheel.Timeout {
+
+    private final ExpiringContext context;
+
+    private final String key;
+
+    // The value itself, or a Reference to it; null once released.
+    private volatile Object value;
+
+    private Slot(final ExpiringContext context,
+                 final String key,
+                 final Object value,
+                 final long deadline,
+                 final ValueStrength valueStrength,
+                 final ReferenceQueue<Object> referenceQueue) {
+      super(deadline);
+      this.context = context;
+      this.key = key;
+      switch (valueStrength) {
+      case SOFT:
+        this.value = new SoftValue(value, referenceQueue, this);
+        break;
+      case WEAK:
+        this.value = new WeakValue(value, referenceQueue, this);
+        break;
+      default:
+        this.value = value;
+        break;
+      }
+    }
+
+    // Returns null once this slot has expired or its value has been
+    // collected.
+    private final Object get(final long now) {
+      if (this.deadline != Long.MAX_VALUE && this.isExpired(now)) {
+        return null;
+      }
+      final Object value = this.value;
+      return value instanceof Value ? ((Reference<?>)value).get() : value;
+    }
+
+    // Cancels this slot, which stays in its wheel bucket until its
+    // deadline, and lets go of its value meanwhile, so that rebinding
+    // a key keeps no superseded values alive.  Returns what get(now)
+    // returned just before.
+    private final Object release(final long now) {
+      final Object returnValue = this.get(now);
+      this.cancel();
+      final Object value = this.value;
+      this.value = null;
+      if (value instanceof Value) {
+        ((Reference<?>)value).clear();
+      }
+      return returnValue;
+    }
+
+    @Override
+    final void expire() {
+      this.context.expire(this);
+    }
+
+  }
+
+}
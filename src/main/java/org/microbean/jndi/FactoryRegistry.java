@@ -0,0 +1,247 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.Referenceable;
+
+import javax.naming.spi.NamingManager;
+import javax.naming.spi.ObjectFactory;
+import javax.naming.spi.StateFactory;
+
+// Decides, once per class, what binding and reading an object of that
+// class involves, so that AbstractContexts go to NamingManager only
+// when it could make a difference.  Factories registered here for a
+// class, or its nearest registered superclass, or else its most
+// specific registered interface, are tried first; of interfaces that
+// are equally specific, the one registered first wins.  NamingManager
+// is then consulted only for References and Referenceables, or when
+// the context's environment or provider resource file names factories
+// of its own; everything else is returned untouched without
+// NamingManager loading anything.  This assumes no
+// ObjectFactoryBuilder has been installed, since NamingManager offers
+// no way to ask.
+public final class FactoryRegistry {
+
+  private static final ConcurrentMap<Class<?>, Registration<ObjectFactory>> objectFactories = new ConcurrentHashMap<>();
+
+  private static final ConcurrentMap<Class<?>, Registration<StateFactory>> stateFactories = new ConcurrentHashMap<>();
+
+  private static final AtomicLong registrations = new AtomicLong();
+
+  // Bumped on every registration, so that decisions made before it
+  // are made again.
+  private static final AtomicInteger generation = new AtomicInteger();
+
+  private static final ClassValue<Decision> decisions = new ClassValue<Decision>() {
+      @Override
+      protected final Decision computeValue(final Class<?> c) {
+        return Decision.of(c, generation.get());
+      }
+    };
+
+  // What the jndiprovider.properties file in a context class's
+  // package says, read once per context class.
+  private static final ClassValue<boolean[]> providerFactories = new ClassValue<boolean[]>() {
+      @Override
+      protected final boolean[] computeValue(final Class<?> contextClass) {
+        final Properties properties = new Properties();
+        try (final InputStream inputStream = contextClass.getResourceAsStream("jndiprovider.properties")) {
+          if (inputStream != null) {
+            properties.load(inputStream);
+          }
+        } catch (final IOException ioException) {
+          // NamingManager would fail too, but not every time; be safe.
+          return new boolean[] { true, true };
+        }
+        return new boolean[] { properties.containsKey(Context.OBJECT_FACTORIES), properties.containsKey(Context.STATE_FACTORIES) };
+      }
+    };
+
+  private FactoryRegistry() {
+    super();
+  }
+
+  public static final void registerObjectFactory(final Class<?> type, final ObjectFactory objectFactory) {
+    objectFactories.put(Objects.requireNonNull(type), new Registration<>(objectFactory));
+    generation.incrementAndGet();
+  }
+
+  public static final void registerStateFactory(final Class<?> type, final StateFactory stateFactory) {
+    stateFactories.put(Objects.requireNonNull(type), new Registration<>(stateFactory));
+    generation.incrementAndGet();
+  }
+
+  public static final void unregister(final Class<?> type) {
+    objectFactories.remove(Objects.requireNonNull(type));
+    stateFactories.remove(type);
+    generation.incrementAndGet();
+  }
+
+  private static final Decision decision(final Class<?> c) {
+    Decision returnValue = decisions.get(c);
+    if (returnValue.generation != generation.get()) {
+      decisions.remove(c);
+      returnValue = decisions.get(c);
+    }
+    return returnValue;
+  }
+
+  static final Object getObjectInstance(final Object object, final Name name, final AbstractContext<?> context, final Hashtable<?, ?> environment) throws Exception {
+    if (object != null) {
+      final Decision decision = decision(object.getClass());
+      if (decision.objectFactory != null) {
+        final Object returnValue = decision.objectFactory.getObjectInstance(object, name, context, environment);
+        if (returnValue != null) {
+          return returnValue;
+        }
+      }
+      if (!decision.referenceable && !hasFactories(context, environment, Context.OBJECT_FACTORIES, 0)) {
+        return object;
+      }
+    }
+    return NamingManager.getObjectInstance(object, name, context, environment);
+  }
+
+  static final Object getStateToBind(final Object object, final Object key, final AbstractContext<?> context, final Hashtable<?, ?> environment) throws NamingException {
+    Name name = null;
+    if (object != null) {
+      final Decision decision = decision(object.getClass());
+      if (decision.stateFactory != null) {
+        name = context.getNameParser(AbstractContext.EMPTY_NAME).parse(key.toString());
+        final Object returnValue = decision.stateFactory.getStateToBind(object, name, context, environment);
+        if (returnValue != null) {
+          return returnValue;
+        }
+      }
+      if (!hasFactories(context, environment, Context.STATE_FACTORIES, 1)) {
+        return object;
+      }
+    }
+    if (name == null) {
+      name = context.getNameParser(AbstractContext.EMPTY_NAME).parse(key.toString());
+    }
+    return NamingManager.getStateToBind(object, name, context, environment);
+  }
+
+  private static final boolean hasFactories(final AbstractContext<?> context, final Hashtable<?, ?> environment, final String propertyName, final int index) {
+    return (environment != null && environment.get(propertyName) != null) || providerFactories.get(context.getClass())[index];
+  }
+
+  private static final class Registration<F> {
+
+    private final F factory;
+
+    private final long order;
+
+    private Registration(final F factory) {
+      super();
+      this.factory = Objects.requireNonNull(factory);
+      this.order = registrations.incrementAndGet();
+    }
+
+  }
+
+  private static final class Decision {
+
+    private final ObjectFactory objectFactory;
+
+    private final StateFactory stateFactory;
+
+    // Whether NamingManager has work to do for this class whatever
+    // the environment says.
+    private final boolean referenceable;
+
+    private final int generation;
+
+    private Decision(final ObjectFactory objectFactory, final StateFactory stateFactory, final boolean referenceable, final int generation) {
+      super();
+      this.objectFactory = objectFactory;
+      this.stateFactory = stateFactory;
+      this.referenceable = referenceable;
+      this.generation = generation;
+    }
+
+    private static final Decision of(final Class<?> c, final int generation) {
+      final ObjectFactory objectFactory = find(objectFactories, c);
+      final StateFactory stateFactory = find(stateFactories, c);
+      // A class with none of these is a negative entry, cached like
+      // any other.
+      final boolean referenceable = Reference.class.isAssignableFrom(c) || Referenceable.class.isAssignableFrom(c);
+      return new Decision(objectFactory, stateFactory, referenceable, generation);
+    }
+
+    // The factory registered for c or its nearest superclass; failing
+    // those, the one registered for the most specific interface c
+    // implements, and of several such interfaces, none a subtype of
+    // another, the one registered first.
+    private static final <F> F find(final ConcurrentMap<Class<?>, Registration<F>> factories, final Class<?> c) {
+      if (factories.isEmpty()) {
+        return null;
+      }
+      for (Class<?> type = c; type != null; type = type.getSuperclass()) {
+        final Registration<F> registration = factories.get(type);
+        if (registration != null) {
+          return registration.factory;
+        }
+      }
+      final List<Map.Entry<Class<?>, Registration<F>>> candidates = new ArrayList<>();
+      for (final Map.Entry<Class<?>, Registration<F>> entry : factories.entrySet()) {
+        if (entry.getKey().isInterface() && entry.getKey().isAssignableFrom(c)) {
+          candidates.add(entry);
+        }
+      }
+      Registration<F> returnValue = null;
+      for (final Map.Entry<Class<?>, Registration<F>> candidate : candidates) {
+        if (returnValue == null || candidate.getValue().order < returnValue.order) {
+          boolean mostSpecific = true;
+          for (final Map.Entry<Class<?>, Registration<F>> other : candidates) {
+            if (other != candidate && candidate.getKey().isAssignableFrom(other.getKey())) {
+              mostSpecific = false;
+              break;
+            }
+          }
+          if (mostSpecific) {
+            returnValue = candidate.getValue();
+          }
+        }
+      }
+      return returnValue == null ? null : returnValue.factory;
+    }
+
+  }
+
+}
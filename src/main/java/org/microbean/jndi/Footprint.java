@@ -0,0 +1,248 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.naming.Context;
+import javax.naming.LinkRef;
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+
+// How much a context, or a subtree of contexts, holds.  Byte counts
+// are estimates for a 64-bit JVM with compressed references: what the
+// context's kind of storage spends per entry, each key and, for
+// strings, boxed primitives and references, the bound object itself.
+// Other bound objects are counted as a reference only, since what
+// they retain is not ours to know; subcontexts are counted in the
+// footprint of their subtree.
+public final class Footprint {
+
+  // Per entry, for storage of a kind not known here.
+  private static final long ENTRY_BYTES = 40L;
+
+  // A HashMap, ConcurrentHashMap or Hashtable node.
+  private static final long HASH_NODE_BYTES = 32L;
+
+  private static final long REFERENCE_BYTES = 4L;
+
+  private final long bindings;
+
+  private final long subcontexts;
+
+  private final long keyBytes;
+
+  private final long environmentBytes;
+
+  private final long estimatedBytes;
+
+  private final long contexts;
+
+  Footprint(final long bindings, final long subcontexts, final long keyBytes, final long environmentBytes, final long estimatedBytes, final long contexts) {
+    super();
+    this.bindings = bindings;
+    this.subcontexts = subcontexts;
+    this.keyBytes = keyBytes;
+    this.environmentBytes = environmentBytes;
+    this.estimatedBytes = estimatedBytes;
+    this.contexts = contexts;
+  }
+
+  public final long getBindingCount() {
+    return this.bindings;
+  }
+
+  public final long getSubcontextCount() {
+    return this.subcontexts;
+  }
+
+  // The characters of every key, at two bytes each.
+  public final long getKeyBytes() {
+    return this.keyBytes;
+  }
+
+  // What the copies of the environment each context keeps come to.
+  public final long getEnvironmentBytes() {
+    return this.environmentBytes;
+  }
+
+  // Everything, environments included.
+  public final long getEstimatedBytes() {
+    return this.estimatedBytes;
+  }
+
+  // The number of contexts counted: one, or the size of a subtree.
+  public final long getContextCount() {
+    return this.contexts;
+  }
+
+  final Footprint plus(final Footprint other) {
+    return new Footprint(this.bindings + other.bindings,
+                         this.subcontexts + other.subcontexts,
+                         this.keyBytes + other.keyBytes,
+                         this.environmentBytes + other.environmentBytes,
+                         this.estimatedBytes + other.estimatedBytes,
+                         this.contexts + other.contexts);
+  }
+
+  @Override
+  public final String toString() {
+    return this.bindings + " bindings (" + this.subcontexts + " subcontexts) in " + this.contexts + " contexts; " +
+      this.keyBytes + " key bytes; " + this.environmentBytes + " environment bytes; ~" + this.estimatedBytes + " bytes";
+  }
+
+  static final long estimate(final Object object) {
+    if (object == null) {
+      return 0L;
+    } else if (object instanceof String) {
+      // The String plus its char array.
+      return 24L + 16L + 2L * ((String)object).length();
+    } else if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+      return 16L;
+    } else if (object instanceof LinkRef) {
+      return 56L + estimate(((LinkRef)object).get(0).getContent());
+    } else if (object instanceof Reference) {
+      final Reference reference = (Reference)object;
+      long returnValue = 40L + estimate(reference.getClassName()) + estimate(reference.getFactoryClassName());
+      for (int i = 0; i < reference.size(); i++) {
+        final RefAddr refAddr = reference.get(i);
+        returnValue += 24L + estimate(refAddr.getType()) + estimate(refAddr.getContent());
+      }
+      return returnValue;
+    }
+    return 0L;
+  }
+
+  static final long estimate(final Map<?, ?> environment) {
+    if (environment == null) {
+      return 0L;
+    }
+    long returnValue = storageBytes(environment, environment.size());
+    for (final Map.Entry<?, ?> entry : environment.entrySet()) {
+      returnValue += estimate(entry.getKey()) + estimate(entry.getValue());
+    }
+    return returnValue;
+  }
+
+  // What storage spends holding entries entries, beyond the keys and
+  // values themselves.
+  static final long storageBytes(final Object storage, final long entries) {
+    if (storage instanceof CompactMap) {
+      if (((CompactMap<?, ?>)storage).isPromoted()) {
+        return 32L + hashed(entries, CompactMap.PROMOTION_THRESHOLD * 4);
+      }
+      // Two parallel arrays, grown by doubling.
+      long length = entries == 0L ? 0L : 2L;
+      while (length < entries) {
+        length <<= 1;
+      }
+      return 32L + (length == 0L ? 0L : 2L * (16L + REFERENCE_BYTES * length));
+    } else if (storage instanceof HashMap || storage instanceof ConcurrentHashMap || storage instanceof Hashtable) {
+      return hashed(entries, 16);
+    } else if (storage instanceof ConcurrentSkipListMap) {
+      // A node per entry, and an index node for about one in four.
+      return 48L + entries * (24L + 6L);
+    } else if (storage instanceof HashTrieMap) {
+      // An entry object and its share of the trie's nodes.
+      return 16L + entries * (24L + 8L);
+    }
+    return ENTRY_BYTES * entries;
+  }
+
+  // A node per entry, and a table kept at most three quarters full.
+  private static final long hashed(final long entries, final int minimumLength) {
+    long length = minimumLength;
+    while (length * 3L / 4L < entries) {
+      length <<= 1;
+    }
+    return 48L + 16L + REFERENCE_BYTES * length + HASH_NODE_BYTES * entries;
+  }
+
+  // Running totals for one context's bindings, kept by its writes.
+  static final class Counter {
+
+    private final LongAdder bindings;
+
+    private final LongAdder subcontexts;
+
+    private final LongAdder keyBytes;
+
+    private final LongAdder bytes;
+
+    // Whether this counter's first count is still under way.
+    volatile boolean counting;
+
+    // Whether a write made without the context's monitor may have
+    // raced that count, so that it must be made again.
+    volatile boolean stale;
+
+    Counter() {
+      super();
+      this.bindings = new LongAdder();
+      this.subcontexts = new LongAdder();
+      this.keyBytes = new LongAdder();
+      this.bytes = new LongAdder();
+    }
+
+    final long getBindingCount() {
+      return this.bindings.sum();
+    }
+
+    // Adds what storage holding entries entries spends on them, for
+    // contexts whose bindings are split across several maps.
+    final void addStorage(final Object storage, final long entries) {
+      this.bytes.add(storageBytes(storage, entries));
+    }
+
+    final void add(final Object key, final Object value) {
+      this.count(key, value, 1L);
+    }
+
+    final void remove(final Object key, final Object value) {
+      this.count(key, value, -1L);
+    }
+
+    private final void count(final Object key, final Object value, final long sign) {
+      final String keyString = key.toString();
+      this.bindings.add(sign);
+      if (value instanceof Context) {
+        this.subcontexts.add(sign);
+      }
+      this.keyBytes.add(sign * 2L * keyString.length());
+      this.bytes.add(sign * (estimate(keyString) + estimate(value)));
+    }
+
+    final Footprint toFootprint(final Map<?, ?> environment, final long storageBytes) {
+      final long environmentBytes = estimate(environment);
+      return new Footprint(this.bindings.sum(),
+                           this.subcontexts.sum(),
+                           this.keyBytes.sum(),
+                           environmentBytes,
+                           this.bytes.sum() + storageBytes + environmentBytes,
+                           1L);
+    }
+
+  }
+
+}
@@ -0,0 +1,201 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+import java.util.function.BiConsumer;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+
+// A context whose bindings are fixed when it is made, usually by the
+// code NamespaceProcessor generates from a namespace file.  The
+// bindings are a sorted array of keys and an array of values, read
+// with a binary search; making one parses, hashes and copies nothing
+// but the values array, so a whole tree costs what its arrays cost.
+// Every write fails.  Copies share their bindings, including their
+// subcontexts, so closing one closes nothing beneath it, and a
+// subcontext, which a lookup hands to every caller, ignores close();
+// only copies of it, such as lookup of "" on it returns, can be
+// closed.
+public final class FrozenContext extends AbstractContext<String> {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final NameParser sharedNameParser = nameString -> new CompoundName(nameString, syntax);
+
+  private final String[] keys;
+
+  private final Object[] values;
+
+  private final boolean shared;
+
+  // keys must be sorted and distinct; values[i] is bound to keys[i],
+  // and is a subcontext if it was made by subcontext().
+  public FrozenContext(final String[] keys, final Object[] values) {
+    this(null, keys, values);
+  }
+
+  public FrozenContext(final Hashtable<?, ?> environment, final String[] keys, final Object[] values) {
+    this(environment, sharedNameParser, null, keys, values);
+  }
+
+  private FrozenContext(final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix, final String[] keys, final Object[] values) {
+    super(environment, nameParser, prefix);
+    this.shared = prefix != null;
+    this.keys = Objects.requireNonNull(keys);
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("keys.length != values.length");
+    }
+    this.values = new Object[values.length];
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0) {
+        throw new IllegalArgumentException("keys are not sorted and distinct at " + keys[i]);
+      }
+      final Object value = Objects.requireNonNull(values[i]);
+      if (value instanceof Subcontext) {
+        final Subcontext subcontext = (Subcontext)value;
+        final Name childName;
+        try {
+          childName = this.getChildName(keys[i]);
+        } catch (final InvalidNameException invalidNameException) {
+          throw new IllegalArgumentException(invalidNameException.getMessage(), invalidNameException);
+        }
+        this.values[i] = new FrozenContext(environment, nameParser, childName, subcontext.keys, subcontext.values);
+      } else {
+        this.values[i] = value;
+      }
+    }
+  }
+
+  // For copy(): shares everything, subcontexts included.
+  private FrozenContext(final FrozenContext source) {
+    super(source.environment, source.getNameParserOrNull(), source.prefix);
+    this.shared = false;
+    this.keys = source.keys;
+    this.values = source.values;
+  }
+
+  // Describes a subcontext to be made along with the FrozenContext
+  // it is bound in.
+  public static final Object subcontext(final String[] keys, final Object[] values) {
+    return new Subcontext(keys, values);
+  }
+
+  private final NameParser getNameParserOrNull() {
+    try {
+      return this.getNameParser(EMPTY_NAME);
+    } catch (final NamingException namingException) {
+      return null;
+    }
+  }
+
+  @Override
+  protected final Context newContext(final Name prefix) throws NamingException {
+    throw new OperationNotSupportedException("frozen");
+  }
+
+  @Override
+  protected final Context copy() throws NamingException {
+    return new FrozenContext(this);
+  }
+
+  @Override
+  protected final boolean containsKey(final String mapKey) throws NamingException {
+    return Arrays.binarySearch(this.keys, Objects.requireNonNull(mapKey)) >= 0;
+  }
+
+  @Override
+  protected final Object get(final String mapKey) throws NamingException {
+    final int index = Arrays.binarySearch(this.keys, Objects.requireNonNull(mapKey));
+    return index < 0 ? null : this.values[index];
+  }
+
+  @Override
+  protected final Set<String> keySet() {
+    return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(this.keys)));
+  }
+
+  @Override
+  protected final Object remove(final String key) throws NamingException {
+    throw new OperationNotSupportedException("frozen");
+  }
+
+  @Override
+  protected final Object put(final String key, final Object value) throws NamingException {
+    throw new OperationNotSupportedException("frozen");
+  }
+
+  @Override
+  protected final void forEachEntry(final BiConsumer<? super String, Object> action) {
+    for (int i = 0; i < this.keys.length; i++) {
+      action.accept(this.keys[i], this.values[i]);
+    }
+  }
+
+  @Override
+  public final void close() throws NamingException {
+    if (!this.shared) {
+      super.close();
+    }
+  }
+
+  @Override
+  protected final void closeSubcontexts() {
+    // Subcontexts belong to every copy of this context.
+  }
+
+  @Override
+  protected final String extractKey(final Name name) throws NamingException {
+    final Name compoundName = this.toCompoundName(Objects.requireNonNull(name));
+    assert compoundName != null;
+    final String returnValue;
+    if (compoundName.isEmpty()) {
+      returnValue = "";
+    } else {
+      returnValue = compoundName.get(0);
+    }
+    return returnValue;
+  }
+
+  private static final class Subcontext {
+
+    private final String[] keys;
+
+    private final Object[] values;
+
+    private Subcontext(final String[] keys, final Object[] values) {
+      super();
+      this.keys = Objects.requireNonNull(keys);
+      this.values = Objects.requireNonNull(values);
+    }
+
+  }
+
+}
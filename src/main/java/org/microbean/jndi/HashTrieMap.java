@@ -0,0 +1,386 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.function.BiConsumer;
+
+// An immutable map stored as a hash array mapped trie.  with and
+// without return a new map that shares everything but the path of at
+// most seven small nodes leading to the changed entry with this one,
+// so a change costs time logarithmic, not linear, in the size of the
+// map.  Nodes hold only the slots that are in use, found through a
+// 32-bit bitmap per level; keys whose whole hashes collide share a
+// node that is searched linearly.
+final class HashTrieMap<K, V> {
+
+  private static final int BITS = 5;
+
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final HashTrieMap<?, ?> EMPTY = new HashTrieMap<>(BitmapNode.EMPTY, 0);
+
+  private final BitmapNode root;
+
+  private final int size;
+
+  private HashTrieMap(final BitmapNode root, final int size) {
+    super();
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static final <K, V> HashTrieMap<K, V> empty() {
+    return (HashTrieMap<K, V>)EMPTY;
+  }
+
+  static final <K, V> HashTrieMap<K, V> of(final Map<? extends K, ? extends V> map) {
+    HashTrieMap<K, V> returnValue = empty();
+    if (map != null) {
+      for (final Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+        returnValue = returnValue.with(entry.getKey(), entry.getValue());
+      }
+    }
+    return returnValue;
+  }
+
+  final int size() {
+    return this.size;
+  }
+
+  final boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  final V get(final Object key) {
+    final int hash = hash(key);
+    Object node = this.root;
+    int shift = 0;
+    while (true) {
+      if (node instanceof BitmapNode) {
+        final BitmapNode bitmapNode = (BitmapNode)node;
+        final int bit = 1 << ((hash >>> shift) & MASK);
+        if ((bitmapNode.bitmap & bit) == 0) {
+          return null;
+        }
+        node = bitmapNode.slots[bitmapNode.index(bit)];
+        shift += BITS;
+      } else if (node instanceof Entry) {
+        final Entry entry = (Entry)node;
+        return entry.hash == hash && entry.key.equals(key) ? (V)entry.value : null;
+      } else {
+        final Entry entry = ((CollisionNode)node).find(key);
+        return entry == null ? null : (V)entry.value;
+      }
+    }
+  }
+
+  final boolean containsKey(final Object key) {
+    return this.get(key) != null;
+  }
+
+  final HashTrieMap<K, V> with(final K key, final V value) {
+    final Entry entry = new Entry(hash(Objects.requireNonNull(key)), key, Objects.requireNonNull(value));
+    final boolean[] added = new boolean[1];
+    final Object root = with(this.root, 0, entry, added);
+    return root == this.root ? this : new HashTrieMap<>((BitmapNode)root, added[0] ? this.size + 1 : this.size);
+  }
+
+  final HashTrieMap<K, V> without(final Object key) {
+    final Object root = without(this.root, 0, hash(Objects.requireNonNull(key)), key);
+    if (root == this.root) {
+      return this;
+    }
+    return new HashTrieMap<>(root == null ? BitmapNode.EMPTY : (BitmapNode)root, this.size - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  final void forEach(final BiConsumer<? super K, ? super V> action) {
+    forEach(this.root, (BiConsumer<Object, Object>)action);
+  }
+
+  // A read-only view of the keys; iterating it copies them.
+  final Set<K> keySet() {
+    return new AbstractSet<K>() {
+      @Override
+      public final int size() {
+        return HashTrieMap.this.size;
+      }
+
+      @Override
+      public final boolean contains(final Object key) {
+        return key != null && HashTrieMap.this.containsKey(key);
+      }
+
+      @Override
+      public final Iterator<K> iterator() {
+        final List<K> keys = new ArrayList<>(HashTrieMap.this.size);
+        HashTrieMap.this.forEach((key, value) -> keys.add(key));
+        final Iterator<K> iterator = keys.iterator();
+        return new Iterator<K>() {
+          @Override
+          public final boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public final K next() {
+            return iterator.next();
+          }
+        };
+      }
+    };
+  }
+
+  private static final int hash(final Object key) {
+    final int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  // Returns node with entry added, or node itself if nothing changed.
+  private static final Object with(final Object node, final int shift, final Entry entry, final boolean[] added) {
+    if (node instanceof CollisionNode) {
+      final CollisionNode collisionNode = (CollisionNode)node;
+      if (collisionNode.hash == entry.hash) {
+        return collisionNode.with(entry, added);
+      }
+      // Push the colliding entries down beneath a node of their own,
+      // where the new entry's hash tells it apart from theirs.
+      return with(new BitmapNode(1 << ((collisionNode.hash >>> shift) & MASK), new Object[] { collisionNode }), shift, entry, added);
+    }
+    final BitmapNode bitmapNode = (BitmapNode)node;
+    final int bit = 1 << ((entry.hash >>> shift) & MASK);
+    final int index = bitmapNode.index(bit);
+    if ((bitmapNode.bitmap & bit) == 0) {
+      added[0] = true;
+      return bitmapNode.inserting(bit, index, entry);
+    }
+    final Object slot = bitmapNode.slots[index];
+    final Object newSlot;
+    if (slot instanceof Entry) {
+      final Entry existing = (Entry)slot;
+      if (existing.hash == entry.hash && existing.key.equals(entry.key)) {
+        if (existing.value == entry.value) {
+          return node;
+        }
+        newSlot = entry;
+      } else {
+        added[0] = true;
+        newSlot = merge(existing, entry, shift + BITS);
+      }
+    } else {
+      newSlot = with(slot, shift + BITS, entry, added);
+      if (newSlot == slot) {
+        return node;
+      }
+    }
+    return bitmapNode.replacing(index, newSlot);
+  }
+
+  // Returns a node holding two entries with different keys.
+  private static final Object merge(final Entry first, final Entry second, final int shift) {
+    if (first.hash == second.hash) {
+      return new CollisionNode(first.hash, new Entry[] { first, second });
+    }
+    // The hashes differ in some bit, so this stops by the last level.
+    final int firstBit = 1 << ((first.hash >>> shift) & MASK);
+    final int secondBit = 1 << ((second.hash >>> shift) & MASK);
+    if (firstBit == secondBit) {
+      return new BitmapNode(firstBit, new Object[] { merge(first, second, shift + BITS) });
+    } else if (Integer.compareUnsigned(firstBit, secondBit) < 0) {
+      return new BitmapNode(firstBit | secondBit, new Object[] { first, second });
+    }
+    return new BitmapNode(firstBit | secondBit, new Object[] { second, first });
+  }
+
+  // Returns node without key, node itself if key was not in it, a
+  // lone Entry that its parent should hold directly, or null if
+  // nothing is left.
+  private static final Object without(final Object node, final int shift, final int hash, final Object key) {
+    if (node instanceof CollisionNode) {
+      return ((CollisionNode)node).without(key);
+    }
+    final BitmapNode bitmapNode = (BitmapNode)node;
+    final int bit = 1 << ((hash >>> shift) & MASK);
+    if ((bitmapNode.bitmap & bit) == 0) {
+      return node;
+    }
+    final int index = bitmapNode.index(bit);
+    final Object slot = bitmapNode.slots[index];
+    final Object newSlot;
+    if (slot instanceof Entry) {
+      final Entry existing = (Entry)slot;
+      if (existing.hash != hash || !existing.key.equals(key)) {
+        return node;
+      }
+      newSlot = null;
+    } else {
+      newSlot = without(slot, shift + BITS, hash, key);
+      if (newSlot == slot) {
+        return node;
+      }
+    }
+    final BitmapNode returnValue = newSlot == null ? bitmapNode.removing(bit, index) : bitmapNode.replacing(index, newSlot);
+    if (shift > 0) {
+      if (returnValue.slots.length == 0) {
+        return null;
+      } else if (returnValue.slots.length == 1 && returnValue.slots[0] instanceof Entry) {
+        return returnValue.slots[0];
+      }
+    }
+    return returnValue;
+  }
+
+  private static final void forEach(final Object node, final BiConsumer<Object, Object> action) {
+    if (node instanceof Entry) {
+      action.accept(((Entry)node).key, ((Entry)node).value);
+    } else if (node instanceof CollisionNode) {
+      for (final Entry entry : ((CollisionNode)node).entries) {
+        action.accept(entry.key, entry.value);
+      }
+    } else {
+      for (final Object slot : ((BitmapNode)node).slots) {
+        forEach(slot, action);
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    private final int hash;
+
+    private final Object key;
+
+    private final Object value;
+
+    private Entry(final int hash, final Object key, final Object value) {
+      super();
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+
+  }
+
+  private static final class BitmapNode {
+
+    private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+
+    // Entries and child nodes, in the order of their bits.
+    private final Object[] slots;
+
+    private BitmapNode(final int bitmap, final Object[] slots) {
+      super();
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    private final int index(final int bit) {
+      return Integer.bitCount(this.bitmap & (bit - 1));
+    }
+
+    private final BitmapNode inserting(final int bit, final int index, final Object slot) {
+      final Object[] slots = new Object[this.slots.length + 1];
+      System.arraycopy(this.slots, 0, slots, 0, index);
+      slots[index] = slot;
+      System.arraycopy(this.slots, index, slots, index + 1, this.slots.length - index);
+      return new BitmapNode(this.bitmap | bit, slots);
+    }
+
+    private final BitmapNode replacing(final int index, final Object slot) {
+      final Object[] slots = this.slots.clone();
+      slots[index] = slot;
+      return new BitmapNode(this.bitmap, slots);
+    }
+
+    private final BitmapNode removing(final int bit, final int index) {
+      final Object[] slots = new Object[this.slots.length - 1];
+      System.arraycopy(this.slots, 0, slots, 0, index);
+      System.arraycopy(this.slots, index + 1, slots, index, slots.length - index);
+      return new BitmapNode(this.bitmap & ~bit, slots);
+    }
+
+  }
+
+  private static final class CollisionNode {
+
+    private final int hash;
+
+    private final Entry[] entries;
+
+    private CollisionNode(final int hash, final Entry[] entries) {
+      super();
+      this.hash = hash;
+      this.entries = entries;
+    }
+
+    private final Entry find(final Object key) {
+      for (final Entry entry : this.entries) {
+        if (entry.key.equals(key)) {
+          return entry;
+        }
+      }
+      return null;
+    }
+
+    private final Object with(final Entry entry, final boolean[] added) {
+      for (int i = 0; i < this.entries.length; i++) {
+        if (this.entries[i].key.equals(entry.key)) {
+          if (this.entries[i].value == entry.value) {
+            return this;
+          }
+          final Entry[] entries = this.entries.clone();
+          entries[i] = entry;
+          return new CollisionNode(this.hash, entries);
+        }
+      }
+      added[0] = true;
+      final Entry[] entries = Arrays.copyOf(this.entries, this.entries.length + 1);
+      entries[this.entries.length] = entry;
+      return new CollisionNode(this.hash, entries);
+    }
+
+    private final Object without(final Object key) {
+      for (int i = 0; i < this.entries.length; i++) {
+        if (this.entries[i].key.equals(key)) {
+          if (this.entries.length == 2) {
+            return this.entries[1 - i];
+          }
+          final Entry[] entries = new Entry[this.entries.length - 1];
+          System.arraycopy(this.entries, 0, entries, 0, i);
+          System.arraycopy(this.entries, i + 1, entries, i, entries.length - i);
+          return new CollisionNode(this.hash, entries);
+        }
+      }
+      return this;
+    }
+
+  }
+
+}
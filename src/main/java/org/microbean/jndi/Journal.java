@@ -0,0 +1,127 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Objects;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+
+// Receives every change made to a tree of AbstractContexts whose
+// environment carries it under AbstractContext.JOURNAL.  Names are
+// composite names relative to the root of the tree, so that entries
+// can be applied to a replica's root as they are.  Writers hold the
+// journal's monitor while they make a change and record it, so that
+// entries arrive in the order the changes were made; record must not
+// wait on other threads that write to the tree.
+@FunctionalInterface
+public interface Journal {
+
+  public void record(final Entry entry) throws NamingException;
+
+  // Called with entry before the change it describes is made, so that
+  // a change that could not be recorded fails without being made.
+  public default void prepare(final Entry entry) throws NamingException {
+
+  }
+
+  public static enum Operation {
+
+    BIND,
+
+    REBIND,
+
+    UNBIND,
+
+    RENAME,
+
+    CREATE_SUBCONTEXT,
+
+    DESTROY_SUBCONTEXT;
+
+  }
+
+  public static final class Entry {
+
+    private final Operation operation;
+
+    private final Name name;
+
+    private final Object value;
+
+    // This entry as a StreamJournal frame, once prepared.
+    byte[] frame;
+
+    public Entry(final Operation operation, final Name name, final Object value) {
+      super();
+      this.operation = Objects.requireNonNull(operation);
+      this.name = Objects.requireNonNull(name);
+      this.value = value;
+    }
+
+    public final Operation getOperation() {
+      return this.operation;
+    }
+
+    public final Name getName() {
+      return this.name;
+    }
+
+    // The bound object for BIND and REBIND, the new name for RENAME,
+    // and null otherwise.
+    public final Object getValue() {
+      return this.value;
+    }
+
+    public final void applyTo(final Context context) throws NamingException {
+      switch (this.operation) {
+      case BIND:
+        context.bind(this.name, this.value);
+        break;
+      case REBIND:
+        context.rebind(this.name, this.value);
+        break;
+      case UNBIND:
+        context.unbind(this.name);
+        break;
+      case RENAME:
+        // Contexts rename within themselves, so the rename is applied
+        // by the context that holds both names.
+        final int size = this.name.size();
+        final Context parent = size == 1 ? context : (Context)context.lookup(this.name.getPrefix(size - 1));
+        parent.rename(this.name.getSuffix(size - 1), ((Name)this.value).getSuffix(size - 1));
+        break;
+      case CREATE_SUBCONTEXT:
+        context.createSubcontext(this.name);
+        break;
+      case DESTROY_SUBCONTEXT:
+        context.destroySubcontext(this.name);
+        break;
+      default:
+        throw new IllegalStateException();
+      }
+    }
+
+    @Override
+    public final String toString() {
+      return this.operation + " " + this.name + (this.value == null ? "" : " " + this.value);
+    }
+
+  }
+
+}
@@ -0,0 +1,215 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.function.Predicate;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+// Reads the frames a StreamJournal writes and applies them to a
+// replica.  Whatever frames have already arrived are applied together
+// as one batch; a VersionedContext replica publishes each batch
+// atomically.  Frames may name only the classes allowedClasses
+// accepts, StreamJournal.DEFAULT_ALLOWED_CLASSES by default; a frame
+// naming any other ends the follower, as a malformed one does.
+public class JournalFollower implements Runnable, Closeable {
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+  private static final long POLL_MILLIS = 20L;
+
+  private final DataInputStream inputStream;
+
+  private final Context context;
+
+  private final int maxBatchSize;
+
+  private final Predicate<? super String> allowedClasses;
+
+  private volatile boolean closed;
+
+  private long applied;
+
+  private volatile NamingException lastFailure;
+
+  public JournalFollower(final InputStream inputStream, final Context context) {
+    this(inputStream, context, DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  public JournalFollower(final InputStream inputStream, final Context context, final int maxBatchSize) {
+    this(inputStream, context, maxBatchSize, StreamJournal.DEFAULT_ALLOWED_CLASSES);
+  }
+
+  public JournalFollower(final InputStream inputStream, final Context context, final int maxBatchSize, final Predicate<? super String> allowedClasses) {
+    super();
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize <= 0: " + maxBatchSize);
+    }
+    this.inputStream = new DataInputStream(new BufferedInputStream(Objects.requireNonNull(inputStream)));
+    this.context = Objects.requireNonNull(context);
+    this.maxBatchSize = maxBatchSize;
+    this.allowedClasses = Objects.requireNonNull(allowedClasses);
+  }
+
+  // Follows a journal file that another process may still be
+  // appending to; reaching its end just means waiting for more.
+  public static final JournalFollower tail(final File file, final Context context) throws IOException {
+    final Tail tail = new Tail(new FileInputStream(file));
+    final JournalFollower returnValue = new JournalFollower(tail, context);
+    tail.follower = returnValue;
+    return returnValue;
+  }
+
+  @Override
+  public void run() {
+    final List<Journal.Entry> batch = new ArrayList<>();
+    try {
+      while (!this.closed) {
+        batch.add(this.read());
+        while (batch.size() < this.maxBatchSize && this.inputStream.available() > 0) {
+          batch.add(this.read());
+        }
+        this.apply(batch);
+        batch.clear();
+      }
+    } catch (final EOFException endOfJournal) {
+
+    } catch (final IOException ioException) {
+      if (!this.closed) {
+        this.lastFailure = (NamingException)new NamingException(ioException.getMessage()).initCause(ioException);
+      }
+    } finally {
+      if (!batch.isEmpty()) {
+        this.apply(batch);
+      }
+    }
+  }
+
+  private final Journal.Entry read() throws IOException {
+    final int length = this.inputStream.readInt();
+    if (length < 0) {
+      throw new IOException("invalid frame length: " + length);
+    }
+    final byte[] frame = new byte[length];
+    this.inputStream.readFully(frame);
+    return StreamJournal.decode(frame, this.allowedClasses);
+  }
+
+  private final void apply(final List<Journal.Entry> batch) {
+    if (this.context instanceof VersionedContext) {
+      try (final VersionedContext.Transaction transaction = ((VersionedContext)this.context).begin()) {
+        this.apply(batch, transaction.getContext());
+        transaction.commit();
+      } catch (final NamingException namingException) {
+        this.lastFailure = namingException;
+      }
+    } else {
+      this.apply(batch, this.context);
+    }
+    synchronized (this) {
+      this.applied += batch.size();
+      this.notifyAll();
+    }
+  }
+
+  private final void apply(final List<Journal.Entry> batch, final Context context) {
+    for (final Journal.Entry entry : batch) {
+      try {
+        entry.applyTo(context);
+      } catch (final NamingException namingException) {
+        // A replica that has drifted still takes every later change.
+        this.lastFailure = namingException;
+      }
+    }
+  }
+
+  public final synchronized long getAppliedCount() {
+    return this.applied;
+  }
+
+  public final NamingException getLastFailure() {
+    return this.lastFailure;
+  }
+
+  public final synchronized boolean awaitApplied(final long count, final long timeout, final TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (this.applied < count) {
+      final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining <= 0L) {
+        return false;
+      }
+      this.wait(remaining);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.closed = true;
+    this.inputStream.close();
+  }
+
+  private static final class Tail extends FilterInputStream {
+
+    private volatile JournalFollower follower;
+
+    private Tail(final InputStream inputStream) {
+      super(inputStream);
+    }
+
+    @Override
+    public final int read() throws IOException {
+      final byte[] b = new byte[1];
+      return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public final int read(final byte[] b, final int offset, final int length) throws IOException {
+      while (true) {
+        final int returnValue = super.read(b, offset, length);
+        if (returnValue >= 0 || this.follower == null || this.follower.closed) {
+          return returnValue;
+        }
+        try {
+          Thread.sleep(POLL_MILLIS);
+        } catch (final InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          return -1;
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,164 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Objects;
+
+import java.util.concurrent.CountDownLatch;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+
+// A binding whose object is made the first time it is looked up.
+// Bind one in an AbstractContext and lookups return what its
+// initializer returns.  However many threads look it up at once, the
+// initializer runs on one of them and the rest wait for it.  If it
+// fails, everyone waiting gets the failure and the next lookup tries
+// again; once it succeeds, its result is kept.  listBindings
+// dereferences, and so initializes, like lookup; forEachBinding, walk
+// and stream pass the LazyBinding itself along untouched, and closing
+// the context initializes nothing.
+public final class LazyBinding {
+
+  private final Initializer initializer;
+
+  private final AtomicReference<Flight> flight;
+
+  private volatile Object value;
+
+  public LazyBinding(final Initializer initializer) {
+    super();
+    this.initializer = Objects.requireNonNull(initializer);
+    this.flight = new AtomicReference<>();
+  }
+
+  public final boolean isInitialized() {
+    return this.value != null;
+  }
+
+  // Returns the object if it has been made, or null, without making
+  // it.
+  final Object peek() {
+    return this.value;
+  }
+
+  public final Object get() throws NamingException {
+    Object value = this.value;
+    if (value != null) {
+      return value;
+    }
+    while (true) {
+      final Flight flight = this.flight.get();
+      if (flight == null) {
+        final Flight ours = new Flight();
+        if (this.flight.compareAndSet(null, ours)) {
+          return this.initialize(ours);
+        }
+      } else {
+        value = this.value;
+        if (value != null) {
+          return value;
+        } else if (flight.thread == Thread.currentThread()) {
+          throw new NamingException("circular lazy binding initialization");
+        }
+        return flight.await();
+      }
+    }
+  }
+
+  private final Object initialize(final Flight flight) throws NamingException {
+    Throwable failure = null;
+    try {
+      final Object returnValue = this.initializer.initialize();
+      if (returnValue == null) {
+        throw new NamingException("initializer returned null");
+      }
+      this.value = returnValue;
+      return returnValue;
+    } catch (final RuntimeException | Error | NamingException throwMe) {
+      failure = throwMe;
+      throw throwMe;
+    } catch (final Exception otherStuff) {
+      final NamingException namingException = (NamingException)new NamingException(otherStuff.getMessage()).initCause(otherStuff);
+      failure = namingException;
+      throw namingException;
+    } finally {
+      if (failure != null) {
+        // Not kept, so that the next lookup retries.
+        this.flight.set(null);
+      }
+      flight.complete(failure);
+    }
+  }
+
+  @Override
+  public final String toString() {
+    final Object value = this.value;
+    return value == null ? "LazyBinding[uninitialized]" : "LazyBinding[" + value + "]";
+  }
+
+  @FunctionalInterface
+  public static interface Initializer {
+
+    public Object initialize() throws Exception;
+
+  }
+
+  private final class Flight {
+
+    private final Thread thread;
+
+    private final CountDownLatch done;
+
+    private volatile Throwable failure;
+
+    private Flight() {
+      super();
+      this.thread = Thread.currentThread();
+      this.done = new CountDownLatch(1);
+    }
+
+    private final void complete(final Throwable failure) {
+      this.failure = failure;
+      this.done.countDown();
+    }
+
+    private final Object await() throws NamingException {
+      try {
+        this.done.await();
+      } catch (final InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw (InterruptedNamingException)new InterruptedNamingException().initCause(interruptedException);
+      }
+      final Throwable failure = this.failure;
+      if (failure instanceof NamingException) {
+        throw (NamingException)failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException)failure;
+      } else if (failure instanceof Error) {
+        throw (Error)failure;
+      } else if (failure != null) {
+        throw (NamingException)new NamingException("lazy binding initialization failed: " + failure).initCause(failure);
+      }
+      return LazyBinding.this.value;
+    }
+
+  }
+
+}
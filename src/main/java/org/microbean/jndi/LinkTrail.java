@@ -0,0 +1,82 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.LinkLoopException;
+
+// The links being followed on the current thread.  It is kept in a
+// thread local, rather than passed along, because a link can lead
+// out through an InitialContext and back into these contexts.
+final class LinkTrail {
+
+  private static final ThreadLocal<LinkTrail> current = new ThreadLocal<>();
+
+  // How many links the current thread has ever followed, memoized or
+  // not; comparing two readings tells whether what ran in between went
+  // through a link.
+  private static final ThreadLocal<long[]> followed = ThreadLocal.withInitial(() -> new long[1]);
+
+  private final List<Object> visited;
+
+  private LinkTrail() {
+    super();
+    this.visited = new ArrayList<>();
+  }
+
+  static final LinkTrail enter(final AbstractContext<?> context, final Object key, final int maxDepth) throws LinkLoopException {
+    LinkTrail linkTrail = current.get();
+    if (linkTrail == null) {
+      linkTrail = new LinkTrail();
+      current.set(linkTrail);
+    }
+    final List<Object> visited = linkTrail.visited;
+    for (int i = 0; i < visited.size(); i += 2) {
+      if (visited.get(i) == context && visited.get(i + 1).equals(key)) {
+        throw new LinkLoopException("link cycle at " + key);
+      }
+    }
+    if (visited.size() / 2 >= maxDepth) {
+      throw new LinkLoopException("link depth exceeded " + maxDepth + " at " + key);
+    }
+    visited.add(context);
+    visited.add(key);
+    return linkTrail;
+  }
+
+  static final void followed() {
+    followed.get()[0]++;
+  }
+
+  static final long followedCount() {
+    return followed.get()[0];
+  }
+
+  final void exit() {
+    final int size = this.visited.size();
+    if (size >= 2) {
+      this.visited.remove(size - 1);
+      this.visited.remove(size - 2);
+    }
+    if (this.visited.isEmpty()) {
+      current.remove();
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Objects;
+
+import javax.naming.CannotProceedException;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.LinkRef;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.NoInitialContextException;
+
+import javax.naming.spi.NamingManager;
+
+// A name resolved ahead of time for repeated lookups.  The contexts
+// leading to the one that holds the name's last component are walked
+// once, and the walk is repeated only when one of them changes; get()
+// otherwise costs a stamp check and a probe of that context's
+// bindings, which are always read afresh.  The walk stops short at a
+// context with thread-specific bindings, whose rest is walked the
+// same way, through the calling thread's bindings, on every get();
+// it stops at a link too, and the rest of the name is then looked up
+// from there on every get().
+public final class LookupHandle {
+
+  private final AbstractContext<?> root;
+
+  private final Name name;
+
+  private volatile Resolution resolution;
+
+  LookupHandle(final AbstractContext<?> root, final Name name) {
+    super();
+    this.root = Objects.requireNonNull(root);
+    this.name = (Name)Objects.requireNonNull(name).clone();
+  }
+
+  // Compiles name against context.  A URL name given to a context
+  // that is not ours, such as an InitialContext, is compiled against
+  // the URL context for its scheme, if that is ours.
+  public static final LookupHandle compile(final Context context, final String name) throws NamingException {
+    Objects.requireNonNull(context);
+    Objects.requireNonNull(name);
+    if (context instanceof AbstractContext) {
+      return ((AbstractContext<?>)context).compile(name);
+    }
+    final int colon = name.indexOf(':');
+    if (colon > 0) {
+      Hashtable<?, ?> environment;
+      try {
+        environment = context.getEnvironment();
+      } catch (final NoInitialContextException noInitialContextException) {
+        // An InitialContext with no default context cannot report its
+        // environment, so the one it would most likely have is used.
+        environment = new DefaultEnvironment().environment();
+      }
+      final Context urlContext = NamingManager.getURLContext(name.substring(0, colon), environment);
+      if (urlContext instanceof AbstractContext) {
+        return ((AbstractContext<?>)urlContext).compile(name);
+      }
+    }
+    throw new NamingException(name + " does not resolve through an AbstractContext");
+  }
+
+  public final Name getName() {
+    return (Name)this.name.clone();
+  }
+
+  public final Object get() throws NamingException {
+    Resolution resolution = this.resolution;
+    if (resolution == null || (resolution.stamp != null && !resolution.stamp.isValid())) {
+      resolution = resolve(this.root, this.name);
+      this.resolution = resolution;
+    }
+    return resolution.get();
+  }
+
+  private static final Resolution resolve(final AbstractContext<?> root, final Name name) throws NamingException {
+    Name remainingName;
+    try {
+      remainingName = root.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      // Federated names are left to lookup, which caches federation
+      // boundaries itself.
+      return new Resolution(null, root, name, false);
+    }
+    final Stamp.Builder stamp = new Stamp.Builder();
+    AbstractContext<?> anchor = root;
+    while (remainingName.size() > 1 && !anchor.hasThreadSpecificBindings()) {
+      stamp.add(anchor);
+      final Object value = probe(anchor, remainingName);
+      if (!(value instanceof AbstractContext)) {
+        // A link, a foreign context, or nothing at all: lookup from
+        // here will do whatever is right.
+        break;
+      }
+      anchor = (AbstractContext<?>)value;
+      remainingName = remainingName.getSuffix(1);
+    }
+    return new Resolution(stamp.build(), anchor, remainingName, anchor.hasThreadSpecificBindings());
+  }
+
+  private static final <K> Object probe(final AbstractContext<K> context, final Name compoundName) throws NamingException {
+    return context.get(context.extractKey(compoundName), compoundName);
+  }
+
+  @Override
+  public final String toString() {
+    return "LookupHandle[" + this.name + "]";
+  }
+
+  // The environment of an InitialContext made with none of its own:
+  // system properties and application resource files, merged.
+  private static final class DefaultEnvironment extends InitialContext {
+
+    private DefaultEnvironment() throws NamingException {
+      super(null);
+    }
+
+    private final Hashtable<?, ?> environment() {
+      return this.myProps;
+    }
+
+  }
+
+  private static final class Resolution {
+
+    // Null if this resolution never goes stale.
+    private final Stamp stamp;
+
+    private final AbstractContext<?> anchor;
+
+    private final Name remainingName;
+
+    // Whether anchor's bindings differ from thread to thread, so that
+    // remainingName must be walked on every get().
+    private final boolean threadSpecific;
+
+    private Resolution(final Stamp stamp, final AbstractContext<?> anchor, final Name remainingName, final boolean threadSpecific) {
+      super();
+      this.stamp = stamp;
+      this.anchor = anchor;
+      this.remainingName = remainingName;
+      this.threadSpecific = threadSpecific;
+    }
+
+    private final Object get() throws NamingException {
+      AbstractContext<?> context = this.anchor;
+      Name remainingName = this.remainingName;
+      if (this.threadSpecific) {
+        while (remainingName.size() > 1) {
+          final Object value = probe(context, remainingName);
+          if (!(value instanceof AbstractContext)) {
+            break;
+          }
+          context = (AbstractContext<?>)value;
+          remainingName = remainingName.getSuffix(1);
+        }
+      }
+      if (remainingName.size() == 1 && (this.threadSpecific || this.stamp != null)) {
+        final Object value = probe(context, remainingName);
+        if (value == null) {
+          throw new NameNotFoundException(remainingName.toString());
+        } else if (!(value instanceof LinkRef)) {
+          return value;
+        }
+      }
+      return context.lookup(remainingName);
+    }
+
+  }
+
+}
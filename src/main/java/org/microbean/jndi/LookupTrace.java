@@ -0,0 +1,163 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+// One traced lookup.  Steps are listed in the order they finished,
+// so a HOP follows the steps taken inside the context it hopped to;
+// a step's depth is the number of hops enclosing it.
+public final class LookupTrace {
+
+  private final long sequence;
+
+  private final String name;
+
+  private final long elapsedNanos;
+
+  private final boolean sampled;
+
+  private final List<Step> steps;
+
+  LookupTrace(final long sequence, final String name, final long elapsedNanos, final boolean sampled, final List<Step> steps) {
+    super();
+    this.sequence = sequence;
+    this.name = Objects.requireNonNull(name);
+    this.elapsedNanos = elapsedNanos;
+    this.sampled = sampled;
+    this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+  }
+
+  public final long getSequence() {
+    return this.sequence;
+  }
+
+  public final String getName() {
+    return this.name;
+  }
+
+  public final long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  // Whether this lookup was traced because it was sampled, as
+  // opposed to because it was slow.
+  public final boolean isSampled() {
+    return this.sampled;
+  }
+
+  public final List<Step> getSteps() {
+    return this.steps;
+  }
+
+  public final long getNanos(final Stage stage) {
+    long returnValue = 0L;
+    for (final Step step : this.steps) {
+      if (step.getStage() == stage && step.getDepth() == 0) {
+        returnValue += step.getNanos();
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(this.name).append(": ").append(this.elapsedNanos).append(" ns");
+    for (final Step step : this.steps) {
+      sb.append(System.lineSeparator());
+      for (int i = 0; i <= step.getDepth(); i++) {
+        sb.append("  ");
+      }
+      sb.append(step);
+    }
+    return sb.toString();
+  }
+
+  public static enum Stage {
+
+    // Resolving the URL context a lookup started from; see
+    // AbstractURLContextFactory.
+    URL_CONTEXT,
+
+    // Parsing a composite name into a compound name.
+    PARSE,
+
+    // Finding the context in the next naming system.
+    FEDERATION,
+
+    // Reading a binding from storage.
+    GET,
+
+    // Turning a stored object into the object looked up.
+    DEREFERENCE,
+
+    // Following a LinkRef.
+    LINK,
+
+    // Everything done by the subcontext or next naming system a
+    // lookup moved on to.
+    HOP;
+
+  }
+
+  public static final class Step {
+
+    private final Stage stage;
+
+    private final String component;
+
+    private final int depth;
+
+    private final long nanos;
+
+    Step(final Stage stage, final String component, final int depth, final long nanos) {
+      super();
+      this.stage = Objects.requireNonNull(stage);
+      this.component = component;
+      this.depth = depth;
+      this.nanos = nanos;
+    }
+
+    public final Stage getStage() {
+      return this.stage;
+    }
+
+    // The name or key this step worked on; may be null.
+    public final String getComponent() {
+      return this.component;
+    }
+
+    public final int getDepth() {
+      return this.depth;
+    }
+
+    public final long getNanos() {
+      return this.nanos;
+    }
+
+    @Override
+    public final String toString() {
+      return this.stage + (this.component == null ? "" : " " + this.component) + ": " + this.nanos + " ns";
+    }
+
+  }
+
+}
@@ -0,0 +1,205 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.naming.Context;
+import javax.naming.Name;
+
+// Traces lookups made through AbstractContexts whose environment
+// carries it under AbstractContext.LOOKUP_TRACER.  A lookup is kept
+// if it was sampled or took at least the threshold; when a threshold
+// is set every lookup is timed, since whether it is slow is only
+// known at the end.  Kept traces go into a fixed-size ring that
+// overwrites the oldest trace when full.
+public final class LookupTracer {
+
+  private final double sampleRate;
+
+  private final long thresholdNanos;
+
+  private final AtomicReferenceArray<LookupTrace> ring;
+
+  private final int mask;
+
+  private final AtomicLong sequence;
+
+  private final ThreadLocal<Recording> recordings;
+
+  public LookupTracer(final double sampleRate, final int capacity) {
+    this(sampleRate, -1L, TimeUnit.NANOSECONDS, capacity);
+  }
+
+  // A negative threshold traces sampled lookups only.
+  public LookupTracer(final double sampleRate, final long threshold, final TimeUnit unit, final int capacity) {
+    super();
+    if (sampleRate < 0.0 || sampleRate > 1.0) {
+      throw new IllegalArgumentException("sampleRate: " + sampleRate);
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0: " + capacity);
+    }
+    this.sampleRate = sampleRate;
+    this.thresholdNanos = threshold < 0L ? -1L : unit.toNanos(threshold);
+    final int size = capacity > (1 << 30) ? 1 << 30 : Integer.highestOneBit(capacity - 1) << 1;
+    this.ring = new AtomicReferenceArray<>(Math.max(1, size));
+    this.mask = this.ring.length() - 1;
+    this.sequence = new AtomicLong();
+    this.recordings = ThreadLocal.withInitial(Recording::new);
+  }
+
+  // Removes and returns every trace in the ring, oldest first.
+  public final List<LookupTrace> drain() {
+    final List<LookupTrace> returnValue = new ArrayList<>();
+    for (int i = 0; i < this.ring.length(); i++) {
+      final LookupTrace trace = this.ring.getAndSet(i, null);
+      if (trace != null) {
+        returnValue.add(trace);
+      }
+    }
+    returnValue.sort(Comparator.comparingLong(LookupTrace::getSequence));
+    return returnValue;
+  }
+
+  // Called by a URL context factory once it has produced context, so
+  // that the time it took is charged to the lookup that follows on
+  // the same thread, if that lookup starts at context.
+  final void urlContextResolved(final Context context, final long nanos) {
+    final Recording recording = this.recordings.get();
+    if (recording.nesting == 0) {
+      recording.urlContext = context;
+      recording.urlNanos = nanos;
+    }
+  }
+
+  // Called as a lookup starts.  Lookups made by an enclosing lookup on
+  // the same thread, through subcontexts, links or other naming
+  // systems, are part of its trace rather than traces of their own.
+  final Recording enter(final AbstractContext<?> context) {
+    final Recording recording = this.recordings.get();
+    if (recording.nesting++ == 0) {
+      recording.sampled = this.sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < this.sampleRate;
+      recording.active = recording.sampled || this.thresholdNanos >= 0L;
+      recording.size = 0;
+      final long now = System.nanoTime();
+      if (recording.urlContext == context) {
+        recording.start = now - recording.urlNanos;
+        if (recording.active) {
+          recording.add(LookupTrace.Stage.URL_CONTEXT, null, recording.urlNanos);
+        }
+      } else {
+        recording.start = now;
+      }
+      recording.urlContext = null;
+    }
+    return recording;
+  }
+
+  final void exit(final Recording recording, final Name name) {
+    if (--recording.nesting == 0 && recording.active) {
+      recording.active = false;
+      final long elapsed = System.nanoTime() - recording.start;
+      if (recording.sampled || elapsed >= this.thresholdNanos) {
+        final long sequence = this.sequence.getAndIncrement();
+        this.ring.set((int)(sequence & this.mask), new LookupTrace(sequence, name.toString(), elapsed, recording.sampled, recording.steps()));
+      }
+    }
+  }
+
+  // The state of the lookup in progress on one thread.  Steps are kept
+  // in parallel arrays that are reused from one lookup to the next.
+  static final class Recording {
+
+    private int nesting;
+
+    private boolean sampled;
+
+    private boolean active;
+
+    private long start;
+
+    private Context urlContext;
+
+    private long urlNanos;
+
+    private LookupTrace.Stage[] stages;
+
+    private String[] components;
+
+    private int[] depths;
+
+    private long[] nanos;
+
+    private int size;
+
+    private Recording() {
+      super();
+      this.stages = new LookupTrace.Stage[16];
+      this.components = new String[16];
+      this.depths = new int[16];
+      this.nanos = new long[16];
+    }
+
+    final boolean isActive() {
+      return this.active;
+    }
+
+    // Records a step that began at since, and returns the time it
+    // ended, which is when the next step begins.
+    final long step(final LookupTrace.Stage stage, final Object component, final long since) {
+      final long now = System.nanoTime();
+      this.add(stage, component == null ? null : component.toString(), now - since);
+      return now;
+    }
+
+    private final void add(final LookupTrace.Stage stage, final String component, final long nanos) {
+      if (this.size == this.stages.length) {
+        final int length = this.size << 1;
+        this.stages = Arrays.copyOf(this.stages, length);
+        this.components = Arrays.copyOf(this.components, length);
+        this.depths = Arrays.copyOf(this.depths, length);
+        this.nanos = Arrays.copyOf(this.nanos, length);
+      }
+      this.stages[this.size] = stage;
+      this.components[this.size] = component;
+      this.depths[this.size] = Math.max(0, this.nesting - 1);
+      this.nanos[this.size] = nanos;
+      this.size++;
+    }
+
+    private final List<LookupTrace.Step> steps() {
+      final List<LookupTrace.Step> returnValue = new ArrayList<>(this.size);
+      for (int i = 0; i < this.size; i++) {
+        returnValue.add(new LookupTrace.Step(this.stages[i], this.components[i], this.depths[i], this.nanos[i]));
+        this.components[i] = null;
+      }
+      return returnValue;
+    }
+
+  }
+
+}
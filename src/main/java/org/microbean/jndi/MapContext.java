@@ -16,12 +16,13 @@
  */
 package org.microbean.jndi;
 
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import java.util.function.BiConsumer;
+
 import javax.naming.Context;
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
@@ -44,16 +45,26 @@ public class MapContext extends AbstractContext<String> {
   
   public MapContext(final Map<? extends String, ?> map, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
     super(environment, nameParser, prefix);
-    if (map == null || map.isEmpty()) {
-      this.map = new HashMap<>();
-    } else {
-      this.map = new HashMap<>(map);
-    }
+    this.map = new CompactMap<>(map);
+  }
+
+  protected MapContext(final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix, final Map<String, Object> storage) {
+    super(environment, nameParser, prefix);
+    this.map = Objects.requireNonNull(storage);
+  }
+
+  final Map<String, Object> storage() {
+    return this.map;
+  }
+
+  @Override
+  long storageBytes(final long bindings) {
+    return Footprint.storageBytes(this.map, bindings);
   }
 
   @Override
   protected Context newContext(final Name prefix) throws NamingException {
-    return new MapContext(new HashMap<>(), this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+    return new MapContext(null, this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
   }
 
   @Override
@@ -67,7 +78,7 @@ public class MapContext extends AbstractContext<String> {
   }
   
   @Override
-  protected final Object get(final String mapKey) throws NamingException {
+  protected Object get(final String mapKey) throws NamingException {
     return this.map.get(Objects.requireNonNull(mapKey));
   }
 
@@ -77,7 +88,7 @@ public class MapContext extends AbstractContext<String> {
   }
   
   @Override
-  protected final Object remove(final String key) throws NamingException {
+  protected Object remove(final String key) throws NamingException {
     return this.map.remove(Objects.requireNonNull(key));
   }
 
@@ -86,6 +97,11 @@ public class MapContext extends AbstractContext<String> {
     return this.map.put(Objects.requireNonNull(key), Objects.requireNonNull(value));
   }
 
+  @Override
+  protected void forEachEntry(final BiConsumer<? super String, Object> action) {
+    this.map.forEach(action);
+  }
+
   @Override
   protected final String extractKey(final Name name) throws NamingException {
     final Name compoundName = this.toCompoundName(Objects.requireNonNull(name));
@@ -119,7 +135,10 @@ public class MapContext extends AbstractContext<String> {
       throw new NameNotFoundException(oldName.toString());
     }
     
-    this.put(newKey, this.remove(oldKey));
+    this.publish(this.prepareJournalEntry(Journal.Operation.RENAME, oldKey, this.getChildName(newKey)), () -> {
+        this.store(newKey, this.evict(oldKey));
+        return true;
+      });
   }
 
 }
@@ -17,21 +17,77 @@
 package org.microbean.jndi;
 
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
 
 import javax.naming.CompoundName;
+import javax.naming.ConfigurationException;
 import javax.naming.Context;
-import javax.naming.spi.InitialContextFactory;
+import javax.naming.NameParser;
 import javax.naming.NamingException;
 
+import javax.naming.spi.InitialContextFactory;
+
 public class MapContextFactory implements InitialContextFactory {
 
+  // Set to PROCESS or CLASS_LOADER to have every InitialContext made
+  // by this factory see one shared tree, that of the whole process or
+  // that of the thread context class loader, instead of a new, empty
+  // one of its own.  Each InitialContext is a SharedContextView of the
+  // tree, so closing what it hands out closes nothing for the others.
+  public static final String SHARED_ROOT = "org.microbean.jndi.sharedRoot";
+
+  public static final String PROCESS = "process";
+
+  public static final String CLASS_LOADER = "classLoader";
+
+  private static final Properties sharedSyntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final NameParser sharedNameParser = nameString -> new CompoundName(nameString, sharedSyntax);
+
+  // Weakly keyed, but a tree holding objects of the loader's classes
+  // reaches the loader, so the entry lasts until releaseClassLoaderRoot
+  // is called for it.
+  private static final Map<ClassLoader, ConcurrentMapContext> classLoaderRoots = new WeakHashMap<>();
+
   public MapContextFactory() {
     super();
   }
 
   @Override
-  public Context getInitialContext(final Hashtable<?, ?> environment) {
-    return new MapContext(environment, nameString -> new CompoundName(nameString, Contexts.leftToRightSlashSeparatedSyntax()));
+  public Context getInitialContext(final Hashtable<?, ?> environment) throws NamingException {
+    final Object sharedRoot = environment == null ? null : environment.get(SHARED_ROOT);
+    if (sharedRoot == null) {
+      return new MapContext(environment, nameString -> new CompoundName(nameString, Contexts.leftToRightSlashSeparatedSyntax()));
+    } else if (PROCESS.equals(sharedRoot)) {
+      return new SharedContextView(ProcessRoot.root, environment);
+    } else if (CLASS_LOADER.equals(sharedRoot)) {
+      return new SharedContextView(getClassLoaderRoot(Thread.currentThread().getContextClassLoader()), environment);
+    }
+    throw new ConfigurationException(SHARED_ROOT + ": " + sharedRoot);
   }
-  
+
+  private static final ConcurrentMapContext getClassLoaderRoot(final ClassLoader classLoader) {
+    synchronized (classLoaderRoots) {
+      return classLoaderRoots.computeIfAbsent(classLoader, cl -> SharedContextView.newSharedContext(sharedNameParser, null));
+    }
+  }
+
+  // Drops the tree shared under classLoader, so that the loader can
+  // be collected once it is otherwise unreachable; a container calls
+  // this when it undeploys what the loader loaded.  InitialContexts
+  // made afterwards with the loader see a new, empty tree.
+  public static final void releaseClassLoaderRoot(final ClassLoader classLoader) {
+    synchronized (classLoaderRoots) {
+      classLoaderRoots.remove(classLoader);
+    }
+  }
+
+  private static final class ProcessRoot {
+
+    private static final ConcurrentMapContext root = SharedContextView.newSharedContext(sharedNameParser, null);
+
+  }
+
 }
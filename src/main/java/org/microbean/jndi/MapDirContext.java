@@ -0,0 +1,505 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.naming.CannotProceedException;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import javax.naming.OperationNotSupportedException;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+// A MapContext whose bindings may carry attributes.  Every context in
+// a tree shares one AttributeIndex, maintained as attributes are
+// bound, modified and unbound, so searches are answered from the
+// index instead of by walking the tree.
+public class MapDirContext extends MapContext implements DirContext {
+
+  private final AttributeIndex index;
+
+  // This context's name relative to the root of its tree, as a
+  // composite name of map keys; the index is keyed by such names.
+  private final Name path;
+
+  // The context whose storage this is, and so whose version is this
+  // one's: itself, unless this is a copy.
+  private final MapDirContext owner;
+
+  public MapDirContext(final NameParser nameParser) {
+    this(null, null, nameParser, null);
+  }
+
+  public MapDirContext(final Hashtable<?, ?> environment, final NameParser nameParser) {
+    this(null, environment, nameParser, null);
+  }
+
+  public MapDirContext(final Map<? extends String, ?> map, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+    super(map, environment, nameParser, prefix);
+    this.index = new AttributeIndex();
+    this.path = new CompositeName();
+    this.owner = this;
+  }
+
+  private MapDirContext(final Hashtable<?, ?> environment,
+                        final NameParser nameParser,
+                        final Name prefix,
+                        final Map<String, Object> storage,
+                        final AttributeIndex index,
+                        final Name path,
+                        final MapDirContext owner) {
+    super(environment, nameParser, prefix, storage);
+    this.index = Objects.requireNonNull(index);
+    this.path = Objects.requireNonNull(path);
+    this.owner = owner == null ? this : owner;
+  }
+
+  @Override
+  protected Context newContext(final Name prefix) throws NamingException {
+    return new MapDirContext(this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix), new CompactMap<>(), this.index, this.path(prefix.get(prefix.size() - 1)), null);
+  }
+
+  @Override
+  final boolean hasSharedStorage() {
+    // Copies share storage.
+    return true;
+  }
+
+  @Override
+  final AbstractContext<?> versionSource() {
+    return this.owner;
+  }
+
+  @Override
+  protected Context copy() throws NamingException {
+    // Copies share storage so that the index stays true to them.
+    return new MapDirContext(this.environment, this.getNameParser(EMPTY_NAME), this.prefix, this.storage(), this.index, this.path, this.owner);
+  }
+
+  private final Name path(final String key) throws InvalidNameException {
+    return ((Name)this.path.clone()).add(key);
+  }
+
+  final Attributes attributesOf(final Name path) {
+    final Attributes attributes = this.index.get(path);
+    return attributes == null ? new BasicAttributes(true) : (Attributes)attributes.clone();
+  }
+
+  @Override
+  protected Object remove(final String key) throws NamingException {
+    final Object returnValue = super.remove(key);
+    // Unbinding a subcontext takes everything beneath it out of the
+    // index too.
+    this.index.removeAll(this.path(key));
+    return returnValue;
+  }
+
+  @Override
+  public void rename(final Name oldName, final Name newName) throws NamingException {
+    final String oldKey = this.toCompoundName(Objects.requireNonNull(oldName)).toString();
+    if (this.get(oldKey) instanceof MapDirContext) {
+      throw new OperationNotSupportedException("cannot rename a directory subcontext: " + oldName);
+    }
+    final Attributes attributes = this.index.get(this.path(oldKey));
+    super.rename(oldName, newName);
+    if (attributes != null) {
+      this.index.put(this.path(this.toCompoundName(newName).toString()), attributes);
+    }
+  }
+
+  private final DirContext getContinuationDirContext(final CannotProceedException cannotProceedException) throws NamingException {
+    final Context continuationContext = this.getContinuationContext(cannotProceedException);
+    if (continuationContext instanceof DirContext) {
+      return (DirContext)continuationContext;
+    }
+    throw new NotContextException(cannotProceedException.getResolvedName() + " is not a directory context");
+  }
+
+  private final DirContext getDirContext(final Name name) throws NamingException {
+    final Object target = name.isEmpty() ? this : this.lookup(name);
+    if (target instanceof DirContext) {
+      return (DirContext)target;
+    }
+    throw new NotContextException(name + " is not a directory context");
+  }
+
+  // Returns the directory context holding the terminal binding of
+  // compoundName.
+  private final DirContext getParent(final Name compoundName) throws NamingException {
+    final int size = compoundName.size();
+    return size == 1 ? this : this.getDirContext(compoundName.getPrefix(size - 1));
+  }
+
+  @Override
+  public Attributes getAttributes(final Name name) throws NamingException {
+    return this.getAttributes(name, null);
+  }
+
+  @Override
+  public final Attributes getAttributes(final String name) throws NamingException {
+    return this.getAttributes(new CompositeName(Objects.requireNonNull(name)), null);
+  }
+
+  @Override
+  public Attributes getAttributes(final Name name, final String[] attrIds) throws NamingException {
+    Objects.requireNonNull(name);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      return this.getContinuationDirContext(cannotProceedException).getAttributes(cannotProceedException.getRemainingName(), attrIds);
+    }
+    if (compoundName.isEmpty()) {
+      return SearchResultEnumeration.select(this.attributesOf(this.path), attrIds);
+    }
+    final DirContext parent = this.getParent(compoundName);
+    if (parent != this) {
+      return parent.getAttributes(compoundName.getSuffix(compoundName.size() - 1), attrIds);
+    }
+    final String key = this.extractKey(compoundName);
+    if (!this.containsKey(key)) {
+      throw new NameNotFoundException(name.toString());
+    }
+    return SearchResultEnumeration.select(this.attributesOf(this.path(key)), attrIds);
+  }
+
+  @Override
+  public final Attributes getAttributes(final String name, final String[] attrIds) throws NamingException {
+    return this.getAttributes(new CompositeName(Objects.requireNonNull(name)), attrIds);
+  }
+
+  @Override
+  public final void modifyAttributes(final Name name, final int modOp, final Attributes attrs) throws NamingException {
+    Objects.requireNonNull(attrs);
+    final List<ModificationItem> modificationItems = new ArrayList<>(attrs.size());
+    final NamingEnumeration<? extends Attribute> all = attrs.getAll();
+    while (all.hasMore()) {
+      modificationItems.add(new ModificationItem(modOp, all.next()));
+    }
+    this.modifyAttributes(name, modificationItems.toArray(new ModificationItem[modificationItems.size()]));
+  }
+
+  @Override
+  public final void modifyAttributes(final String name, final int modOp, final Attributes attrs) throws NamingException {
+    this.modifyAttributes(new CompositeName(Objects.requireNonNull(name)), modOp, attrs);
+  }
+
+  @Override
+  public void modifyAttributes(final Name name, final ModificationItem[] mods) throws NamingException {
+    Objects.requireNonNull(name);
+    Objects.requireNonNull(mods);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      this.getContinuationDirContext(cannotProceedException).modifyAttributes(cannotProceedException.getRemainingName(), mods);
+      return;
+    }
+    if (compoundName.isEmpty()) {
+      throw new InvalidNameException("name.isEmpty()");
+    }
+    final DirContext parent = this.getParent(compoundName);
+    if (parent != this) {
+      parent.modifyAttributes(compoundName.getSuffix(compoundName.size() - 1), mods);
+      return;
+    }
+    final String key = this.extractKey(compoundName);
+    if (!this.containsKey(key)) {
+      throw new NameNotFoundException(name.toString());
+    }
+    final Name path = this.path(key);
+    final Attributes attributes = this.attributesOf(path);
+    for (final ModificationItem mod : mods) {
+      final Attribute attribute = mod.getAttribute();
+      switch (mod.getModificationOp()) {
+      case ADD_ATTRIBUTE:
+        final Attribute existing = attributes.get(attribute.getID());
+        if (existing == null) {
+          attributes.put((Attribute)attribute.clone());
+        } else {
+          final NamingEnumeration<?> values = attribute.getAll();
+          while (values.hasMore()) {
+            existing.add(values.next());
+          }
+        }
+        break;
+      case REPLACE_ATTRIBUTE:
+        if (attribute.size() == 0) {
+          attributes.remove(attribute.getID());
+        } else {
+          attributes.put((Attribute)attribute.clone());
+        }
+        break;
+      case REMOVE_ATTRIBUTE:
+        if (attribute.size() == 0) {
+          attributes.remove(attribute.getID());
+        } else {
+          final Attribute current = attributes.get(attribute.getID());
+          if (current != null) {
+            final NamingEnumeration<?> values = attribute.getAll();
+            while (values.hasMore()) {
+              current.remove(values.next());
+            }
+            if (current.size() == 0) {
+              attributes.remove(attribute.getID());
+            }
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("modOp: " + mod.getModificationOp());
+      }
+    }
+    this.index.put(path, attributes);
+  }
+
+  @Override
+  public final void modifyAttributes(final String name, final ModificationItem[] mods) throws NamingException {
+    this.modifyAttributes(new CompositeName(Objects.requireNonNull(name)), mods);
+  }
+
+  @Override
+  protected void bind(final Name name, final Object obj, final boolean rebindPermitted) throws NamingException {
+    this.bind(name, obj, null, rebindPermitted);
+  }
+
+  @Override
+  public final void bind(final Name name, final Object obj, final Attributes attrs) throws NamingException {
+    this.bind(name, obj, attrs, false);
+  }
+
+  @Override
+  public final void bind(final String name, final Object obj, final Attributes attrs) throws NamingException {
+    this.bind(new CompositeName(Objects.requireNonNull(name)), obj, attrs, false);
+  }
+
+  @Override
+  public final void rebind(final Name name, final Object obj, final Attributes attrs) throws NamingException {
+    this.bind(name, obj, attrs, true);
+  }
+
+  @Override
+  public final void rebind(final String name, final Object obj, final Attributes attrs) throws NamingException {
+    this.bind(new CompositeName(Objects.requireNonNull(name)), obj, attrs, true);
+  }
+
+  private final void bind(final Name name, final Object obj, final Attributes attrs, final boolean rebindPermitted) throws NamingException {
+    Objects.requireNonNull(name);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      final DirContext continuationContext = this.getContinuationDirContext(cannotProceedException);
+      if (rebindPermitted) {
+        continuationContext.rebind(cannotProceedException.getRemainingName(), obj, attrs);
+      } else {
+        continuationContext.bind(cannotProceedException.getRemainingName(), obj, attrs);
+      }
+      return;
+    }
+    if (compoundName.isEmpty()) {
+      throw new InvalidNameException("name.isEmpty()");
+    }
+    final DirContext parent = this.getParent(compoundName);
+    if (parent != this) {
+      final Name suffix = compoundName.getSuffix(compoundName.size() - 1);
+      if (rebindPermitted) {
+        parent.rebind(suffix, obj, attrs);
+      } else {
+        parent.bind(suffix, obj, attrs);
+      }
+      return;
+    }
+    // Per the DirContext contract, a directory context bound without
+    // attributes lends its own, and anything else rebound without
+    // attributes keeps those it had.
+    final Name path = this.path(this.extractKey(compoundName));
+    Attributes attributes = attrs;
+    if (attributes == null) {
+      if (obj instanceof DirContext) {
+        attributes = ((DirContext)obj).getAttributes(EMPTY_NAME);
+      } else if (rebindPermitted) {
+        attributes = this.index.get(path);
+      }
+    }
+    super.bind(compoundName, obj, rebindPermitted);
+    if (attributes != null) {
+      this.index.put(path, (Attributes)attributes.clone());
+    }
+  }
+
+  @Override
+  public final DirContext createSubcontext(final String name, final Attributes attrs) throws NamingException {
+    return this.createSubcontext(new CompositeName(Objects.requireNonNull(name)), attrs);
+  }
+
+  @Override
+  public DirContext createSubcontext(final Name name, final Attributes attrs) throws NamingException {
+    Objects.requireNonNull(name);
+    final Name compoundName;
+    try {
+      compoundName = this.toCompoundName(name);
+    } catch (final CannotProceedException cannotProceedException) {
+      return this.getContinuationDirContext(cannotProceedException).createSubcontext(cannotProceedException.getRemainingName(), attrs);
+    }
+    if (compoundName.isEmpty()) {
+      throw new InvalidNameException("name.isEmpty()");
+    }
+    final DirContext parent = this.getParent(compoundName);
+    if (parent != this) {
+      return parent.createSubcontext(compoundName.getSuffix(compoundName.size() - 1), attrs);
+    }
+    final Context returnValue = this.createSubcontext(compoundName);
+    if (!(returnValue instanceof DirContext)) {
+      throw new NotContextException(name + " is not a directory context");
+    }
+    if (attrs != null) {
+      this.index.put(this.path(this.extractKey(compoundName)), (Attributes)attrs.clone());
+    }
+    return (DirContext)returnValue;
+  }
+
+  @Override
+  public DirContext getSchema(final Name name) throws NamingException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public final DirContext getSchema(final String name) throws NamingException {
+    return this.getSchema(new CompositeName(Objects.requireNonNull(name)));
+  }
+
+  @Override
+  public DirContext getSchemaClassDefinition(final Name name) throws NamingException {
+    throw new OperationNotSupportedException();
+  }
+
+  @Override
+  public final DirContext getSchemaClassDefinition(final String name) throws NamingException {
+    return this.getSchemaClassDefinition(new CompositeName(Objects.requireNonNull(name)));
+  }
+
+  @Override
+  public final NamingEnumeration<SearchResult> search(final Name name, final Attributes matchingAttributes) throws NamingException {
+    return this.search(name, matchingAttributes, null);
+  }
+
+  @Override
+  public final NamingEnumeration<SearchResult> search(final String name, final Attributes matchingAttributes) throws NamingException {
+    return this.search(new CompositeName(Objects.requireNonNull(name)), matchingAttributes, null);
+  }
+
+  @Override
+  public final NamingEnumeration<SearchResult> search(final String name, final Attributes matchingAttributes, final String[] attributesToReturn) throws NamingException {
+    return this.search(new CompositeName(Objects.requireNonNull(name)), matchingAttributes, attributesToReturn);
+  }
+
+  @Override
+  public NamingEnumeration<SearchResult> search(final Name name, final Attributes matchingAttributes, final String[] attributesToReturn) throws NamingException {
+    final DirContext target = this.getDirContext(Objects.requireNonNull(name));
+    if (!this.sharesIndexWith(target)) {
+      return target.search(EMPTY_NAME, matchingAttributes, attributesToReturn);
+    }
+    final MapDirContext base = (MapDirContext)target;
+    final SearchControls searchControls = new SearchControls(SearchControls.ONELEVEL_SCOPE, 0L, 0, attributesToReturn, false, false);
+    if (matchingAttributes == null || matchingAttributes.size() == 0) {
+      // Every binding matches, including those without attributes,
+      // which the index knows nothing about.
+      final List<Name> names = new ArrayList<>();
+      for (final String key : base.keySet()) {
+        names.add(base.path(key));
+      }
+      return new SearchResultEnumeration(base, base.path, names, attributesToReturn, false, false);
+    }
+    return base.search(SearchFilter.of(matchingAttributes), searchControls);
+  }
+
+  @Override
+  public final NamingEnumeration<SearchResult> search(final String name, final String filter, final SearchControls cons) throws NamingException {
+    return this.search(new CompositeName(Objects.requireNonNull(name)), filter, cons);
+  }
+
+  @Override
+  public NamingEnumeration<SearchResult> search(final Name name, final String filter, final SearchControls cons) throws NamingException {
+    final DirContext target = this.getDirContext(Objects.requireNonNull(name));
+    if (!this.sharesIndexWith(target)) {
+      return target.search(EMPTY_NAME, filter, cons);
+    }
+    return ((MapDirContext)target).search(SearchFilter.parse(filter), cons);
+  }
+
+  @Override
+  public final NamingEnumeration<SearchResult> search(final String name, final String filterExpr, final Object[] filterArgs, final SearchControls cons) throws NamingException {
+    return this.search(new CompositeName(Objects.requireNonNull(name)), filterExpr, filterArgs, cons);
+  }
+
+  @Override
+  public NamingEnumeration<SearchResult> search(final Name name, final String filterExpr, final Object[] filterArgs, final SearchControls cons) throws NamingException {
+    return this.search(name, SearchFilter.format(filterExpr, filterArgs), cons);
+  }
+
+  private final boolean sharesIndexWith(final DirContext dirContext) {
+    return dirContext instanceof MapDirContext && ((MapDirContext)dirContext).index == this.index;
+  }
+
+  private final NamingEnumeration<SearchResult> search(final SearchFilter filter, final SearchControls cons) throws NamingException {
+    final SearchControls searchControls = cons == null ? new SearchControls() : cons;
+    final int scope = searchControls.getSearchScope();
+    final long countLimit = searchControls.getCountLimit();
+    List<Name> candidates = filter.candidates(this.index, this.path);
+    if (candidates == null) {
+      candidates = this.index.names(this.path);
+    }
+    final int baseSize = this.path.size();
+    final List<Name> names = new ArrayList<>();
+    boolean truncated = false;
+    for (final Name candidate : candidates) {
+      final int depth = candidate.size() - baseSize;
+      if (scope == SearchControls.OBJECT_SCOPE ? depth != 0 : scope == SearchControls.ONELEVEL_SCOPE && depth != 1) {
+        continue;
+      }
+      final Attributes attributes = this.index.get(candidate);
+      if (attributes != null && filter.matches(attributes)) {
+        if (countLimit > 0L && names.size() >= countLimit) {
+          truncated = true;
+          break;
+        }
+        names.add(candidate);
+      }
+    }
+    return new SearchResultEnumeration(this, this.path, names, searchControls.getReturningAttributes(), searchControls.getReturningObjFlag(), truncated);
+  }
+
+}
@@ -0,0 +1,42 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Asks NamespaceProcessor to compile the namespace file at value, a
+// resource path, into a class in the annotated element's package.
+// The class is named className, or, by default, the annotated type's
+// simple name followed by "Namespace", or "NamespaceContext" for a
+// package, and its static getContext() method returns a
+// FrozenContext holding the file's bindings.  The processor runs only
+// when asked for, as with javac's
+// -processor org.microbean.jndi.NamespaceProcessor.
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ ElementType.TYPE, ElementType.PACKAGE })
+public @interface Namespace {
+
+  String value();
+
+  String className() default "";
+
+}
@@ -0,0 +1,198 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.naming.ConfigurationException;
+import javax.naming.LinkRef;
+
+// The namespace file format.  Each line binds a slash-separated name
+// to a value:
+//
+//   jdbc/primary = jdbc:h2:mem:primary
+//   jdbc/timeout = (int) 30
+//   jdbc/default = (link) ./primary
+//   mail = (context)
+//
+// The name ends at the first '=', and both sides are trimmed.  A
+// value is a string unless it starts with one of the types (string),
+// (int), (long), (boolean), (double) or (link); a link is a LinkRef,
+// resolved as any other would be.  (context) binds an empty
+// subcontext, and contexts named on the way to a binding are made as
+// needed.  Blank lines, and lines starting with '#' or '!', are
+// ignored.  There are no escapes or continuation lines.
+final class NamespaceFile {
+
+  static final Object SUBCONTEXT = new Object();
+
+  private NamespaceFile() {
+    super();
+  }
+
+  // Reads a whole namespace file into a tree whose nodes keep their
+  // children sorted.
+  static final Node read(final Reader reader) throws ConfigurationException, IOException {
+    final Node root = new Node();
+    final BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+    String line;
+    int lineNumber = 0;
+    while ((line = lines.readLine()) != null) {
+      lineNumber++;
+      final int separator = separator(line, lineNumber);
+      if (separator >= 0) {
+        root.add(split(line.substring(0, separator), lineNumber), 0, parseValue(line.substring(separator + 1), lineNumber), lineNumber);
+      }
+    }
+    return root;
+  }
+
+  // Returns the index of the '=' ending the name on line, or -1 if
+  // line binds nothing.
+  static final int separator(final String line, final int lineNumber) throws ConfigurationException {
+    final String trimmed = line.trim();
+    if (trimmed.isEmpty() || trimmed.charAt(0) == '#' || trimmed.charAt(0) == '!') {
+      return -1;
+    }
+    final int returnValue = line.indexOf('=');
+    if (returnValue < 0) {
+      throw new ConfigurationException("line " + lineNumber + ": no '=' in \"" + line.trim() + "\"");
+    }
+    return returnValue;
+  }
+
+  static final List<String> split(final String name, final int lineNumber) throws ConfigurationException {
+    final List<String> returnValue = new ArrayList<>();
+    final String trimmed = name.trim();
+    int start = 0;
+    while (true) {
+      final int slash = trimmed.indexOf('/', start);
+      final String component = slash < 0 ? trimmed.substring(start) : trimmed.substring(start, slash);
+      if (component.isEmpty()) {
+        throw new ConfigurationException("line " + lineNumber + ": empty name component in \"" + trimmed + "\"");
+      }
+      returnValue.add(component);
+      if (slash < 0) {
+        return returnValue;
+      }
+      start = slash + 1;
+    }
+  }
+
+  static final Object parseValue(final String text, final int lineNumber) throws ConfigurationException {
+    final String value = text.trim();
+    if (value.isEmpty() || value.charAt(0) != '(') {
+      return value;
+    }
+    final int close = value.indexOf(')');
+    if (close < 0) {
+      throw new ConfigurationException("line " + lineNumber + ": unterminated type in \"" + value + "\"");
+    }
+    final String type = value.substring(1, close).trim();
+    final String literal = value.substring(close + 1).trim();
+    try {
+      switch (type) {
+      case "string":
+        return literal;
+      case "int":
+        return Integer.valueOf(literal);
+      case "long":
+        return Long.valueOf(literal);
+      case "double":
+        return Double.valueOf(literal);
+      case "boolean":
+        if ("true".equals(literal)) {
+          return Boolean.TRUE;
+        } else if ("false".equals(literal)) {
+          return Boolean.FALSE;
+        }
+        throw new NumberFormatException(literal);
+      case "link":
+        if (literal.isEmpty()) {
+          throw new ConfigurationException("line " + lineNumber + ": empty link");
+        }
+        return new LinkRef(literal);
+      case "context":
+        if (!literal.isEmpty()) {
+          throw new ConfigurationException("line " + lineNumber + ": (context) takes no value");
+        }
+        return SUBCONTEXT;
+      default:
+        throw new ConfigurationException("line " + lineNumber + ": unknown type (" + type + ")");
+      }
+    } catch (final NumberFormatException numberFormatException) {
+      throw (ConfigurationException)new ConfigurationException("line " + lineNumber + ": \"" + literal + "\" is not a valid " + type).initCause(numberFormatException);
+    }
+  }
+
+  // Whether text, the part of a line after its '=', is (context),
+  // decided without parsing anything else.
+  static final boolean isSubcontext(final String text) {
+    final String value = text.trim();
+    if (value.isEmpty() || value.charAt(0) != '(') {
+      return false;
+    }
+    final int close = value.indexOf(')');
+    return close > 0 && "context".equals(value.substring(1, close).trim());
+  }
+
+  static final class Node {
+
+    // Values, or Nodes for subcontexts.
+    final SortedMap<String, Object> children;
+
+    Node() {
+      super();
+      this.children = new TreeMap<>();
+    }
+
+    private final void add(final List<String> name, final int index, final Object value, final int lineNumber) throws ConfigurationException {
+      final String component = name.get(index);
+      final Object existing = this.children.get(component);
+      if (index + 1 == name.size()) {
+        if (value == SUBCONTEXT) {
+          if (existing == null) {
+            this.children.put(component, new Node());
+          } else if (!(existing instanceof Node)) {
+            throw new ConfigurationException("line " + lineNumber + ": " + String.join("/", name) + " is already bound");
+          }
+        } else if (existing == null) {
+          this.children.put(component, value);
+        } else {
+          throw new ConfigurationException("line " + lineNumber + ": " + String.join("/", name) + " is already bound");
+        }
+      } else if (existing == null) {
+        final Node node = new Node();
+        this.children.put(component, node);
+        node.add(name, index + 1, value, lineNumber);
+      } else if (existing instanceof Node) {
+        ((Node)existing).add(name, index + 1, value, lineNumber);
+      } else {
+        throw new ConfigurationException("line " + lineNumber + ": " + String.join("/", name.subList(0, index + 1)) + " is not a context");
+      }
+    }
+
+  }
+
+}
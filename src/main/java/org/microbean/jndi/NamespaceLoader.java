@@ -0,0 +1,262 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.FileTime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import javax.naming.CompositeName;
+import javax.naming.CompoundName;
+import javax.naming.ConfigurationException;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+// Loads a namespace file, in the format NamespaceFile describes,
+// without reading more of it than is used.  Loading streams through
+// the file once and keeps, for each top-level name, only where its
+// lines start.  Each top-level binding is a LazyBinding: a value is
+// parsed from its line when it is first looked up, and a subcontext
+// is made, from its lines, only when a lookup first passes through
+// it, with its own bindings lazy in turn.  Mistakes beneath a
+// top-level name surface on the lookup that first touches them.  The
+// file must not change once loaded; if it does, lookups that still
+// need to read it fail.
+public final class NamespaceLoader {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final NameParser sharedNameParser = nameString -> new CompoundName(nameString, syntax);
+
+  private NamespaceLoader() {
+    super();
+  }
+
+  public static final Context load(final Path path) throws NamingException {
+    return load(path, null);
+  }
+
+  public static final Context load(final Path path, final Hashtable<?, ?> environment) throws NamingException {
+    final Source source = new Source(path);
+    final Map<String, Group> groups = new HashMap<>();
+    try (final InputStream inputStream = Files.newInputStream(path)) {
+      final byte[] buffer = new byte[65536];
+      final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+      long offset = 0L;
+      long lineOffset = 0L;
+      int lineNumber = 0;
+      int read;
+      while ((read = inputStream.read(buffer)) > 0) {
+        for (int i = 0; i < read; i++) {
+          final byte b = buffer[i];
+          if (b == '\n') {
+            index(groups, decode(line), lineOffset, ++lineNumber, 0);
+            line.reset();
+            lineOffset = offset + i + 1L;
+          } else {
+            line.write(b);
+          }
+        }
+        offset += read;
+      }
+      if (line.size() > 0) {
+        index(groups, decode(line), lineOffset, ++lineNumber, 0);
+      }
+    } catch (final IOException ioException) {
+      throw (ConfigurationException)new ConfigurationException(path + ": " + ioException.getMessage()).initCause(ioException);
+    }
+    return newContext(source, environment, null, groups);
+  }
+
+  private static final String decode(final ByteArrayOutputStream line) {
+    final String returnValue = new String(line.toByteArray(), StandardCharsets.UTF_8);
+    return returnValue.endsWith("\r") ? returnValue.substring(0, returnValue.length() - 1) : returnValue;
+  }
+
+  // Files the line at offset under its name's component at depth.
+  private static final void index(final Map<String, Group> groups, final String line, final long offset, final int lineNumber, final int depth) throws ConfigurationException {
+    final int separator = NamespaceFile.separator(line, lineNumber);
+    if (separator < 0) {
+      return;
+    }
+    final List<String> name = NamespaceFile.split(line.substring(0, separator), lineNumber);
+    assert name.size() > depth;
+    final Group group = groups.computeIfAbsent(name.get(depth), Group::new);
+    if (name.size() > depth + 1) {
+      group.addDescendant(offset, lineNumber);
+    } else if (NamespaceFile.isSubcontext(line.substring(separator + 1))) {
+      group.context = true;
+    } else if (group.leafLineNumber != 0) {
+      throw new ConfigurationException("line " + lineNumber + ": " + String.join("/", name) + " is already bound");
+    } else {
+      group.leafOffset = offset;
+      group.leafLineNumber = lineNumber;
+    }
+    if (group.leafLineNumber != 0 && (group.context || group.size > 0)) {
+      throw new ConfigurationException("line " + lineNumber + ": " + String.join("/", name.subList(0, depth + 1)) + " is not a context");
+    }
+  }
+
+  private static final Context newContext(final Source source, final Hashtable<?, ?> environment, final Name prefix, final Map<String, Group> groups) throws InvalidNameException {
+    final Map<String, Object> bindings = new HashMap<>(groups.size() * 4 / 3 + 1);
+    for (final Group group : groups.values()) {
+      final Name name = prefix == null ? new CompositeName() : (Name)prefix.clone();
+      name.add(group.component);
+      if (group.leafLineNumber != 0) {
+        bindings.put(group.component, new LazyBinding(() -> source.readValue(group.leafOffset, group.leafLineNumber)));
+      } else {
+        bindings.put(group.component, new LazyBinding(() -> {
+              final Map<String, Group> children = new HashMap<>();
+              if (group.size > 0) {
+                final String[] lines = source.readLines(Arrays.copyOf(group.offsets, group.size));
+                for (int i = 0; i < lines.length; i++) {
+                  index(children, lines[i], group.offsets[i], group.lineNumbers[i], name.size());
+                }
+              }
+              return newContext(source, environment, name, children);
+            }));
+      }
+    }
+    return new MapContext(bindings, environment, sharedNameParser, prefix);
+  }
+
+  // The lines beneath one name at some depth: the line binding it, if
+  // it is bound to a value, or else the lines binding names below it.
+  private static final class Group {
+
+    private final String component;
+
+    private boolean context;
+
+    private long leafOffset;
+
+    // Zero if no line binds this name itself to a value.
+    private int leafLineNumber;
+
+    private long[] offsets;
+
+    private int[] lineNumbers;
+
+    private int size;
+
+    private Group(final String component) {
+      super();
+      this.component = component;
+    }
+
+    private final void addDescendant(final long offset, final int lineNumber) {
+      if (this.offsets == null) {
+        this.offsets = new long[4];
+        this.lineNumbers = new int[4];
+      } else if (this.size == this.offsets.length) {
+        this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+        this.lineNumbers = Arrays.copyOf(this.lineNumbers, this.size * 2);
+      }
+      this.offsets[this.size] = offset;
+      this.lineNumbers[this.size] = lineNumber;
+      this.size++;
+    }
+
+  }
+
+  private static final class Source {
+
+    private final Path path;
+
+    private final long size;
+
+    private final FileTime lastModifiedTime;
+
+    private Source(final Path path) throws ConfigurationException {
+      super();
+      this.path = Objects.requireNonNull(path);
+      try {
+        this.size = Files.size(path);
+        this.lastModifiedTime = Files.getLastModifiedTime(path);
+      } catch (final IOException ioException) {
+        throw (ConfigurationException)new ConfigurationException(path + ": " + ioException.getMessage()).initCause(ioException);
+      }
+    }
+
+    private final Object readValue(final long offset, final int lineNumber) throws NamingException {
+      final String line = this.readLines(new long[] { offset })[0];
+      return NamespaceFile.parseValue(line.substring(NamespaceFile.separator(line, lineNumber) + 1), lineNumber);
+    }
+
+    // Reads the lines starting at offsets, which are in ascending
+    // order, with one open of the file.
+    private final String[] readLines(final long[] offsets) throws ConfigurationException {
+      final String[] returnValue = new String[offsets.length];
+      try (final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+        if (channel.size() != this.size || !Files.getLastModifiedTime(this.path).equals(this.lastModifiedTime)) {
+          throw new ConfigurationException(this.path + " has changed since it was loaded");
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long bufferOffset = -1L;
+        for (int i = 0; i < offsets.length; i++) {
+          final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+          long position = offsets[i];
+          while (true) {
+            if (bufferOffset < 0L || position < bufferOffset || position >= bufferOffset + buffer.limit()) {
+              buffer.clear();
+              if (channel.read(buffer, position) <= 0) {
+                break;
+              }
+              buffer.flip();
+              bufferOffset = position;
+            }
+            final byte b = buffer.get((int)(position - bufferOffset));
+            if (b == '\n') {
+              break;
+            }
+            line.write(b);
+            position++;
+          }
+          returnValue[i] = decode(line);
+        }
+      } catch (final IOException ioException) {
+        throw (ConfigurationException)new ConfigurationException(this.path + ": " + ioException.getMessage()).initCause(ioException);
+      }
+      return returnValue;
+    }
+
+  }
+
+}
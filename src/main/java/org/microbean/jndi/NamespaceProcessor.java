@@ -0,0 +1,281 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+
+import javax.lang.model.SourceVersion;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+
+import javax.naming.ConfigurationException;
+import javax.naming.LinkRef;
+import javax.naming.NamingException;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileManager;
+import javax.tools.StandardLocation;
+
+// Compiles the namespace files named by @Namespace annotations into
+// classes that build FrozenContexts directly from array literals, so
+// that populating the namespace at startup is a class initialization
+// with nothing to parse.  Each subcontext gets methods of its own,
+// arrays are filled a slice at a time, and the methods are spread
+// over nested classes, so that large namespaces stay inside the
+// limits on method size and on constant pool size.  The namespace file is
+// looked for first among the compiler's output, where build tools
+// copy resources, then on the source path, then on the class path.
+// The processor is not registered as a service, so that having this
+// library on the class path runs nothing; ask for it with javac's
+// -processor org.microbean.jndi.NamespaceProcessor, or list it in a
+// build tool's annotationProcessors.
+@SupportedAnnotationTypes("org.microbean.jndi.Namespace")
+public final class NamespaceProcessor extends AbstractProcessor {
+
+  private static final int SLICE = 512;
+
+  private static final JavaFileManager.Location[] locations = {
+    StandardLocation.CLASS_OUTPUT,
+    StandardLocation.SOURCE_PATH,
+    StandardLocation.CLASS_PATH
+  };
+
+  public NamespaceProcessor() {
+    super();
+  }
+
+  @Override
+  public final SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public final boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnvironment) {
+    for (final Element element : roundEnvironment.getElementsAnnotatedWith(Namespace.class)) {
+      final Namespace namespace = element.getAnnotation(Namespace.class);
+      final PackageElement packageElement = this.processingEnv.getElementUtils().getPackageOf(element);
+      final String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+      final String className;
+      if (!namespace.className().isEmpty()) {
+        className = namespace.className();
+      } else if (element instanceof PackageElement) {
+        className = "NamespaceContext";
+      } else {
+        className = element.getSimpleName() + "Namespace";
+      }
+      try {
+        final NamespaceFile.Node root = this.read(namespace.value());
+        final String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (final Writer writer = this.processingEnv.getFiler().createSourceFile(qualifiedName, element).openWriter()) {
+          writer.write(generate(packageName, className, namespace.value(), root));
+        }
+      } catch (final ConfigurationException | IOException exception) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, namespace.value() + ": " + exception.getMessage(), element);
+      }
+    }
+    return true;
+  }
+
+  private final NamespaceFile.Node read(final String resourceName) throws ConfigurationException, IOException {
+    final Filer filer = this.processingEnv.getFiler();
+    for (final JavaFileManager.Location location : locations) {
+      final Reader reader;
+      try {
+        reader = filer.getResource(location, "", resourceName).openReader(false);
+      } catch (final IOException | IllegalArgumentException | IllegalStateException notThere) {
+        // Not there, or this location is not one this compiler knows.
+        continue;
+      }
+      try (final Reader r = reader) {
+        return NamespaceFile.read(r);
+      }
+    }
+    throw new IOException("not found");
+  }
+
+  static final String generate(final String packageName, final String className, final String resourceName, final NamespaceFile.Node root) {
+    final StringBuilder sb = new StringBuilder();
+    if (!packageName.isEmpty()) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    final Parts parts = new Parts();
+    final String arrays = parts.node(root);
+    sb.append("// Generated by ").append(NamespaceProcessor.class.getName()).append(" from ").append(resourceName).append("; do not edit.\n");
+    sb.append("public final class ").append(className).append(" {\n\n");
+    sb.append("  private static final org.microbean.jndi.FrozenContext root = new org.microbean.jndi.FrozenContext(").append(arrays).append(");\n\n");
+    sb.append("  private ").append(className).append("() {\n    super();\n  }\n\n");
+    sb.append("  // Each call returns a new copy of one shared, frozen tree.\n");
+    sb.append("  public static javax.naming.Context getContext() throws javax.naming.NamingException {\n");
+    sb.append("    return (javax.naming.Context)root.lookup(\"\");\n  }\n");
+    for (int i = 0; i < parts.parts.size(); i++) {
+      sb.append("\n  private static final class Part").append(i).append(" {\n\n");
+      sb.append("    private Part").append(i).append("() {\n      super();\n    }\n");
+      sb.append(parts.parts.get(i));
+      sb.append("\n  }\n");
+    }
+    sb.append("\n}\n");
+    return sb.toString();
+  }
+
+  // The nested classes holding the methods that build the tree.  A
+  // class file's constant pool holds at most 65535 entries, and every
+  // literal, and every method called, takes some, so the methods are
+  // spread over as many classes, each with a pool of its own, as keep
+  // each well within the limit.  Costs are rough overestimates.
+  private static final class Parts {
+
+    private static final int BUDGET = 16384;
+
+    private final List<StringBuilder> parts;
+
+    private int cost;
+
+    private int nodes;
+
+    private Parts() {
+      super();
+      this.parts = new ArrayList<>();
+      this.cost = BUDGET;
+    }
+
+    // Writes the methods making node's arrays, after those for its
+    // subcontexts, and returns the arguments that call them.
+    private final String node(final NamespaceFile.Node node) {
+      final int id = this.nodes++;
+      final int size = node.children.size();
+      final List<String> keys = new ArrayList<>(size);
+      final List<String> values = new ArrayList<>(size);
+      final int[] costs = new int[size];
+      int i = 0;
+      for (final Map.Entry<String, Object> entry : node.children.entrySet()) {
+        keys.add(literal(entry.getKey()));
+        final Object value = entry.getValue();
+        if (value instanceof NamespaceFile.Node) {
+          values.add("org.microbean.jndi.FrozenContext.subcontext(" + this.node((NamespaceFile.Node)value) + ")");
+          costs[i++] = 12;
+        } else {
+          values.add(literal(value));
+          costs[i++] = 4;
+        }
+      }
+      return this.fill("String", "k" + id, keys, null) + ", " + this.fill("Object", "v" + id, values, costs);
+    }
+
+    // Writes a method returning an array of expressions, filled a
+    // slice at a time, and returns a call to it.
+    private final String fill(final String type, final String methodName, final List<String> expressions, final int[] costs) {
+      final int size = expressions.size();
+      final List<String> calls = new ArrayList<>();
+      for (int slice = 0; slice * SLICE < size; slice++) {
+        final int from = slice * SLICE;
+        final int to = Math.min(size, from + SLICE);
+        int cost = 8;
+        for (int i = from; i < to; i++) {
+          cost += costs == null ? 4 : costs[i];
+        }
+        final String name = methodName + '_' + slice;
+        final StringBuilder sb = this.method(cost);
+        calls.add("Part" + (this.parts.size() - 1) + "." + name + "(a)");
+        sb.append("\n    static void ").append(name).append("(final ").append(type).append("[] a) {\n");
+        for (int i = from; i < to; i++) {
+          sb.append("      a[").append(i).append("] = ").append(expressions.get(i)).append(";\n");
+        }
+        sb.append("    }\n");
+      }
+      final StringBuilder sb = this.method(8 + 4 * calls.size());
+      sb.append("\n    static ").append(type).append("[] ").append(methodName).append("() {\n");
+      sb.append("      final ").append(type).append("[] a = new ").append(type).append("[").append(size).append("];\n");
+      for (final String call : calls) {
+        sb.append("      ").append(call).append(";\n");
+      }
+      sb.append("      return a;\n    }\n");
+      return "Part" + (this.parts.size() - 1) + "." + methodName + "()";
+    }
+
+    // Returns the part a method costing cost goes in.
+    private final StringBuilder method(final int cost) {
+      if (this.cost + cost > BUDGET) {
+        this.parts.add(new StringBuilder());
+        this.cost = 0;
+      }
+      this.cost += cost;
+      return this.parts.get(this.parts.size() - 1);
+    }
+
+  }
+
+  private static final String literal(final Object value) {
+    if (value instanceof String) {
+      final String s = (String)value;
+      final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+      for (int i = 0; i < s.length(); i++) {
+        final char c = s.charAt(i);
+        switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            sb.append(String.format("\\u%04x", (int)c));
+          } else {
+            sb.append(c);
+          }
+        }
+      }
+      return sb.append('"').toString();
+    } else if (value instanceof Integer) {
+      return "Integer.valueOf(" + value + ")";
+    } else if (value instanceof Long) {
+      return "Long.valueOf(" + value + "L)";
+    } else if (value instanceof Boolean) {
+      return ((Boolean)value).booleanValue() ? "Boolean.TRUE" : "Boolean.FALSE";
+    } else if (value instanceof Double) {
+      final double d = ((Double)value).doubleValue();
+      if (Double.isNaN(d)) {
+        return "Double.valueOf(Double.NaN)";
+      } else if (Double.isInfinite(d)) {
+        return d > 0 ? "Double.valueOf(Double.POSITIVE_INFINITY)" : "Double.valueOf(Double.NEGATIVE_INFINITY)";
+      }
+      return "Double.valueOf(" + value + "D)";
+    } else if (value instanceof LinkRef) {
+      try {
+        return "new javax.naming.LinkRef(" + literal(((LinkRef)value).getLinkName()) + ")";
+      } catch (final NamingException namingException) {
+        throw new IllegalArgumentException(namingException.getMessage(), namingException);
+      }
+    }
+    throw new IllegalArgumentException(String.valueOf(value));
+  }
+
+}
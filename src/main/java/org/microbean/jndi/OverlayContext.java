@@ -0,0 +1,230 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+// A per-tenant layer over a shared base context.  Reads fall through
+// to the base; writes, including unbinds of base bindings, land only
+// in this layer.  The base is never modified.
+public class OverlayContext extends AbstractContext<String> {
+
+  private static final Object TOMBSTONE = new Object();
+
+  private final AbstractContext<String> base;
+
+  // This layer's own bindings, and tombstones for base bindings it
+  // has unbound.
+  private final ConcurrentMap<String, Object> local;
+
+  // Overlays of the base's subcontexts, made when first reached.
+  // Each is used only while the base still binds the subcontext it
+  // was made over.
+  private final ConcurrentMap<String, OverlayContext> subcontexts;
+
+  public OverlayContext(final AbstractContext<String> base) throws NamingException {
+    this(base, null, Objects.requireNonNull(base).getNameParser(EMPTY_NAME), null);
+  }
+
+  public OverlayContext(final AbstractContext<String> base, final Hashtable<?, ?> environment) throws NamingException {
+    this(base, environment, Objects.requireNonNull(base).getNameParser(EMPTY_NAME), null);
+  }
+
+  public OverlayContext(final AbstractContext<String> base, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+    this(base, null, environment, nameParser, prefix);
+  }
+
+  private OverlayContext(final AbstractContext<String> base, final Map<String, Object> local, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+    super(environment, nameParser, prefix);
+    this.base = Objects.requireNonNull(base);
+    this.local = local == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(local);
+    this.subcontexts = new ConcurrentHashMap<>();
+  }
+
+  // For copy(): shares this layer's bindings and the overlays beneath
+  // it, so that the copy sees everything written through either.
+  private OverlayContext(final OverlayContext source) throws NamingException {
+    super(source.environment, source.getNameParser(EMPTY_NAME), source.prefix);
+    this.base = source.base;
+    this.local = source.local;
+    this.subcontexts = source.subcontexts;
+  }
+
+  @Override
+  protected Context newContext(final Name prefix) throws NamingException {
+    return new MapContext(null, this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+  }
+
+  @Override
+  final boolean hasSharedStorage() {
+    // Bindings not overridden here are the base context's.
+    return true;
+  }
+
+  // Writes to the base change what this layer shows, so they count as
+  // changes to it too.  Both versions only grow, so their sum changes
+  // whenever either does.
+  @Override
+  final long version() {
+    return super.version() + this.base.version();
+  }
+
+  @Override
+  protected Context copy() throws NamingException {
+    return new OverlayContext(this);
+  }
+
+  @Override
+  protected final boolean containsKey(final String mapKey) throws NamingException {
+    return this.get(mapKey) != null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected final Object get(final String mapKey) throws NamingException {
+    Objects.requireNonNull(mapKey);
+    final Object value = this.local.get(mapKey);
+    if (value == TOMBSTONE) {
+      return null;
+    } else if (value != null) {
+      return value;
+    }
+    final Object baseValue = this.base.get(mapKey);
+    if (!(baseValue instanceof AbstractContext)) {
+      return baseValue;
+    }
+    // Shared subcontexts are wrapped in an overlay of their own, so
+    // that writes beneath them stay private too.  If the base has
+    // since bound a different subcontext here, the overlay made over
+    // the old one moves its bindings over to a new one.
+    final AbstractContext<String> baseSubcontext = (AbstractContext<String>)baseValue;
+    while (true) {
+      final OverlayContext subcontext = this.subcontexts.get(mapKey);
+      if (subcontext != null && subcontext.base == baseSubcontext) {
+        return subcontext;
+      }
+      final OverlayContext newSubcontext =
+        new OverlayContext(baseSubcontext, subcontext == null ? null : subcontext.local, this.environment, this.getNameParser(EMPTY_NAME), baseSubcontext.prefix);
+      if (subcontext == null ? this.subcontexts.putIfAbsent(mapKey, newSubcontext) == null : this.subcontexts.replace(mapKey, subcontext, newSubcontext)) {
+        return newSubcontext;
+      }
+    }
+  }
+
+  @Override
+  protected final Set<String> keySet() throws NamingException {
+    final Set<String> returnValue = new HashSet<>(this.base.keySet());
+    for (final Map.Entry<String, Object> entry : this.local.entrySet()) {
+      if (entry.getValue() == TOMBSTONE) {
+        returnValue.remove(entry.getKey());
+      } else {
+        returnValue.add(entry.getKey());
+      }
+    }
+    return returnValue;
+  }
+
+  @Override
+  protected final Object remove(final String key) throws NamingException {
+    final Object returnValue = this.get(key);
+    this.subcontexts.remove(key);
+    if (this.base.get(key) == null) {
+      this.local.remove(key);
+    } else {
+      this.local.put(key, TOMBSTONE);
+    }
+    return returnValue;
+  }
+
+  @Override
+  protected final Object put(final String key, final Object value) throws NamingException {
+    final Object returnValue = this.get(key);
+    this.local.put(Objects.requireNonNull(key), Objects.requireNonNull(value));
+    this.subcontexts.remove(key);
+    return returnValue;
+  }
+
+  @Override
+  protected final String extractKey(final Name name) throws NamingException {
+    final Name compoundName = this.toCompoundName(Objects.requireNonNull(name));
+    assert compoundName != null;
+    final String returnValue;
+    if (compoundName.isEmpty()) {
+      returnValue = "";
+    } else {
+      returnValue = compoundName.get(0);
+    }
+    return returnValue;
+  }
+
+  @Override
+  protected void closeSubcontexts() throws NamingException {
+    // Only contexts that belong to this layer are closed; the base is
+    // shared with other layers.
+    for (final Object value : this.local.values()) {
+      if (value instanceof Context) {
+        ((Context)value).close();
+      }
+    }
+    for (final OverlayContext subcontext : this.subcontexts.values()) {
+      subcontext.close();
+    }
+  }
+
+  @Override
+  public void rename(final Name oldName, final Name newName) throws NamingException {
+    Objects.requireNonNull(oldName);
+    Objects.requireNonNull(newName);
+    if (oldName.isEmpty()) {
+      throw new InvalidNameException("oldName.isEmpty()");
+    } else if (newName.isEmpty()) {
+      throw new InvalidNameException("newName.isEmpty()");
+    }
+
+    final String newKey = this.toCompoundName(newName).toString();
+    if (this.containsKey(newKey)) {
+      throw new NameAlreadyBoundException(newName.toString());
+    }
+
+    final String oldKey = this.toCompoundName(oldName).toString();
+    if (!this.containsKey(oldKey)) {
+      throw new NameNotFoundException(oldName.toString());
+    }
+
+    this.publish(this.prepareJournalEntry(Journal.Operation.RENAME, oldKey, this.getChildName(newKey)), () -> {
+        this.put(newKey, this.remove(oldKey));
+        this.modified();
+        return true;
+      });
+  }
+
+}
@@ -0,0 +1,509 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.ByteArrayOutputStream;
+
+import java.math.BigDecimal;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.InvalidSearchFilterException;
+
+// An RFC 2254 search filter.  Equality and presence assertions are
+// answered from an AttributeIndex; everything else narrows its
+// candidates through the index where it can and is then checked
+// against each candidate's attributes.
+abstract class SearchFilter {
+
+  private SearchFilter() {
+    super();
+  }
+
+  abstract boolean matches(final Attributes attributes) throws NamingException;
+
+  // Returns the names beneath base that may match, or null if the
+  // index cannot narrow them down.
+  List<Name> candidates(final AttributeIndex index, final Name base) {
+    return null;
+  }
+
+  static final SearchFilter parse(final String filter) throws InvalidSearchFilterException {
+    String trimmed = Objects.requireNonNull(filter).trim();
+    if (!trimmed.startsWith("(")) {
+      trimmed = "(" + trimmed + ")";
+    }
+    final Parser parser = new Parser(trimmed);
+    final SearchFilter returnValue = parser.filter();
+    if (parser.position != trimmed.length()) {
+      throw new InvalidSearchFilterException("unexpected characters at " + parser.position + ": " + filter);
+    }
+    return returnValue;
+  }
+
+  // Substitutes each {i} in filterExpression with args[i], escaped
+  // so that it is read as a value and never as filter syntax.
+  static final String format(final String filterExpression, final Object[] args) throws InvalidSearchFilterException {
+    Objects.requireNonNull(filterExpression);
+    if (args == null || args.length == 0) {
+      return filterExpression;
+    }
+    final StringBuilder returnValue = new StringBuilder(filterExpression.length() + 16 * args.length);
+    final int length = filterExpression.length();
+    for (int i = 0; i < length; i++) {
+      final char c = filterExpression.charAt(i);
+      if (c == '{') {
+        final int end = filterExpression.indexOf('}', i);
+        if (end < 0) {
+          throw new InvalidSearchFilterException("unterminated argument at " + i + ": " + filterExpression);
+        }
+        final int index;
+        try {
+          index = Integer.parseInt(filterExpression.substring(i + 1, end));
+        } catch (final NumberFormatException numberFormatException) {
+          throw (InvalidSearchFilterException)new InvalidSearchFilterException(filterExpression).initCause(numberFormatException);
+        }
+        if (index < 0 || index >= args.length) {
+          throw new InvalidSearchFilterException("no argument " + index + ": " + filterExpression);
+        }
+        escape(args[index], returnValue);
+        i = end;
+      } else {
+        returnValue.append(c);
+      }
+    }
+    return returnValue.toString();
+  }
+
+  private static final void escape(final Object arg, final StringBuilder sb) {
+    final byte[] bytes = arg instanceof byte[] ? (byte[])arg : String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+    for (final byte b : bytes) {
+      final int c = b & 0xFF;
+      if (c == '*' || c == '(' || c == ')' || c == '\\' || c == 0 || c > 0x7F) {
+        sb.append('\\').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+      } else {
+        sb.append((char)c);
+      }
+    }
+  }
+
+  // The filter search(Name, Attributes) implies: every attribute
+  // must be present, with every value given for it.
+  static final SearchFilter of(final Attributes matchingAttributes) throws NamingException {
+    final List<SearchFilter> filters = new ArrayList<>();
+    final NamingEnumeration<? extends Attribute> all = matchingAttributes.getAll();
+    while (all.hasMore()) {
+      final Attribute attribute = all.next();
+      if (attribute.size() == 0) {
+        filters.add(new Present(attribute.getID()));
+      } else {
+        final NamingEnumeration<?> values = attribute.getAll();
+        while (values.hasMore()) {
+          filters.add(new Compare(attribute.getID(), '=', AttributeIndex.normalizeValue(values.next())));
+        }
+      }
+    }
+    return new And(filters);
+  }
+
+  private static final Attribute attribute(final Attributes attributes, final String id) throws NamingException {
+    Attribute returnValue = attributes.get(id);
+    if (returnValue == null && !attributes.isCaseIgnored()) {
+      final NamingEnumeration<String> ids = attributes.getIDs();
+      while (ids.hasMore()) {
+        final String candidate = ids.next();
+        if (candidate.equalsIgnoreCase(id)) {
+          returnValue = attributes.get(candidate);
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final class And extends SearchFilter {
+
+    private final List<SearchFilter> filters;
+
+    private And(final List<SearchFilter> filters) {
+      super();
+      this.filters = filters;
+    }
+
+    @Override
+    final boolean matches(final Attributes attributes) throws NamingException {
+      for (final SearchFilter filter : this.filters) {
+        if (!filter.matches(attributes)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    final List<Name> candidates(final AttributeIndex index, final Name base) {
+      // Every match is a candidate of every indexed operand, so the
+      // smallest such set will do.
+      List<Name> returnValue = null;
+      for (final SearchFilter filter : this.filters) {
+        final List<Name> candidates = filter.candidates(index, base);
+        if (candidates != null && (returnValue == null || candidates.size() < returnValue.size())) {
+          returnValue = candidates;
+          if (returnValue.isEmpty()) {
+            break;
+          }
+        }
+      }
+      return returnValue;
+    }
+
+  }
+
+  private static final class Or extends SearchFilter {
+
+    private final List<SearchFilter> filters;
+
+    private Or(final List<SearchFilter> filters) {
+      super();
+      this.filters = filters;
+    }
+
+    @Override
+    final boolean matches(final Attributes attributes) throws NamingException {
+      for (final SearchFilter filter : this.filters) {
+        if (filter.matches(attributes)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    final List<Name> candidates(final AttributeIndex index, final Name base) {
+      final Set<Name> returnValue = new LinkedHashSet<>();
+      for (final SearchFilter filter : this.filters) {
+        final List<Name> candidates = filter.candidates(index, base);
+        if (candidates == null) {
+          return null;
+        }
+        returnValue.addAll(candidates);
+      }
+      return new ArrayList<>(returnValue);
+    }
+
+  }
+
+  private static final class Not extends SearchFilter {
+
+    private final SearchFilter filter;
+
+    private Not(final SearchFilter filter) {
+      super();
+      this.filter = filter;
+    }
+
+    @Override
+    final boolean matches(final Attributes attributes) throws NamingException {
+      return !this.filter.matches(attributes);
+    }
+
+  }
+
+  private static final class Present extends SearchFilter {
+
+    private final String id;
+
+    private Present(final String id) {
+      super();
+      this.id = id;
+    }
+
+    @Override
+    final boolean matches(final Attributes attributes) throws NamingException {
+      return attribute(attributes, this.id) != null;
+    }
+
+    @Override
+    final List<Name> candidates(final AttributeIndex index, final Name base) {
+      return index.present(this.id, base);
+    }
+
+  }
+
+  // Equality, approximate, greater-or-equal and less-or-equal
+  // assertions.  Approximate matching is taken to be equality.
+  private static final class Compare extends SearchFilter {
+
+    private final String id;
+
+    private final char operator;
+
+    private final String value;
+
+    private Compare(final String id, final char operator, final String value) {
+      super();
+      this.id = id;
+      this.operator = operator;
+      this.value = value;
+    }
+
+    @Override
+    final boolean matches(final Attributes attributes) throws NamingException {
+      final Attribute attribute = attribute(attributes, this.id);
+      if (attribute != null) {
+        final NamingEnumeration<?> values = attribute.getAll();
+        while (values.hasMore()) {
+          final String value = AttributeIndex.normalizeValue(values.next());
+          switch (this.operator) {
+          case '>':
+            if (compare(value, this.value) >= 0) {
+              return true;
+            }
+            break;
+          case '<':
+            if (compare(value, this.value) <= 0) {
+              return true;
+            }
+            break;
+          default:
+            if (value.equals(this.value)) {
+              return true;
+            }
+            break;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    final List<Name> candidates(final AttributeIndex index, final Name base) {
+      if (this.operator == '=' || this.operator == '~') {
+        return index.equal(this.id, this.value, base);
+      }
+      return index.present(this.id, base);
+    }
+
+    private static final int compare(final String value, final String assertion) {
+      try {
+        return new BigDecimal(value).compareTo(new BigDecimal(assertion));
+      } catch (final NumberFormatException notNumbers) {
+        return value.compareTo(assertion);
+      }
+    }
+
+  }
+
+  private static final class Substring extends SearchFilter {
+
+    private final String id;
+
+    // The first and last segments are anchored, and either may be
+    // empty; those in between may float.
+    private final List<String> segments;
+
+    private Substring(final String id, final List<String> segments) {
+      super();
+      this.id = id;
+      this.segments = segments;
+    }
+
+    @Override
+    final boolean matches(final Attributes attributes) throws NamingException {
+      final Attribute attribute = attribute(attributes, this.id);
+      if (attribute != null) {
+        final NamingEnumeration<?> values = attribute.getAll();
+        while (values.hasMore()) {
+          if (this.matches(AttributeIndex.normalizeValue(values.next()))) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private final boolean matches(final String value) {
+      final int last = this.segments.size() - 1;
+      final String initial = this.segments.get(0);
+      final String terminal = this.segments.get(last);
+      if (!value.startsWith(initial) || value.length() - terminal.length() < initial.length()) {
+        return false;
+      }
+      int from = initial.length();
+      final int to = value.length() - terminal.length();
+      for (int i = 1; i < last; i++) {
+        final String segment = this.segments.get(i);
+        final int index = value.indexOf(segment, from);
+        if (index < 0 || index + segment.length() > to) {
+          return false;
+        }
+        from = index + segment.length();
+      }
+      return value.endsWith(terminal);
+    }
+
+    @Override
+    final List<Name> candidates(final AttributeIndex index, final Name base) {
+      return index.present(this.id, base);
+    }
+
+  }
+
+  private static final class Parser {
+
+    private final String filter;
+
+    private int position;
+
+    private Parser(final String filter) {
+      super();
+      this.filter = filter;
+    }
+
+    private final SearchFilter filter() throws InvalidSearchFilterException {
+      this.expect('(');
+      final SearchFilter returnValue;
+      switch (this.peek()) {
+      case '&':
+        this.position++;
+        returnValue = new And(this.filters());
+        break;
+      case '|':
+        this.position++;
+        returnValue = new Or(this.filters());
+        break;
+      case '!':
+        this.position++;
+        returnValue = new Not(this.filter());
+        break;
+      default:
+        returnValue = this.item();
+        break;
+      }
+      this.expect(')');
+      return returnValue;
+    }
+
+    private final List<SearchFilter> filters() throws InvalidSearchFilterException {
+      final List<SearchFilter> returnValue = new ArrayList<>();
+      while (this.peek() == '(') {
+        returnValue.add(this.filter());
+      }
+      if (returnValue.isEmpty()) {
+        throw new InvalidSearchFilterException("empty filter list at " + this.position + ": " + this.filter);
+      }
+      return returnValue;
+    }
+
+    private final SearchFilter item() throws InvalidSearchFilterException {
+      final int start = this.position;
+      while (this.position < this.filter.length() && "=~<>():*".indexOf(this.filter.charAt(this.position)) < 0) {
+        this.position++;
+      }
+      final String id = this.filter.substring(start, this.position).trim();
+      if (id.isEmpty()) {
+        throw new InvalidSearchFilterException("missing attribute at " + start + ": " + this.filter);
+      }
+      final char operator = this.peek();
+      switch (operator) {
+      case '~':
+      case '<':
+      case '>':
+        this.position++;
+        this.expect('=');
+        final List<String> segments = this.value();
+        if (segments.size() != 1) {
+          throw new InvalidSearchFilterException("unexpected * in " + this.filter);
+        }
+        return new Compare(id, operator, segments.get(0));
+      case '=':
+        this.position++;
+        final List<String> values = this.value();
+        if (values.size() == 1) {
+          return new Compare(id, '=', values.get(0));
+        } else if (values.size() == 2 && values.get(0).isEmpty() && values.get(1).isEmpty()) {
+          return new Present(id);
+        }
+        return new Substring(id, values);
+      default:
+        throw new InvalidSearchFilterException("unsupported filter type at " + this.position + ": " + this.filter);
+      }
+    }
+
+    // Reads an assertion value up to the closing parenthesis,
+    // splitting it at unescaped asterisks and undoing \XX escapes.
+    private final List<String> value() throws InvalidSearchFilterException {
+      final List<String> returnValue = new ArrayList<>();
+      final ByteArrayOutputStream segment = new ByteArrayOutputStream();
+      while (this.position < this.filter.length() && this.filter.charAt(this.position) != ')') {
+        final char c = this.filter.charAt(this.position++);
+        if (c == '*') {
+          returnValue.add(AttributeIndex.normalizeValue(segment.toByteArray()));
+          segment.reset();
+        } else if (c == '\\') {
+          if (this.position + 2 > this.filter.length()) {
+            throw new InvalidSearchFilterException("truncated escape at " + (this.position - 1) + ": " + this.filter);
+          }
+          final int high = Character.digit(this.filter.charAt(this.position), 16);
+          final int low = Character.digit(this.filter.charAt(this.position + 1), 16);
+          if (high < 0 || low < 0) {
+            throw new InvalidSearchFilterException("invalid escape at " + (this.position - 1) + ": " + this.filter);
+          }
+          segment.write((high << 4) | low);
+          this.position += 2;
+        } else if (c == '(') {
+          throw new InvalidSearchFilterException("unescaped ( at " + (this.position - 1) + ": " + this.filter);
+        } else {
+          final int codePoint = this.filter.codePointAt(this.position - 1);
+          final byte[] bytes = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+          segment.write(bytes, 0, bytes.length);
+          this.position += Character.charCount(codePoint) - 1;
+        }
+      }
+      returnValue.add(AttributeIndex.normalizeValue(segment.toByteArray()));
+      return returnValue;
+    }
+
+    private final char peek() throws InvalidSearchFilterException {
+      if (this.position >= this.filter.length()) {
+        throw new InvalidSearchFilterException("unexpected end of filter: " + this.filter);
+      }
+      return this.filter.charAt(this.position);
+    }
+
+    private final void expect(final char c) throws InvalidSearchFilterException {
+      if (this.peek() != c) {
+        throw new InvalidSearchFilterException("expected " + c + " at " + this.position + ": " + this.filter);
+      }
+      this.position++;
+    }
+
+  }
+
+}
@@ -0,0 +1,95 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+
+final class SearchResultEnumeration extends AbstractNamingEnumeration<Name, SearchResult> {
+
+  private final MapDirContext base;
+
+  private final Name basePath;
+
+  private final String[] returningAttributes;
+
+  private final boolean returningObject;
+
+  private final boolean truncated;
+
+  SearchResultEnumeration(final MapDirContext base,
+                          final Name basePath,
+                          final List<Name> names,
+                          final String[] returningAttributes,
+                          final boolean returningObject,
+                          final boolean truncated) {
+    super(Objects.requireNonNull(names).iterator());
+    this.base = Objects.requireNonNull(base);
+    this.basePath = Objects.requireNonNull(basePath);
+    this.returningAttributes = returningAttributes;
+    this.returningObject = returningObject;
+    this.truncated = truncated;
+  }
+
+  @Override
+  public final boolean hasMore() throws NamingException {
+    final boolean returnValue = super.hasMore();
+    if (!returnValue && this.truncated) {
+      throw new SizeLimitExceededException();
+    }
+    return returnValue;
+  }
+
+  @Override
+  public final SearchResult next() throws NamingException {
+    final Name name = this.names.next();
+    final Name relativeName = name.getSuffix(this.basePath.size());
+    final Object object = this.returningObject ? this.get(name) : null;
+    return new SearchResult(relativeName.toString(), object, select(this.base.attributesOf(name), this.returningAttributes), true);
+  }
+
+  @Override
+  protected final Object get(final Name name) throws NamingException {
+    final Name relativeName = name.getSuffix(this.basePath.size());
+    return relativeName.isEmpty() ? this.base : this.base.lookup(relativeName);
+  }
+
+  static final Attributes select(final Attributes attributes, final String[] ids) {
+    if (ids == null) {
+      return attributes;
+    }
+    final Attributes returnValue = new BasicAttributes(true);
+    for (final String id : ids) {
+      final Attribute attribute = attributes.get(id);
+      if (attribute != null) {
+        returnValue.put(attribute);
+      }
+    }
+    return returnValue;
+  }
+
+}
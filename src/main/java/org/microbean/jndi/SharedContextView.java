@@ -0,0 +1,148 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+// One caller's view of a tree that many share: the bindings and
+// version of a shared context, with the caller's own environment, so
+// that its tracer, journal and link settings apply to what it does.
+// Subcontexts are reached through views of their own that carry the
+// same environment.  The shared tree outlives every view of it:
+// closing a view closes nothing, and the subcontexts a view makes
+// ignore close() too.  Views that every caller of some tree reaches,
+// such as those of subcontexts, or those newBoundView makes, ignore
+// close() themselves; copies of them, which lookups of "" return, do
+// not.
+public final class SharedContextView extends MapContext {
+
+  private final ConcurrentMapContext shared;
+
+  // Views of the shared subcontexts, made when first reached.  Each is
+  // used only while the shared context still binds the subcontext it
+  // was made over.
+  private final ConcurrentMap<String, SharedContextView> subcontexts;
+
+  private final boolean closeable;
+
+  public SharedContextView(final ConcurrentMapContext shared, final Hashtable<?, ?> environment) throws NamingException {
+    this(shared, environment, true);
+  }
+
+  private SharedContextView(final ConcurrentMapContext shared, final Hashtable<?, ?> environment, final boolean closeable) throws NamingException {
+    super(environment, Objects.requireNonNull(shared).getNameParser(EMPTY_NAME), shared.prefix, shared.storage());
+    this.shared = shared;
+    this.subcontexts = new ConcurrentHashMap<>();
+    this.closeable = closeable;
+  }
+
+  // Makes a view to bind in a tree that many callers reach.
+  public static final SharedContextView newBoundView(final ConcurrentMapContext shared, final Hashtable<?, ?> environment) throws NamingException {
+    return new SharedContextView(shared, environment, false);
+  }
+
+  // Makes the root of a tree to share through views.  Neither it nor
+  // any subcontext made beneath it can be closed.
+  public static final ConcurrentMapContext newSharedContext(final NameParser nameParser, final Name prefix) {
+    return new Node(null, nameParser, prefix);
+  }
+
+  @Override
+  final AbstractContext<?> versionSource() {
+    return this.shared;
+  }
+
+  @Override
+  final boolean hasSharedStorage() {
+    return true;
+  }
+
+  @Override
+  protected final Object get(final String mapKey) throws NamingException {
+    final Object value = super.get(mapKey);
+    if (!(value instanceof ConcurrentMapContext)) {
+      return value;
+    }
+    final ConcurrentMapContext subcontext = (ConcurrentMapContext)value;
+    SharedContextView returnValue = this.subcontexts.get(mapKey);
+    if (returnValue == null || returnValue.shared != subcontext) {
+      returnValue = new SharedContextView(subcontext, this.environment, false);
+      this.subcontexts.put(mapKey, returnValue);
+    }
+    return returnValue;
+  }
+
+  @Override
+  protected final Context newContext(final Name prefix) throws NamingException {
+    return new Node(this.shared.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+  }
+
+  @Override
+  public final Context createSubcontext(final Name name) throws NamingException {
+    final Context returnValue = super.createSubcontext(name);
+    // A subcontext made here is stored as a shared Node; the caller
+    // gets a view of it.
+    return returnValue instanceof Node ? new SharedContextView((Node)returnValue, this.environment) : returnValue;
+  }
+
+  @Override
+  protected final Context copy() throws NamingException {
+    return new SharedContextView(this.shared, this.environment);
+  }
+
+  @Override
+  public final void close() throws NamingException {
+    if (this.closeable) {
+      super.close();
+    }
+  }
+
+  @Override
+  protected final void closeSubcontexts() {
+    // The tree belongs to every view of it; closing one view leaves
+    // it alone.
+  }
+
+  private static final class Node extends ConcurrentMapContext {
+
+    private Node(final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+      super(null, environment, nameParser, prefix);
+    }
+
+    @Override
+    protected final Context newContext(final Name prefix) throws NamingException {
+      return new Node(this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+    }
+
+    @Override
+    public final void close() {
+      // Shared by every view; one caller closing what it was handed
+      // must not close it for the rest.
+    }
+
+  }
+
+}
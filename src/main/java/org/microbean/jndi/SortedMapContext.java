@@ -0,0 +1,142 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.naming.Binding;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import javax.naming.OperationNotSupportedException;
+
+// A MapContext whose bindings are kept in key order, so that they can
+// be listed a page at a time.  The cursor for the next page is the
+// name of the last binding on the current one; pages stay correct
+// while writers keep modifying the context, since every page is a
+// fresh range scan that starts after the cursor.
+public class SortedMapContext extends MapContext {
+
+  private final ConcurrentNavigableMap<String, Object> map;
+
+  public SortedMapContext(final NameParser nameParser) {
+    this(null, null, nameParser, null);
+  }
+
+  public SortedMapContext(final Hashtable<?, ?> environment, final NameParser nameParser) {
+    this(null, environment, nameParser, null);
+  }
+
+  public SortedMapContext(final Map<? extends String, ?> map, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+    this(environment, nameParser, prefix, map == null || map.isEmpty() ? new ConcurrentSkipListMap<>() : new ConcurrentSkipListMap<>(map));
+  }
+
+  private SortedMapContext(final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix, final ConcurrentNavigableMap<String, Object> map) {
+    super(environment, nameParser, prefix, map);
+    this.map = map;
+  }
+
+  @Override
+  protected Context newContext(final Name prefix) throws NamingException {
+    return new SortedMapContext(null, this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+  }
+
+  @Override
+  protected Context copy() throws NamingException {
+    return new SortedMapContext(this.map, this.environment, this.getNameParser(EMPTY_NAME), this.prefix);
+  }
+
+  public final NamingEnumeration<NameClassPair> list(final String name, final String after, final int limit) throws NamingException {
+    return this.list(new CompositeName(Objects.requireNonNull(name)), after, limit);
+  }
+
+  // Lists at most limit bindings of the named context whose names
+  // sort after the supplied one, or from the start if it is null.
+  public NamingEnumeration<NameClassPair> list(final Name name, final String after, final int limit) throws NamingException {
+    Objects.requireNonNull(name);
+    if (!name.isEmpty()) {
+      return this.getSortedMapContext(name).list(EMPTY_NAME, after, limit);
+    }
+    return new NameClassPairEnumeration<String>(this.page(after, limit)) {
+      @Override
+      protected final Object get(final String key) throws NamingException {
+        return SortedMapContext.this.get(key, SortedMapContext.this.getNameParser(EMPTY_NAME).parse(key));
+      }
+    };
+  }
+
+  public final NamingEnumeration<Binding> listBindings(final String name, final String after, final int limit) throws NamingException {
+    return this.listBindings(new CompositeName(Objects.requireNonNull(name)), after, limit);
+  }
+
+  public NamingEnumeration<Binding> listBindings(final Name name, final String after, final int limit) throws NamingException {
+    Objects.requireNonNull(name);
+    if (!name.isEmpty()) {
+      return this.getSortedMapContext(name).listBindings(EMPTY_NAME, after, limit);
+    }
+    return new BindingEnumeration<String>(this.page(after, limit)) {
+      @Override
+      protected final Object get(final String key) throws NamingException {
+        return SortedMapContext.this.get(key, SortedMapContext.this.getNameParser(EMPTY_NAME).parse(key));
+      }
+    };
+  }
+
+  private final SortedMapContext getSortedMapContext(final Name name) throws NamingException {
+    final Object target = this.lookup(name);
+    if (target instanceof SortedMapContext) {
+      return (SortedMapContext)target;
+    } else if (target instanceof Context) {
+      throw new OperationNotSupportedException(name + " cannot be listed in pages");
+    }
+    throw new NotContextException(name + " cannot be listed");
+  }
+
+  // Only the keys of the page are copied, so memory is bounded by
+  // limit however large the context is.
+  private final List<String> page(final String after, final int limit) throws NamingException {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit <= 0: " + limit);
+    }
+    if (!this.isOpen()) {
+      throw (NamingException)new NamingException("context is closing or closed").initCause(new IllegalStateException("context is closing or closed"));
+    }
+    final NavigableMap<String, Object> range = after == null ? this.map : this.map.tailMap(after, false);
+    final List<String> returnValue = new ArrayList<>(Math.min(limit, 64));
+    for (final String key : range.keySet()) {
+      returnValue.add(key);
+      if (returnValue.size() == limit) {
+        break;
+      }
+    }
+    return returnValue;
+  }
+
+}
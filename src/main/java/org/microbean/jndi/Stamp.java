@@ -0,0 +1,121 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Arrays;
+
+// Records the versions of the contexts a resolution passed through,
+// so that whatever was computed from that resolution can later be
+// checked for staleness without repeating it.
+final class Stamp {
+
+  static final Stamp INVALID = new Stamp(new AbstractContext<?>[0], new long[0], false);
+
+  private final AbstractContext<?>[] contexts;
+
+  private final long[] versions;
+
+  private final boolean cacheable;
+
+  private Stamp(final AbstractContext<?>[] contexts, final long[] versions, final boolean cacheable) {
+    super();
+    this.contexts = contexts;
+    this.versions = versions;
+    this.cacheable = cacheable;
+  }
+
+  final boolean isValid() {
+    if (!this.cacheable) {
+      return false;
+    }
+    final AbstractContext<?>[] contexts = this.contexts;
+    final long[] versions = this.versions;
+    for (int i = 0; i < contexts.length; i++) {
+      if (contexts[i].version() != versions[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static final class Builder {
+
+    private AbstractContext<?>[] contexts;
+
+    private long[] versions;
+
+    private int size;
+
+    private boolean cacheable;
+
+    Builder() {
+      super();
+      this.contexts = new AbstractContext<?>[4];
+      this.versions = new long[4];
+      this.cacheable = true;
+    }
+
+    // Must be called before the context's bindings are read.
+    final Builder add(final AbstractContext<?> context) {
+      if (context.hasThreadSpecificBindings()) {
+        // What this thread saw says nothing about what another
+        // thread will see.
+        this.cacheable = false;
+      }
+      if (this.size == this.contexts.length) {
+        this.contexts = Arrays.copyOf(this.contexts, this.size * 2);
+        this.versions = Arrays.copyOf(this.versions, this.size * 2);
+      }
+      this.contexts[this.size] = context;
+      this.versions[this.size] = context.version();
+      this.size++;
+      return this;
+    }
+
+    final Builder addAll(final Stamp stamp) {
+      if (!stamp.cacheable) {
+        this.cacheable = false;
+      }
+      for (int i = 0; i < stamp.contexts.length; i++) {
+        if (this.size == this.contexts.length) {
+          this.contexts = Arrays.copyOf(this.contexts, this.size * 2);
+          this.versions = Arrays.copyOf(this.versions, this.size * 2);
+        }
+        this.contexts[this.size] = stamp.contexts[i];
+        this.versions[this.size] = stamp.versions[i];
+        this.size++;
+      }
+      return this;
+    }
+
+    // Resolution left the contexts of this library, and nothing
+    // tells us when the foreign ones change.
+    final Builder uncacheable() {
+      this.cacheable = false;
+      return this;
+    }
+
+    final Stamp build() {
+      if (!this.cacheable) {
+        return INVALID;
+      }
+      return new Stamp(Arrays.copyOf(this.contexts, this.size), Arrays.copyOf(this.versions, this.size), true);
+    }
+
+  }
+
+}
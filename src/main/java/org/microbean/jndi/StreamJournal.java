@@ -0,0 +1,171 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.function.Predicate;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+
+// Appends journal entries to a stream, such as a file opened for
+// appending or a socket, one length-prefixed frame per entry.  Bound
+// objects must be serializable, as they must be for any JNDI
+// provider that stores them outside the JVM.  Reading a frame back
+// resolves only the classes an allow-list names, so that a frame
+// cannot make its reader load and instantiate whatever serializable
+// classes it can see.
+public class StreamJournal implements Journal, Closeable {
+
+  // What JNDI providers commonly bind, and what those are made of.
+  private static final Set<String> defaultAllowedClasses =
+    Collections.unmodifiableSet(new HashSet<>(Arrays.asList("java.lang.Object",
+                                                            "java.lang.String",
+                                                            "java.lang.Boolean",
+                                                            "java.lang.Character",
+                                                            "java.lang.Number",
+                                                            "java.lang.Byte",
+                                                            "java.lang.Short",
+                                                            "java.lang.Integer",
+                                                            "java.lang.Long",
+                                                            "java.lang.Float",
+                                                            "java.lang.Double",
+                                                            "java.math.BigInteger",
+                                                            "java.math.BigDecimal",
+                                                            "java.util.Hashtable",
+                                                            "java.util.Properties",
+                                                            "java.util.Vector",
+                                                            "javax.naming.CompositeName",
+                                                            "javax.naming.CompoundName",
+                                                            "javax.naming.Reference",
+                                                            "javax.naming.LinkRef",
+                                                            "javax.naming.RefAddr",
+                                                            "javax.naming.StringRefAddr",
+                                                            "javax.naming.BinaryRefAddr")));
+
+  public static final Predicate<String> DEFAULT_ALLOWED_CLASSES = defaultAllowedClasses::contains;
+
+  private final DataOutputStream outputStream;
+
+  public StreamJournal(final OutputStream outputStream) {
+    super();
+    this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+  }
+
+  @Override
+  public void prepare(final Entry entry) throws NamingException {
+    entry.frame = encode(entry);
+  }
+
+  @Override
+  public synchronized void record(final Entry entry) throws NamingException {
+    final byte[] frame = entry.frame == null ? encode(entry) : entry.frame;
+    try {
+      this.outputStream.writeInt(frame.length);
+      this.outputStream.write(frame);
+      this.outputStream.flush();
+    } catch (final IOException ioException) {
+      throw (NamingException)new NamingException(ioException.getMessage()).initCause(ioException);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.outputStream.close();
+  }
+
+  static final byte[] encode(final Entry entry) throws NamingException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+      objectOutputStream.writeUTF(entry.getOperation().name());
+      objectOutputStream.writeObject(entry.getName());
+      objectOutputStream.writeObject(entry.getValue());
+    } catch (final IOException ioException) {
+      throw (NamingException)new NamingException("cannot journal " + entry + ": " + ioException).initCause(ioException);
+    }
+    return bytes.toByteArray();
+  }
+
+  // Decodes frame, refusing any class, or array of one, that
+  // allowedClasses does not accept by name.
+  static final Entry decode(final byte[] frame, final Predicate<? super String> allowedClasses) throws IOException {
+    try (final ObjectInputStream objectInputStream = new FilteringObjectInputStream(new ByteArrayInputStream(frame), allowedClasses)) {
+      final Operation operation = Operation.valueOf(objectInputStream.readUTF());
+      final Name name = (Name)objectInputStream.readObject();
+      final Object value = objectInputStream.readObject();
+      return new Entry(operation, name, value);
+    } catch (final ClassNotFoundException | IllegalArgumentException | ClassCastException malformed) {
+      throw new IOException(malformed.getMessage(), malformed);
+    }
+  }
+
+  private static final boolean isAllowed(final String className, final Predicate<? super String> allowedClasses) {
+    int dimensions = 0;
+    while (dimensions < className.length() && className.charAt(dimensions) == '[') {
+      dimensions++;
+    }
+    if (dimensions == 0) {
+      return allowedClasses.test(className);
+    } else if (className.charAt(dimensions) == 'L' && className.endsWith(";")) {
+      return allowedClasses.test(className.substring(dimensions + 1, className.length() - 1));
+    }
+    // An array of primitives.
+    return className.length() == dimensions + 1;
+  }
+
+  private static final class FilteringObjectInputStream extends ObjectInputStream {
+
+    private final Predicate<? super String> allowedClasses;
+
+    private FilteringObjectInputStream(final ByteArrayInputStream inputStream, final Predicate<? super String> allowedClasses) throws IOException {
+      super(inputStream);
+      this.allowedClasses = Objects.requireNonNull(allowedClasses);
+    }
+
+    @Override
+    protected final Class<?> resolveClass(final ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+      if (!isAllowed(descriptor.getName(), this.allowedClasses)) {
+        throw new InvalidClassException(descriptor.getName(), "not allowed in a journal");
+      }
+      return super.resolveClass(descriptor);
+    }
+
+    @Override
+    protected final Class<?> resolveProxyClass(final String[] interfaces) throws IOException {
+      throw new InvalidClassException(Arrays.toString(interfaces), "proxies are not allowed in a journal");
+    }
+
+  }
+
+}
@@ -16,11 +16,17 @@
  */
 package org.microbean.jndi;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
+
+import java.util.function.BiConsumer;
 
 import javax.naming.Context;
 import javax.naming.InvalidNameException;
@@ -34,6 +40,13 @@ public class ThreadSpecificContext extends AbstractContext<String> {
 
   private static final ThreadLocal<Map<ThreadSpecificContext, Map<String, Object>>> threadAndInstanceSpecificMaps = ThreadLocal.withInitial(() -> new HashMap<>());
 
+  private final Map<String, ?> initialBindings;
+
+  // Every live thread's bindings, so that a footprint can count them
+  // all.  Each map is written only by its own thread, while holding
+  // the map's monitor, and read by others only while holding it.
+  private final Map<Thread, Map<String, Object>> threadMaps;
+
   public ThreadSpecificContext(final NameParser nameParser) {
     this(null, null, nameParser, null);
   }
@@ -45,57 +58,121 @@ public class ThreadSpecificContext extends AbstractContext<String> {
   public ThreadSpecificContext(final Map<? extends String, ?> map, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
     // TODO: should environment be thread-and-instance-specific as well?  Probably not.
     super(environment, nameParser, prefix);
-    final Map<String, Object> storage;
     if (map == null || map.isEmpty()) {
-      storage = new HashMap<>();
+      this.initialBindings = Collections.emptyMap();
     } else {
-      storage = new HashMap<>(map);
+      this.initialBindings = Collections.unmodifiableMap(new HashMap<>(map));
     }
-    threadAndInstanceSpecificMaps.get().put(this, storage);
+    this.threadMaps = Collections.synchronizedMap(new WeakHashMap<>());
   }
 
+  protected Map<String, ?> initialBindings() throws NamingException {
+    return this.initialBindings;
+  }
+
+  // Storage is created lazily on each thread that touches this
+  // context, not just on the thread that constructed it.
+  private final Map<String, Object> storage() throws NamingException {
+    final Map<ThreadSpecificContext, Map<String, Object>> maps = threadAndInstanceSpecificMaps.get();
+    Map<String, Object> returnValue = maps.get(this);
+    if (returnValue == null) {
+      returnValue = new CompactMap<>(this.initialBindings());
+      maps.put(this, returnValue);
+      this.threadMaps.put(Thread.currentThread(), returnValue);
+    }
+    return returnValue;
+  }
+
+  @Override
+  protected final boolean hasThreadSpecificBindings() {
+    return true;
+  }
+
+  // One instance may be shared by many threads, so closing it closes
+  // only the calling thread's bindings.  Other threads, and this one
+  // afterwards, go on using it.
   @Override
   public void close() throws NamingException {
-    try {
-      super.close();
-    } finally {
-      threadAndInstanceSpecificMaps.remove();
+    final Map<ThreadSpecificContext, Map<String, Object>> maps = threadAndInstanceSpecificMaps.get();
+    if (maps.containsKey(this)) {
+      try {
+        this.closeSubcontexts();
+      } finally {
+        this.threadMaps.remove(Thread.currentThread());
+        maps.remove(this);
+        if (maps.isEmpty()) {
+          threadAndInstanceSpecificMaps.remove();
+        }
+      }
     }
   }
 
   @Override
   protected Context newContext(final Name prefix) throws NamingException {
-    return new MapContext(new HashMap<>(), this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
+    return new MapContext(null, this.environment, this.getNameParser(EMPTY_NAME), Objects.requireNonNull(prefix));
   }
 
   @Override
   protected Context copy() throws NamingException {
-    return new ThreadSpecificContext(threadAndInstanceSpecificMaps.get().get(this), this.environment, this.getNameParser(EMPTY_NAME), this.prefix);
+    return new ThreadSpecificContext(this.storage(), this.environment, this.getNameParser(EMPTY_NAME), this.prefix);
   }
 
   @Override
   protected final boolean containsKey(final String mapKey) throws NamingException {
-    return threadAndInstanceSpecificMaps.get().get(this).containsKey(mapKey);
+    return this.storage().containsKey(mapKey);
   }
   
   @Override
   protected final Object get(final String mapKey) throws NamingException {
-    return threadAndInstanceSpecificMaps.get().get(this).get(mapKey);
+    return this.storage().get(mapKey);
   }
 
   @Override
-  protected final Set<String> keySet() {
-    return threadAndInstanceSpecificMaps.get().get(this).keySet();
+  protected final Set<String> keySet() throws NamingException {
+    return this.storage().keySet();
   }
   
+  @Override
+  protected void forEachEntry(final BiConsumer<? super String, Object> action) throws NamingException {
+    this.storage().forEach(action);
+  }
+
   @Override
   protected final Object remove(final String key) throws NamingException {
-    return threadAndInstanceSpecificMaps.get().get(this).remove(key);
+    final Map<String, Object> storage = this.storage();
+    synchronized (storage) {
+      return storage.remove(key);
+    }
   }
 
   @Override
   protected final Object put(final String key, final Object value) throws NamingException {
-    return threadAndInstanceSpecificMaps.get().get(this).put(key, value);
+    final Map<String, Object> storage = this.storage();
+    synchronized (storage) {
+      return storage.put(key, value);
+    }
+  }
+
+  // A footprint counts every thread's bindings, not just the calling
+  // thread's, along with what each thread's map spends on them.
+  @Override
+  final void count(final Footprint.Counter counter) throws NamingException {
+    final List<Map<String, Object>> maps;
+    synchronized (this.threadMaps) {
+      maps = new ArrayList<>(this.threadMaps.values());
+    }
+    for (final Map<String, Object> map : maps) {
+      synchronized (map) {
+        map.forEach(counter::add);
+        counter.addStorage(map, map.size());
+      }
+    }
+  }
+
+  @Override
+  final long storageBytes(final long bindings) {
+    // Counted map by map.
+    return 0L;
   }
 
   @Override
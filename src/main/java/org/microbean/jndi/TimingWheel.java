@@ -0,0 +1,184 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.function.LongSupplier;
+
+// A hashed timing wheel.  A timeout goes in the bucket for the tick
+// its deadline falls in, and advancing the wheel visits only the
+// buckets for the ticks that have passed, so the cost of expiry is
+// proportional to what expires, not to what is scheduled.  Timeouts
+// more than one revolution away are put back until their turn comes
+// round.  Deadlines are values of the wheel's clock, which is
+// System.nanoTime() unless the owner supplies its own.  Scheduling only
+// queues a timeout; the thread advancing the wheel files it in its
+// bucket, so a timeout can never be added to a bucket as that bucket
+// is being drained, and wait a revolution too long.
+final class TimingWheel {
+
+  private final long tickNanos;
+
+  private final Queue<Timeout> pending;
+
+  // Touched only by the thread advancing the wheel.
+  private final Queue<Timeout>[] buckets;
+
+  private final int mask;
+
+  private final LongSupplier nanoTime;
+
+  private final long origin;
+
+  private final AtomicBoolean advancing;
+
+  private volatile long processedTick;
+
+  TimingWheel(final long tickNanos, final int size) {
+    this(tickNanos, size, System::nanoTime);
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  TimingWheel(final long tickNanos, final int size, final LongSupplier nanoTime) {
+    super();
+    if (tickNanos <= 0L) {
+      throw new IllegalArgumentException("tickNanos <= 0: " + tickNanos);
+    }
+    if (size <= 0 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("size: " + size);
+    }
+    this.tickNanos = tickNanos;
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.buckets = new Queue[size];
+    for (int i = 0; i < size; i++) {
+      this.buckets[i] = new ArrayDeque<>();
+    }
+    this.mask = size - 1;
+    this.nanoTime = Objects.requireNonNull(nanoTime);
+    this.origin = nanoTime.getAsLong();
+    this.advancing = new AtomicBoolean();
+  }
+
+  final long getTickNanos() {
+    return this.tickNanos;
+  }
+
+  final void schedule(final Timeout timeout) {
+    this.pending.add(timeout);
+  }
+
+  // Cheap enough to call on every operation: does nothing until a
+  // tick has passed, and nothing if another thread is advancing.
+  final void advanceIfDue() {
+    final long now = this.nanoTime.getAsLong();
+    if (this.tick(now) > this.processedTick) {
+      this.advance(now);
+    }
+  }
+
+  final void advance(final long now) {
+    if (!this.advancing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      final long currentTick = this.tick(now);
+      long tick = this.processedTick + 1L;
+      if (currentTick < tick) {
+        // Someone else got here first.
+        return;
+      }
+      if (currentTick - tick >= this.buckets.length) {
+        // Every bucket is due; visit each once.
+        tick = currentTick - this.buckets.length + 1L;
+      }
+      final List<Timeout> due = new ArrayList<>();
+      Timeout timeout;
+      for (; tick <= currentTick; tick++) {
+        final Queue<Timeout> bucket = this.buckets[(int)(tick & this.mask)];
+        while ((timeout = bucket.poll()) != null) {
+          due.add(timeout);
+        }
+      }
+      this.processedTick = currentTick;
+      // Whatever was scheduled since the last advance is filed, or
+      // expired, now.
+      while ((timeout = this.pending.poll()) != null) {
+        due.add(timeout);
+      }
+      for (final Timeout dueTimeout : due) {
+        if (dueTimeout.isCancelled()) {
+          continue;
+        } else if (dueTimeout.deadline - now <= 0L) {
+          dueTimeout.expire();
+        } else {
+          this.file(dueTimeout);
+        }
+      }
+    } finally {
+      this.advancing.set(false);
+    }
+  }
+
+  private final void file(final Timeout timeout) {
+    long tick = this.tick(timeout.deadline);
+    if (tick <= this.processedTick) {
+      tick = this.processedTick + 1L;
+    }
+    this.buckets[(int)(tick & this.mask)].add(timeout);
+  }
+
+  private final long tick(final long nanoTime) {
+    return (nanoTime - this.origin) / this.tickNanos;
+  }
+
+  abstract static class Timeout {
+
+    final long deadline;
+
+    private volatile boolean cancelled;
+
+    Timeout(final long deadline) {
+      super();
+      this.deadline = deadline;
+    }
+
+    final boolean isExpired(final long now) {
+      return this.deadline - now <= 0L;
+    }
+
+    final boolean isCancelled() {
+      return this.cancelled;
+    }
+
+    final void cancel() {
+      this.cancelled = true;
+    }
+
+    abstract void expire();
+
+  }
+
+}
@@ -0,0 +1,549 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+
+// A context whose whole tree is one immutable value, published
+// through a single AtomicReference.  Every VersionedContext is a view
+// of a path in that tree.  Readers never lock and always see one
+// consistent version; writers copy only the nodes on the path to the
+// binding they change and share everything else with the previous
+// version.  Each node's bindings are a HashTrieMap, so copying one
+// costs time logarithmic in the number of its bindings.  Writes made
+// through a Transaction's context are staged privately and published
+// all at once by Transaction.commit().
+public class VersionedContext extends AbstractContext<String> {
+
+  private static final AtomicLong serials = new AtomicLong();
+
+  // Whether a bind under way on this thread is a rebind, which may
+  // replace a binding some other writer made in the meantime.
+  private static final ThreadLocal<Boolean> rebinding = new ThreadLocal<>();
+
+  private final AtomicReference<Node> root;
+
+  private final Transaction transaction;
+
+  private final Node snapshot;
+
+  private final List<String> path;
+
+  // Subcontext views are handed out once per key, so that the same
+  // subcontext is always the same object.
+  private final ConcurrentMap<String, VersionedContext> children;
+
+  private volatile Resolved resolved;
+
+  public VersionedContext(final NameParser nameParser) {
+    this(null, null, nameParser, null);
+  }
+
+  public VersionedContext(final Hashtable<?, ?> environment, final NameParser nameParser) {
+    this(null, environment, nameParser, null);
+  }
+
+  public VersionedContext(final Map<? extends String, ?> map, final Hashtable<?, ?> environment, final NameParser nameParser, final Name prefix) {
+    super(environment, nameParser, prefix);
+    this.root = new AtomicReference<>(map == null || map.isEmpty() ? Node.EMPTY : new Node(HashTrieMap.of(map)));
+    this.transaction = null;
+    this.snapshot = null;
+    this.path = Collections.emptyList();
+    this.children = new ConcurrentHashMap<>();
+  }
+
+  private VersionedContext(final VersionedContext source,
+                           final Name prefix,
+                           final Transaction transaction,
+                           final Node snapshot,
+                           final List<String> path) {
+    super(source.environment, source.getNameParserOrNull(), prefix);
+    this.root = source.root;
+    this.transaction = transaction;
+    this.snapshot = snapshot;
+    this.path = path;
+    this.children = new ConcurrentHashMap<>();
+  }
+
+  private final Journal getJournalOrNull() {
+    return super.getJournal();
+  }
+
+  private final NameParser getNameParserOrNull() {
+    try {
+      return this.getNameParser(EMPTY_NAME);
+    } catch (final NamingException namingException) {
+      return null;
+    }
+  }
+
+  // Returns a read-only view of this context as it is now, unaffected
+  // by any later writes.
+  public final VersionedContext snapshot() {
+    return new VersionedContext(this, this.prefix, null, this.rootNode(), this.path);
+  }
+
+  // Begins a transaction over this context's whole tree.  Its context
+  // sees the tree as it was when the transaction began, plus its own
+  // staged writes; nothing it does is visible elsewhere until commit.
+  public final Transaction begin() throws NamingException {
+    if (this.snapshot != null) {
+      throw new OperationNotSupportedException("snapshots are read-only");
+    } else if (this.transaction != null) {
+      throw new OperationNotSupportedException("transactions do not nest");
+    }
+    return new Transaction(this);
+  }
+
+  @Override
+  protected Journal getJournal() {
+    // Changes made in a transaction are journaled when, and only if,
+    // it commits.
+    return this.transaction == null ? super.getJournal() : this.transaction.journal;
+  }
+
+  @Override
+  final long version() {
+    // Any write anywhere in the tree makes a new root, so the root's
+    // serial number versions every view of it.
+    return this.rootNode().serial;
+  }
+
+  private final Node rootNode() {
+    if (this.snapshot != null) {
+      return this.snapshot;
+    } else if (this.transaction != null) {
+      return this.transaction.working;
+    }
+    return this.root.get();
+  }
+
+  private final Node node() {
+    final Node rootNode = this.rootNode();
+    final Resolved resolved = this.resolved;
+    if (resolved != null && resolved.root == rootNode) {
+      return resolved.node;
+    }
+    final Node node = rootNode.find(this.path);
+    this.resolved = new Resolved(rootNode, node);
+    return node;
+  }
+
+  private final VersionedContext child(final String key) throws NamingException {
+    VersionedContext returnValue = this.children.get(key);
+    if (returnValue == null) {
+      returnValue = new VersionedContext(this, this.getChildName(key), this.transaction, this.snapshot, this.path(key));
+      final VersionedContext existing = this.children.putIfAbsent(key, returnValue);
+      if (existing != null) {
+        returnValue = existing;
+      }
+    }
+    return returnValue;
+  }
+
+  private final List<String> path(final String key) {
+    final List<String> returnValue = new ArrayList<>(this.path.size() + 1);
+    returnValue.addAll(this.path);
+    returnValue.add(key);
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  @Override
+  protected Context newContext(final Name prefix) throws NamingException {
+    final String key = prefix.get(prefix.size() - 1);
+    return new VersionedContext(this, prefix, this.transaction, this.snapshot, this.path(key));
+  }
+
+  @Override
+  final boolean hasSharedStorage() {
+    // Every view of the tree reads the same root.
+    return true;
+  }
+
+  @Override
+  final long storageBytes(final long bindings) {
+    return Footprint.storageBytes(HashTrieMap.empty(), bindings);
+  }
+
+  @Override
+  protected Context copy() throws NamingException {
+    return new VersionedContext(this, this.prefix, this.transaction, this.snapshot, this.path);
+  }
+
+  @Override
+  protected final Object get(final String mapKey) throws NamingException {
+    final Node node = this.node();
+    final Object value = node == null ? null : node.bindings.get(Objects.requireNonNull(mapKey));
+    return value instanceof Node ? this.child(mapKey) : value;
+  }
+
+  @Override
+  protected final Set<String> keySet() throws NamingException {
+    final Node node = this.node();
+    return node == null ? Collections.<String>emptySet() : node.bindings.keySet();
+  }
+
+  @Override
+  protected void bind(final Name name, final Object obj, final boolean rebindPermitted) throws NamingException {
+    if (this.transaction == null) {
+      super.bind(name, obj, rebindPermitted);
+      return;
+    }
+    final Boolean old = rebinding.get();
+    rebinding.set(Boolean.valueOf(rebindPermitted));
+    try {
+      super.bind(name, obj, rebindPermitted);
+    } finally {
+      if (old == null) {
+        rebinding.remove();
+      } else {
+        rebinding.set(old);
+      }
+    }
+  }
+
+  @Override
+  protected final Object put(final String key, final Object value) throws NamingException {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(value);
+    final Object returnValue = this.get(key);
+    // Binding a name that was not bound, other than by rebind, needs
+    // it to be unbound still when a transaction commits.
+    final boolean create = returnValue == null && !Boolean.TRUE.equals(rebinding.get());
+    Object state = value;
+    if (value instanceof VersionedContext) {
+      final VersionedContext context = (VersionedContext)value;
+      if (context.root == this.root && context.path.equals(this.path(key))) {
+        // A subcontext view of this very key, as made by
+        // newContext(Name); what is bound is the tree beneath it.
+        final Node node = context.node();
+        state = node == null ? Node.EMPTY : node;
+        this.children.put(key, context);
+      }
+    }
+    this.write(key, state, create);
+    if (!(state instanceof Node)) {
+      this.children.remove(key);
+    }
+    return returnValue;
+  }
+
+  @Override
+  protected final Object remove(final String key) throws NamingException {
+    final Object returnValue = this.get(Objects.requireNonNull(key));
+    if (returnValue != null) {
+      this.write(key, null, false);
+      this.children.remove(key);
+    }
+    return returnValue;
+  }
+
+  private final void write(final String key, final Object state, final boolean create) throws NamingException {
+    if (this.snapshot != null) {
+      throw new OperationNotSupportedException("snapshots are read-only");
+    } else if (this.transaction != null) {
+      this.transaction.stage(new Write(this.path, key, state, create));
+    } else {
+      Node rootNode;
+      Node newRootNode;
+      do {
+        rootNode = this.root.get();
+        newRootNode = rootNode.with(this.path, 0, key, state);
+      } while (!this.root.compareAndSet(rootNode, newRootNode));
+    }
+  }
+
+  @Override
+  protected final String extractKey(final Name name) throws NamingException {
+    final Name compoundName = this.toCompoundName(Objects.requireNonNull(name));
+    assert compoundName != null;
+    final String returnValue;
+    if (compoundName.isEmpty()) {
+      returnValue = "";
+    } else {
+      returnValue = compoundName.get(0);
+    }
+    return returnValue;
+  }
+
+  @Override
+  public void rename(final Name oldName, final Name newName) throws NamingException {
+    Objects.requireNonNull(oldName);
+    Objects.requireNonNull(newName);
+    if (oldName.isEmpty()) {
+      throw new InvalidNameException("oldName.isEmpty()");
+    } else if (newName.isEmpty()) {
+      throw new InvalidNameException("newName.isEmpty()");
+    }
+
+    final String newKey = this.toCompoundName(newName).toString();
+    if (this.containsKey(newKey)) {
+      throw new NameAlreadyBoundException(newName.toString());
+    }
+
+    final String oldKey = this.toCompoundName(oldName).toString();
+    final Node node = this.node();
+    final Object state = node == null ? null : node.bindings.get(oldKey);
+    if (state == null) {
+      throw new NameNotFoundException(oldName.toString());
+    }
+
+    this.publish(this.prepareJournalEntry(Journal.Operation.RENAME, oldKey, this.getChildName(newKey)), () -> {
+        this.write(newKey, state, true);
+        this.write(oldKey, null, false);
+        this.children.remove(oldKey);
+        this.modified();
+        return true;
+      });
+  }
+
+  public static final class Transaction implements AutoCloseable {
+
+    private final AtomicReference<Node> root;
+
+    private final Node base;
+
+    private final List<Write> writes;
+
+    private final VersionedContext context;
+
+    private final Journal journal;
+
+    private final List<Journal.Entry> journalEntries;
+
+    private volatile Node working;
+
+    private boolean completed;
+
+    private Transaction(final VersionedContext context) {
+      super();
+      this.root = context.root;
+      this.base = context.root.get();
+      this.working = this.base;
+      this.writes = new ArrayList<>();
+      this.journalEntries = new ArrayList<>();
+      final Journal journal = context.getJournal();
+      if (journal == null) {
+        this.journal = null;
+      } else {
+        // Entries are prepared when staged, so that a change the
+        // journal could not record fails then, and recorded on commit.
+        this.journal = new Journal() {
+            @Override
+            public final void prepare(final Journal.Entry entry) throws NamingException {
+              journal.prepare(entry);
+            }
+
+            @Override
+            public final void record(final Journal.Entry entry) throws NamingException {
+              Transaction.this.stage(entry);
+            }
+          };
+      }
+      this.context = new VersionedContext(context, context.prefix, this, null, context.path);
+    }
+
+    public final Context getContext() {
+      return this.context;
+    }
+
+    private final synchronized void stage(final Journal.Entry journalEntry) throws NamingException {
+      if (this.completed) {
+        throw new NamingException("transaction already completed");
+      }
+      this.journalEntries.add(journalEntry);
+    }
+
+    private final synchronized void stage(final Write write) throws NamingException {
+      if (this.completed) {
+        throw new NamingException("transaction already completed");
+      }
+      this.working = write.applyTo(this.working, false);
+      this.writes.add(write);
+    }
+
+    // Publishes every staged write at once.  If other writers have
+    // published since this transaction began, its writes are
+    // replayed, in order, on top of theirs; a write that bound a name
+    // that was unbound then fails the commit, with a
+    // NameAlreadyBoundException, if one of them has bound it since.
+    public final synchronized void commit() throws NamingException {
+      if (this.completed) {
+        throw new NamingException("transaction already completed");
+      }
+      final Journal journal = this.journalEntries.isEmpty() ? null : this.context.getJournalOrNull();
+      if (journal == null) {
+        this.publish();
+      } else {
+        // Held while publishing, as every writer to the journal does,
+        // so that entries are recorded in the order changes were made.
+        synchronized (journal) {
+          this.publish();
+          for (final Journal.Entry journalEntry : this.journalEntries) {
+            journal.record(journalEntry);
+          }
+        }
+      }
+    }
+
+    private final void publish() throws NamingException {
+      Node rootNode;
+      Node newRootNode;
+      do {
+        rootNode = this.root.get();
+        if (rootNode == this.base) {
+          newRootNode = this.working;
+        } else {
+          newRootNode = rootNode;
+          for (final Write write : this.writes) {
+            newRootNode = write.applyTo(newRootNode, true);
+          }
+        }
+      } while (!this.root.compareAndSet(rootNode, newRootNode));
+      this.completed = true;
+    }
+
+    public final synchronized void rollback() {
+      this.completed = true;
+      this.writes.clear();
+      this.journalEntries.clear();
+      this.working = this.base;
+    }
+
+    @Override
+    public final synchronized void close() {
+      if (!this.completed) {
+        this.rollback();
+      }
+    }
+
+  }
+
+  private static final class Write {
+
+    private final List<String> path;
+
+    private final String key;
+
+    private final Object state; // null means remove
+
+    // Whether key was unbound when this write was staged, and must
+    // still be when it is replayed.
+    private final boolean create;
+
+    private Write(final List<String> path, final String key, final Object state, final boolean create) {
+      super();
+      this.path = path;
+      this.key = key;
+      this.state = state;
+      this.create = create;
+    }
+
+    private final Node applyTo(final Node rootNode, final boolean replay) throws NamingException {
+      if (replay && this.create) {
+        final Node node = rootNode.find(this.path);
+        if (node != null && node.bindings.containsKey(this.key)) {
+          final List<String> name = new ArrayList<>(this.path);
+          name.add(this.key);
+          throw new NameAlreadyBoundException(String.join("/", name));
+        }
+      }
+      return rootNode.with(this.path, 0, this.key, this.state);
+    }
+
+  }
+
+  private static final class Node {
+
+    private static final Node EMPTY = new Node(HashTrieMap.<String, Object>empty());
+
+    private final long serial;
+
+    private final HashTrieMap<String, Object> bindings;
+
+    private Node(final HashTrieMap<String, Object> bindings) {
+      super();
+      this.serial = serials.incrementAndGet();
+      this.bindings = bindings;
+    }
+
+    private final Node find(final List<String> path) {
+      Node node = this;
+      for (final String component : path) {
+        final Object child = node.bindings.get(component);
+        if (!(child instanceof Node)) {
+          return null;
+        }
+        node = (Node)child;
+      }
+      return node;
+    }
+
+    // Returns a copy of this node with key under path set to state,
+    // or removed if state is null.  Only the nodes along path are
+    // copied, and each of those only along the path to its changed
+    // binding.
+    private final Node with(final List<String> path, final int depth, final String key, final Object state) throws NamingException {
+      if (depth == path.size()) {
+        return new Node(state == null ? this.bindings.without(key) : this.bindings.with(key, state));
+      }
+      final String component = path.get(depth);
+      final Object child = this.bindings.get(component);
+      if (!(child instanceof Node)) {
+        throw new NameNotFoundException(component);
+      }
+      return new Node(this.bindings.with(component, ((Node)child).with(path, depth + 1, key, state)));
+    }
+
+  }
+
+  private static final class Resolved {
+
+    private final Node root;
+
+    private final Node node;
+
+    private Resolved(final Node root, final Node node) {
+      super();
+      this.root = root;
+      this.node = node;
+    }
+
+  }
+
+}
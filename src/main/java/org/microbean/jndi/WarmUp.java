@@ -0,0 +1,191 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import java.util.function.Predicate;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.LinkRef;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+final class WarmUp {
+
+  private static final int SEQUENTIAL_THRESHOLD = 4;
+
+  private WarmUp() {
+    super();
+  }
+
+  static final WarmUpReport warmUp(final AbstractContext<?> root,
+                                   final Predicate<? super Name> selector,
+                                   final ForkJoinPool pool)
+    throws NamingException {
+    Objects.requireNonNull(root);
+    Objects.requireNonNull(selector);
+    Objects.requireNonNull(pool);
+    final long start = System.nanoTime();
+
+    // Reading and writing happen on the calling thread, since some
+    // contexts (ThreadSpecificContext, for example) keep their
+    // bindings in thread-specific storage; only the dereferencing
+    // is spread across the pool.
+    final List<Task<?>> tasks = new ArrayList<>();
+    collect(root, new CompositeName(), selector, tasks, Collections.newSetFromMap(new IdentityHashMap<>()));
+    if (!tasks.isEmpty()) {
+      pool.invoke(new Fork(tasks, 0, tasks.size()));
+    }
+
+    final List<WarmUpReport.Entry> entries = new ArrayList<>(tasks.size());
+    for (final Task<?> task : tasks) {
+      task.keep();
+      entries.add(new WarmUpReport.Entry(task.name, task.nanos, task.failure));
+    }
+    return new WarmUpReport(entries, System.nanoTime() - start);
+  }
+
+  private static final <K> void collect(final AbstractContext<K> context,
+                                        final Name prefix,
+                                        final Predicate<? super Name> selector,
+                                        final List<Task<?>> tasks,
+                                        final Set<AbstractContext<?>> visited)
+    throws NamingException {
+    // A context bound under more than one name is warmed once.
+    if (!visited.add(context)) {
+      return;
+    }
+    final NameParser nameParser = context.getNameParser(AbstractContext.EMPTY_NAME);
+    for (final K key : new ArrayList<>(context.keySet())) {
+      final Object value = context.get(key);
+      final Name name = ((Name)prefix.clone()).add(key.toString());
+      if (value instanceof AbstractContext) {
+        collect((AbstractContext<?>)value, name, selector, tasks, visited);
+      } else if (value != null &&
+                 !(value instanceof Context) &&
+                 // A link's target is warmed where it is bound, and a
+                 // LazyBinding keeps its own object.
+                 !(value instanceof LinkRef) &&
+                 !(value instanceof LazyBinding && ((LazyBinding)value).isInitialized()) &&
+                 selector.test(name)) {
+        tasks.add(new Task<>(context, key, nameParser == null ? null : nameParser.parse(key.toString()), name, value));
+      }
+    }
+  }
+
+  private static final class Task<K> {
+
+    private final AbstractContext<K> context;
+
+    private final K key;
+
+    private final Name keyName;
+
+    private final Name name;
+
+    private final Object value;
+
+    private Object result;
+
+    private long nanos;
+
+    private NamingException failure;
+
+    private Task(final AbstractContext<K> context, final K key, final Name keyName, final Name name, final Object value) {
+      super();
+      this.context = context;
+      this.key = key;
+      this.keyName = keyName;
+      this.name = name;
+      this.value = value;
+    }
+
+    private final void dereference() {
+      final long start = System.nanoTime();
+      try {
+        this.result = this.context.dereference(this.value, this.keyName);
+      } catch (final NamingException namingException) {
+        this.failure = namingException;
+      } catch (final RuntimeException runtimeException) {
+        this.failure = (NamingException)new NamingException(runtimeException.getMessage()).initCause(runtimeException);
+      } finally {
+        this.nanos = System.nanoTime() - start;
+      }
+    }
+
+    // Keeps the result beside the binding, which itself is left
+    // alone, so lookupLink, listing and journals still see what was
+    // bound.
+    private final void keep() {
+      if (this.failure == null && this.result != null && this.result != this.value && !(this.value instanceof LazyBinding)) {
+        try {
+          // Don't keep the result for a binding that was replaced
+          // while we were busy dereferencing the old one.
+          if (this.context.get(this.key) == this.value) {
+            this.context.warm(this.key, this.value, this.result);
+          }
+        } catch (final NamingException namingException) {
+          this.failure = namingException;
+        }
+      }
+    }
+
+  }
+
+  private static final class Fork extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Task<?>> tasks;
+
+    private final int from;
+
+    private final int to;
+
+    private Fork(final List<Task<?>> tasks, final int from, final int to) {
+      super();
+      this.tasks = tasks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected final void compute() {
+      if (this.to - this.from <= SEQUENTIAL_THRESHOLD) {
+        for (int i = this.from; i < this.to; i++) {
+          this.tasks.get(i).dereference();
+        }
+      } else {
+        final int middle = (this.from + this.to) >>> 1;
+        invokeAll(new Fork(this.tasks, this.from, middle), new Fork(this.tasks, middle, this.to));
+      }
+    }
+
+  }
+
+}
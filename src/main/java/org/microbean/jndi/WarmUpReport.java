@@ -0,0 +1,96 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+
+public final class WarmUpReport {
+
+  private final List<Entry> entries;
+
+  private final long elapsedNanos;
+
+  WarmUpReport(final List<Entry> entries, final long elapsedNanos) {
+    super();
+    this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  public final List<Entry> getEntries() {
+    return this.entries;
+  }
+
+  public final List<Entry> getFailures() {
+    final List<Entry> returnValue = new ArrayList<>();
+    for (final Entry entry : this.entries) {
+      if (entry.getFailure() != null) {
+        returnValue.add(entry);
+      }
+    }
+    return Collections.unmodifiableList(returnValue);
+  }
+
+  public final long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  @Override
+  public final String toString() {
+    return this.entries.size() + " bindings warmed up in " + this.elapsedNanos + " ns; " + this.getFailures().size() + " failures";
+  }
+
+  public static final class Entry {
+
+    private final Name name;
+
+    private final long nanos;
+
+    private final NamingException failure;
+
+    Entry(final Name name, final long nanos, final NamingException failure) {
+      super();
+      this.name = Objects.requireNonNull(name);
+      this.nanos = nanos;
+      this.failure = failure;
+    }
+
+    public final Name getName() {
+      return this.name;
+    }
+
+    public final long getNanos() {
+      return this.nanos;
+    }
+
+    public final NamingException getFailure() {
+      return this.failure;
+    }
+
+    @Override
+    public final String toString() {
+      return this.name + " (" + this.nanos + " ns)" + (this.failure == null ? "" : ": " + this.failure);
+    }
+
+  }
+
+}
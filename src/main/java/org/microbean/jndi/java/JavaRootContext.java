@@ -0,0 +1,125 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi.java;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Objects;
+
+import java.util.function.BooleanSupplier;
+
+import javax.naming.Context;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+import org.microbean.jndi.ConcurrentMapContext;
+import org.microbean.jndi.MapContext;
+import org.microbean.jndi.SharedContextView;
+
+// The root of java:.  Each scope is bound under its name, so a
+// java:global, java:app or java:module lookup reaches the scope's
+// store with one read of this context's bindings, and never touches
+// the thread-specific comp machinery.  The shared scopes are bound as
+// views carrying this context's environment, which closing leaves
+// open.  Only comp belongs to the root, and its views share it.
+final class JavaRootContext extends MapContext {
+
+  private final Context comp;
+
+  private final ConcurrentMapContext module;
+
+  private final ConcurrentMapContext application;
+
+  private final ConcurrentMapContext global;
+
+  private final BooleanSupplier deployed;
+
+  // Whether closing this context closes comp.  Views and copies, which
+  // are what callers are handed, never do.
+  private final boolean owner;
+
+  JavaRootContext(final Context comp,
+                  final ConcurrentMapContext module,
+                  final ConcurrentMapContext application,
+                  final ConcurrentMapContext global,
+                  final Hashtable<?, ?> environment,
+                  final NameParser nameParser,
+                  final BooleanSupplier deployed) throws NamingException {
+    this(scopes(comp, module, application, global, environment), comp, module, application, global, environment, nameParser, deployed, true);
+  }
+
+  private JavaRootContext(final Map<? extends String, ?> bindings,
+                          final Context comp,
+                          final ConcurrentMapContext module,
+                          final ConcurrentMapContext application,
+                          final ConcurrentMapContext global,
+                          final Hashtable<?, ?> environment,
+                          final NameParser nameParser,
+                          final BooleanSupplier deployed,
+                          final boolean owner) {
+    super(bindings, environment, nameParser, EMPTY_NAME);
+    this.comp = Objects.requireNonNull(comp);
+    this.module = Objects.requireNonNull(module);
+    this.application = Objects.requireNonNull(application);
+    this.global = Objects.requireNonNull(global);
+    this.deployed = Objects.requireNonNull(deployed);
+    this.owner = owner;
+  }
+
+  private static final Map<String, Object> scopes(final Context comp,
+                                                  final ConcurrentMapContext module,
+                                                  final ConcurrentMapContext application,
+                                                  final ConcurrentMapContext global,
+                                                  final Hashtable<?, ?> environment) throws NamingException {
+    final Map<String, Object> returnValue = new HashMap<>();
+    returnValue.put(javaURLContextFactory.COMP, comp);
+    returnValue.put(javaURLContextFactory.MODULE, SharedContextView.newBoundView(module, environment));
+    returnValue.put(javaURLContextFactory.APP, SharedContextView.newBoundView(application, environment));
+    returnValue.put(javaURLContextFactory.GLOBAL, SharedContextView.newBoundView(global, environment));
+    return returnValue;
+  }
+
+  // Whether the application and module whose scopes are bound here
+  // are still deployed.
+  final boolean isDeployed() {
+    return this.deployed.getAsBoolean();
+  }
+
+  // Returns this root as a caller with environment sees it.
+  final JavaRootContext view(final Hashtable<?, ?> environment) throws NamingException {
+    return new JavaRootContext(scopes(this.comp, this.module, this.application, this.global, environment),
+                               this.comp, this.module, this.application, this.global,
+                               environment, this.getNameParser(EMPTY_NAME), this.deployed, false);
+  }
+
+  @Override
+  protected final Context copy() throws NamingException {
+    final Map<String, Object> bindings = new HashMap<>();
+    this.forEachEntry(bindings::put);
+    return new JavaRootContext(bindings, this.comp, this.module, this.application, this.global,
+                               this.environment, this.getNameParser(EMPTY_NAME), this.deployed, false);
+  }
+
+  @Override
+  protected final void closeSubcontexts() throws NamingException {
+    if (this.owner) {
+      super.closeSubcontexts();
+    }
+  }
+
+}
@@ -18,9 +18,16 @@ package org.microbean.jndi.java;
 
 import java.net.URI;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.naming.CompositeName;
 import javax.naming.CompoundName;
 import javax.naming.Context;
@@ -28,16 +35,38 @@ import javax.naming.Name;
 import javax.naming.NameParser;
 import javax.naming.NamingException;
 
-import org.microbean.jndi.AbstractContext;
 import org.microbean.jndi.AbstractURLContextFactory;
+import org.microbean.jndi.ConcurrentMapContext;
 import org.microbean.jndi.Contexts;
-import org.microbean.jndi.MapContext;
+import org.microbean.jndi.SharedContextView;
 import org.microbean.jndi.ThreadSpecificContext;
 
 public class javaURLContextFactory extends AbstractURLContextFactory {
 
+  public static final String APPLICATION_NAME = "org.microbean.jndi.java.application";
+
+  public static final String MODULE_NAME = "org.microbean.jndi.java.module";
+
+  static final String COMP = "comp";
+
+  static final String MODULE = "module";
+
+  static final String APP = "app";
+
+  static final String GLOBAL = "global";
+
+  private static final String DEFAULT_NAME = "default";
+
   private static final Properties defaultSyntax = Contexts.leftToRightSlashSeparatedSyntax();
-  
+
+  private static final NameParser defaultNameParser = nameString -> new CompoundName(nameString, defaultSyntax);
+
+  private static final ConcurrentMapContext global = newScope(GLOBAL);
+
+  private static final ConcurrentMap<String, ConcurrentMapContext> applications = new ConcurrentHashMap<>();
+
+  private static final ConcurrentMap<List<String>, ConcurrentMapContext> modules = new ConcurrentHashMap<>();
+
   public javaURLContextFactory() {
     super();
     assert "java".equals(this.scheme);
@@ -48,14 +77,73 @@ public class javaURLContextFactory extends AbstractURLContextFactory {
     if (uri != null && !this.scheme.equals(uri.getScheme())) {
       throw new NamingException("invalid URI: " + uri);
     }
-    final NameParser nameParser = nameString -> new CompoundName(nameString, defaultSyntax);
-    final Context returnValue = new MapContext(null, environment, nameParser, AbstractContext.EMPTY_NAME);
-    final Name compName = new CompositeName("comp");
-    final ThreadSpecificContext comp = new ThreadSpecificContext(null, environment, nameParser, compName);
-    final Context env = comp.createSubcontext("env");
-    assert env != null;
-    returnValue.bind(compName, comp);
-    return returnValue;
+    final String application = getName(environment, APPLICATION_NAME);
+    final String module = getName(environment, MODULE_NAME);
+    final Name compName = new CompositeName(COMP);
+    final ThreadSpecificContext comp = new ThreadSpecificContext(null, environment, defaultNameParser, compName) {
+        // This context may be reused across threads, so every thread
+        // that reaches comp gets its own env subcontext.
+        @Override
+        protected final Map<String, ?> initialBindings() throws NamingException {
+          return Collections.singletonMap("env", this.newContext(new CompositeName("comp/env")));
+        }
+      };
+    final ConcurrentMapContext moduleScope = modules.computeIfAbsent(Arrays.asList(application, module), k -> newScope(MODULE));
+    final ConcurrentMapContext applicationScope = applications.computeIfAbsent(application, k -> newScope(APP));
+    return new JavaRootContext(comp, moduleScope, applicationScope, global, environment, defaultNameParser, () -> modules.get(Arrays.asList(application, module)) == moduleScope && applications.get(application) == applicationScope);
+  }
+
+  // A component's root is chosen by its application and module, not
+  // by the rest of its environment, which reaches it through a view.
+  // comp keeps the environment of the caller that made the root.
+  @Override
+  protected Object getRootKey(final Hashtable<?, ?> environment) {
+    return Arrays.asList(getName(environment, APPLICATION_NAME), getName(environment, MODULE_NAME));
+  }
+
+  @Override
+  protected Context getView(final Context root, final Hashtable<?, ?> environment) throws NamingException {
+    return root instanceof JavaRootContext ? ((JavaRootContext)root).view(environment) : root;
+  }
+
+  // A cached root is rebuilt once its application or module has been
+  // undeployed.
+  @Override
+  protected boolean isReusable(final Context context) throws NamingException {
+    return super.isReusable(context) && (!(context instanceof JavaRootContext) || ((JavaRootContext)context).isDeployed());
+  }
+
+  // Discards the java:app scope of the named application, and the
+  // java:module scopes of its modules.  Contexts made afterwards for
+  // the application start out empty.
+  public static final void undeployApplication(final String application) {
+    final String name = application == null ? DEFAULT_NAME : application;
+    applications.remove(name);
+    modules.keySet().removeIf(key -> key.get(0).equals(name));
+  }
+
+  // Discards the java:module scope of the named module.
+  public static final void undeployModule(final String application, final String module) {
+    modules.remove(Arrays.asList(application == null ? DEFAULT_NAME : application, module == null ? DEFAULT_NAME : module));
+  }
+
+  private static final String getName(final Hashtable<?, ?> environment, final String propertyName) {
+    final Object name = environment == null ? null : environment.get(propertyName);
+    return name == null ? DEFAULT_NAME : name.toString();
+  }
+
+  // Module, application and global scopes are shared by every
+  // component, and therefore every thread, that belongs to them.
+  private static final ConcurrentMapContext newScope(final String name) {
+    try {
+      final ConcurrentMapContext returnValue = SharedContextView.newSharedContext(defaultNameParser, new CompositeName(name));
+      if (!GLOBAL.equals(name)) {
+        returnValue.createSubcontext("env");
+      }
+      return returnValue;
+    } catch (final NamingException namingException) {
+      throw new IllegalStateException(namingException.getMessage(), namingException);
+    }
   }
   
 }
@@ -0,0 +1,253 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.lang.ref.WeakReference;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.LinkRef;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCachingContext {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private MapContext backend;
+
+  private Map<String, AtomicInteger> calls;
+
+  private volatile CountDownLatch gate;
+
+  private Context remote;
+
+  // Added to System.nanoTime() to make the caches' clock.
+  private AtomicLong offset;
+
+  public TestCachingContext() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.backend = new MapContext(name -> new CompoundName(name, syntax));
+    this.calls = new ConcurrentHashMap<>();
+    this.offset = new AtomicLong();
+    // Stands in for a slow remote context: counts every call, and
+    // blocks reads while the gate is shut.
+    this.remote = (Context)Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] { Context.class }, (proxy, method, arguments) -> {
+        this.calls.computeIfAbsent(method.getName(), k -> new AtomicInteger()).incrementAndGet();
+        final CountDownLatch gate = this.gate;
+        if (gate != null && method.getName().startsWith("l")) {
+          gate.await();
+        }
+        try {
+          return method.invoke(this.backend, arguments);
+        } catch (final InvocationTargetException invocationTargetException) {
+          throw invocationTargetException.getCause();
+        }
+      });
+  }
+
+  private final int calls(final String methodName) {
+    final AtomicInteger count = this.calls.get(methodName);
+    return count == null ? 0 : count.get();
+  }
+
+  private final CachingContext cache(final long timeToLive, final long refreshAhead, final int maxSize) {
+    return new CachingContext(this.remote, timeToLive, refreshAhead, TimeUnit.MILLISECONDS, null, maxSize, () -> System.nanoTime() + this.offset.get());
+  }
+
+  private final void advance(final long milliseconds) {
+    this.offset.addAndGet(TimeUnit.MILLISECONDS.toNanos(milliseconds));
+  }
+
+  @Test
+  public void testTimeToLiveAndInvalidation() throws Exception {
+    this.backend.createSubcontext("jdbc").bind("primary", "one");
+    final CachingContext cache = this.cache(60000L, 0L, CachingContext.DEFAULT_MAX_SIZE);
+
+    // Mounted in a local tree, forwarded lookups are cached too.
+    final MapContext local = new MapContext(name -> new CompoundName(name, syntax));
+    local.bind("remote", cache);
+    assertEquals("one", local.lookup("remote/jdbc/primary"));
+    assertEquals("one", local.lookup("remote/jdbc/primary"));
+    assertEquals(1, calls("lookup"));
+
+    // Changes behind the cache's back show once the answer expires.
+    this.backend.rebind("jdbc/primary", "two");
+    assertEquals("one", cache.lookup("jdbc/primary"));
+    this.advance(90000L);
+    assertEquals("two", cache.lookup("jdbc/primary"));
+    assertEquals(2, calls("lookup"));
+
+    // Writes through the cache invalidate at once, and so does asking.
+    cache.rebind("jdbc/primary", "three");
+    assertEquals("three", cache.lookup("jdbc/primary"));
+    this.backend.rebind("jdbc/primary", "four");
+    cache.invalidate("jdbc");
+    assertEquals("four", cache.lookup("jdbc/primary"));
+
+    // Listings are cached, and forgotten when the context changes.
+    final NamingEnumeration<?> first = cache.list("jdbc");
+    assertTrue(first.hasMore());
+    first.next();
+    assertFalse(first.hasMore());
+    cache.list("jdbc");
+    assertEquals(1, calls("list"));
+    cache.bind("jdbc/secondary", "five");
+    final NamingEnumeration<?> second = cache.list("jdbc");
+    second.next();
+    assertTrue(second.hasMore());
+    assertEquals(2, calls("list"));
+
+    // Failures are not cached.
+    try {
+      cache.lookup("jdbc/missing");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+    this.backend.bind("jdbc/missing", "found");
+    assertEquals("found", cache.lookup("jdbc/missing"));
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    this.backend.bind("slow", "value");
+    final CachingContext cache = new CachingContext(this.remote, 1L, TimeUnit.MINUTES);
+    this.gate = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Object>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit((Callable<Object>)() -> cache.lookup("slow")));
+      }
+      Thread.sleep(100L);
+      this.gate.countDown();
+      for (final Future<Object> future : futures) {
+        assertEquals("value", future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, calls("lookup"));
+  }
+
+  @Test
+  public void testRefreshAhead() throws Exception {
+    this.backend.bind("hot", "one");
+    final CachingContext cache = this.cache(60000L, 50000L, CachingContext.DEFAULT_MAX_SIZE);
+    assertEquals("one", cache.lookup("hot"));
+    this.advance(15000L);
+    this.backend.rebind("hot", "two");
+
+    // The stale answer is served while it is reloaded behind the
+    // scenes.
+    assertEquals("one", cache.lookup("hot"));
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+    while (!"two".equals(cache.lookup("hot"))) {
+      assertTrue(System.nanoTime() - deadline < 0L);
+      Thread.sleep(10L);
+    }
+  }
+
+  @Test
+  public void testLinksNotCached() throws Exception {
+    this.backend.bind("target", "one");
+    this.backend.bind("alias", new LinkRef("./target"));
+    final CachingContext cache = this.cache(60000L, 0L, CachingContext.DEFAULT_MAX_SIZE);
+    assertEquals("one", cache.lookup("alias"));
+
+    // Rebinding the target invalidates nothing under the alias's name,
+    // so an answer cached there would now be wrong.
+    cache.rebind("target", "two");
+    assertEquals("two", cache.lookup("alias"));
+    assertEquals("two", cache.lookup("target"));
+    assertEquals("two", cache.lookup("target"));
+    assertEquals(3, calls("lookup"));
+  }
+
+  @Test
+  public void testEvictionFollowsInjectedClock() throws Exception {
+    this.backend.bind("held", new StringBuilder("held"));
+    this.backend.bind("other", "other");
+    final CachingContext cache = this.cache(60000L, 0L, CachingContext.DEFAULT_MAX_SIZE);
+    final WeakReference<Object> held = new WeakReference<>(cache.lookup("held"));
+    this.backend.unbind("held");
+
+    // Only the cache holds the answer now.  Once the cache's clock is
+    // past its expiry, the next operation evicts it, however little
+    // real time has gone by.
+    this.advance(90000L);
+    assertEquals("other", cache.lookup("other"));
+    for (int i = 0; i < 100 && held.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertTrue(held.get() == null);
+  }
+
+  @Test
+  public void testMaxSize() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      this.backend.bind("name" + i, Integer.valueOf(i));
+    }
+    final CachingContext cache = this.cache(60000L, 0L, 10);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(Integer.valueOf(i), cache.lookup("name" + i));
+      this.advance(1L);
+    }
+    assertEquals(100, calls("lookup"));
+
+    // The oldest answers made room for the newest.
+    assertEquals(Integer.valueOf(99), cache.lookup("name99"));
+    assertEquals(100, calls("lookup"));
+    assertEquals(Integer.valueOf(0), cache.lookup("name0"));
+    assertEquals(101, calls("lookup"));
+  }
+
+}
@@ -0,0 +1,193 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.lang.ref.WeakReference;
+
+import java.util.Hashtable;
+import java.util.Properties;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestExpiringContext {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final NameParser nameParser = name -> new CompoundName(name, syntax);
+
+  private static final Hashtable<String, Object> environment = new Hashtable<>();
+
+  static {
+    environment.put(ExpiringContext.TICK_MILLIS, "10");
+  }
+
+  public TestExpiringContext() {
+    super();
+  }
+
+  @Test
+  public void testPerBindingTtl() throws Exception {
+    final ExpiringContext context = new ExpiringContext(environment, nameParser, -1L, TimeUnit.MILLISECONDS);
+    context.bind("token", "t", 50L, TimeUnit.MILLISECONDS);
+    context.bind("handle", "h");
+    context.rebind("renamed", "r", 50L, TimeUnit.MILLISECONDS);
+    context.rename("renamed", "moved");
+    assertEquals("t", context.lookup("token"));
+    assertEquals("r", context.lookup("moved"));
+
+    Thread.sleep(150L);
+    assertNotBound(context, "token");
+    assertNotBound(context, "moved");
+    assertEquals("h", context.lookup("handle"));
+    assertEquals(1, context.getFootprint().getBindingCount());
+
+    // An expired name is free to be bound again.
+    context.bind("token", "t2");
+    assertEquals("t2", context.lookup("token"));
+  }
+
+  @Test
+  public void testDefaultTtlAndSubcontexts() throws Exception {
+    final ExpiringContext context = new ExpiringContext(environment, nameParser, 50L, TimeUnit.MILLISECONDS);
+    final Context sessions = context.createSubcontext("sessions");
+    sessions.bind("s1", "session");
+    assertEquals("session", context.lookup("sessions/s1"));
+    Thread.sleep(150L);
+    assertNotBound(context, "sessions/s1");
+    assertTrue(context.lookup("sessions") instanceof Context);
+  }
+
+  @Test
+  public void testBackgroundEviction() throws Exception {
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      final ExpiringContext context = new ExpiringContext(environment, nameParser, 20L, TimeUnit.MILLISECONDS, ExpiringContext.ValueStrength.STRONG, executor);
+      final long version = context.version();
+      context.bind("a", "a");
+      Thread.sleep(150L);
+      // Nothing has touched the context since; the executor evicted
+      // the binding.
+      assertTrue(context.version() > version + 1L);
+      assertFalse(context.list("").hasMore());
+      context.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testWeakValues() throws Exception {
+    final ExpiringContext context = new ExpiringContext(environment, nameParser, -1L, TimeUnit.MILLISECONDS, ExpiringContext.ValueStrength.WEAK, null);
+    final Object kept = new StringBuilder("kept");
+    context.bind("kept", kept);
+    context.bind("dropped", new StringBuilder("dropped"));
+    for (int i = 0; i < 100 && context.getFootprint().getBindingCount() > 1L; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertNotBound(context, "dropped");
+    assertTrue(kept == context.lookup("kept"));
+  }
+
+  @Test
+  public void testRebindReleasesOldValue() throws Exception {
+    final ExpiringContext context = new ExpiringContext(environment, nameParser, 1L, TimeUnit.HOURS);
+    Object value = new StringBuilder("old");
+    final WeakReference<Object> old = new WeakReference<>(value);
+    context.bind("key", value);
+    value = null;
+    // The superseded binding's slot waits an hour in the wheel, but
+    // need not keep its value alive meanwhile.
+    context.rebind("key", "new");
+    for (int i = 0; i < 100 && old.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertTrue(old.get() == null);
+    assertEquals("new", context.lookup("key"));
+    context.close();
+  }
+
+  private static final void assertNotBound(final Context context, final String name) throws NamingException {
+    try {
+      context.lookup(name);
+      fail(name);
+    } catch (final NameNotFoundException expected) {
+
+    }
+  }
+
+  @Test
+  public void testHugeTtl() throws Exception {
+    final ExpiringContext context = new ExpiringContext(environment, nameParser, -1L, TimeUnit.MILLISECONDS);
+    context.bind("days", "d", Long.MAX_VALUE, TimeUnit.DAYS);
+    context.bind("nanos", "n", Long.MAX_VALUE - 1L, TimeUnit.NANOSECONDS);
+    Thread.sleep(30L);
+    assertEquals("d", context.lookup("days"));
+    assertEquals("n", context.lookup("nanos"));
+    context.close();
+  }
+
+  @Test
+  public void testScheduleWhileAdvancing() throws Exception {
+    // A revolution takes far longer than the test, so a timeout filed
+    // in a bucket already drained would not expire in time.
+    final TimingWheel wheel = new TimingWheel(TimeUnit.MILLISECONDS.toNanos(1L), 8192);
+    final AtomicInteger expired = new AtomicInteger();
+    final Thread advancer = new Thread(() -> {
+        while (!Thread.currentThread().isInterrupted()) {
+          wheel.advance(System.nanoTime());
+        }
+      });
+    advancer.start();
+    try {
+      for (int i = 0; i < 20000; i++) {
+        wheel.schedule(new TimingWheel.Timeout(System.nanoTime() + 1000L) {
+            @Override
+            final void expire() {
+              expired.incrementAndGet();
+            }
+          });
+      }
+      for (int i = 0; i < 200 && expired.get() < 20000; i++) {
+        Thread.sleep(10L);
+      }
+      assertEquals(20000, expired.get());
+    } finally {
+      advancer.interrupt();
+      advancer.join();
+    }
+  }
+
+}
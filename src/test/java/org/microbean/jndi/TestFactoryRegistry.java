@@ -0,0 +1,170 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Properties;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.StringRefAddr;
+
+import javax.naming.spi.ObjectFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestFactoryRegistry {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private MapContext context;
+
+  public TestFactoryRegistry() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.context = new MapContext(name -> new CompoundName(name, syntax));
+  }
+
+  @After
+  public void tearDown() {
+    FactoryRegistry.unregister(Handle.class);
+    FactoryRegistry.unregister(Upper.class);
+    FactoryRegistry.unregister(Lower.class);
+    FactoryRegistry.unregister(Side.class);
+  }
+
+  @Test
+  public void testRegisteredFactories() throws NamingException {
+    final Handle handle = new Handle("one");
+    this.context.bind("handle", handle);
+    assertSame(handle, this.context.lookup("handle"));
+
+    // Registering a factory invalidates the decision already cached
+    // for Handle.
+    FactoryRegistry.registerObjectFactory(Handle.class, (object, name, nameContext, environment) -> ((Handle)object).value);
+    FactoryRegistry.registerStateFactory(Handle.class, (object, name, nameContext, environment) -> new Handle(((Handle)object).value.toUpperCase()));
+    assertEquals("one", this.context.lookup("handle"));
+    this.context.rebind("handle", handle);
+    assertEquals("ONE", this.context.lookup("handle"));
+
+    FactoryRegistry.unregister(Handle.class);
+    assertEquals(Handle.class, this.context.lookup("handle").getClass());
+  }
+
+  @Test
+  public void testReferencesStillDereferenced() throws NamingException {
+    final Reference reference = new Reference(String.class.getName(), new StringRefAddr("value", "referenced"), ValueFactory.class.getName(), null);
+    this.context.bind("reference", reference);
+    assertEquals("referenced", this.context.lookup("reference"));
+  }
+
+  @Test
+  public void testEnvironmentFactoriesStillConsulted() throws NamingException {
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(Context.OBJECT_FACTORIES, HandleFactory.class.getName());
+    final MapContext context = new MapContext(environment, name -> new CompoundName(name, syntax));
+    context.bind("handle", new Handle("two"));
+    assertEquals("two", context.lookup("handle"));
+
+    // Without the property the same class passes straight through.
+    this.context.bind("handle", new Handle("two"));
+    assertEquals(Handle.class, this.context.lookup("handle").getClass());
+  }
+
+  @Test
+  public void testInterfaceOrder() throws NamingException {
+    this.context.bind("thing", new Thing());
+    FactoryRegistry.registerObjectFactory(Upper.class, (object, name, nameContext, environment) -> "upper");
+    assertEquals("upper", this.context.lookup("thing"));
+    FactoryRegistry.registerObjectFactory(Lower.class, (object, name, nameContext, environment) -> "lower");
+    assertEquals("lower", this.context.lookup("thing"));
+    // Lower and Side are equally specific; Lower was registered first.
+    FactoryRegistry.registerObjectFactory(Side.class, (object, name, nameContext, environment) -> "side");
+    for (int i = 0; i < 10; i++) {
+      assertEquals("lower", this.context.lookup("thing"));
+    }
+    FactoryRegistry.unregister(Lower.class);
+    assertEquals("upper", this.context.lookup("thing"));
+    FactoryRegistry.unregister(Upper.class);
+    assertEquals("side", this.context.lookup("thing"));
+  }
+
+  private interface Upper {
+
+  }
+
+  private interface Lower extends Upper {
+
+  }
+
+  private interface Side {
+
+  }
+
+  private static final class Thing implements Side, Lower {
+
+  }
+
+  private static final class Handle {
+
+    private final String value;
+
+    private Handle(final String value) {
+      super();
+      this.value = value;
+    }
+
+  }
+
+  public static final class ValueFactory implements ObjectFactory {
+
+    public ValueFactory() {
+      super();
+    }
+
+    @Override
+    public final Object getObjectInstance(final Object object, final Name name, final Context nameContext, final Hashtable<?, ?> environment) {
+      return ((Reference)object).get("value").getContent();
+    }
+
+  }
+
+  public static final class HandleFactory implements ObjectFactory {
+
+    public HandleFactory() {
+      super();
+    }
+
+    @Override
+    public final Object getObjectInstance(final Object object, final Name name, final Context nameContext, final Hashtable<?, ?> environment) {
+      return object instanceof Handle ? ((Handle)object).value : null;
+    }
+
+  }
+
+}
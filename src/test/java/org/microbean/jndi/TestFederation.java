@@ -0,0 +1,112 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.lang.reflect.Proxy;
+
+import java.util.Hashtable;
+import java.util.Properties;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+
+import javax.naming.spi.ObjectFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestFederation {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final AtomicInteger boundaryResolutions = new AtomicInteger();
+
+  private static final AtomicInteger foreignLookups = new AtomicInteger();
+
+  private MapContext context;
+
+  public TestFederation() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    // This naming system does not understand attribute-style
+    // components such as cn=foo; they belong to the foreign one.
+    this.context = new MapContext(null, null, name -> {
+        if (name.indexOf('=') >= 0) {
+          throw new InvalidNameException(name);
+        }
+        return new CompoundName(name, syntax);
+      }, null);
+    boundaryResolutions.set(0);
+    foreignLookups.set(0);
+  }
+
+  @Test
+  public void testBoundaryIsResolvedOnce() throws NamingException {
+    this.context.createSubcontext("remote").bind("directory", new Reference(Context.class.getName(), ForeignContextFactory.class.getName(), null));
+
+    assertEquals("foreign:cn=foo", this.context.lookup("remote/directory/cn=foo"));
+    assertEquals("foreign:cn=bar/ou=baz", this.context.lookup("remote/directory/cn=bar/ou=baz"));
+    assertEquals("foreign:cn=foo", this.context.lookup("remote/directory/cn=foo"));
+    assertEquals(1, boundaryResolutions.get());
+    assertEquals(3, foreignLookups.get());
+
+    // Changing a binding on the path invalidates the boundary.
+    this.context.rebind("remote/directory", new Reference(Context.class.getName(), ForeignContextFactory.class.getName(), null));
+    assertEquals("foreign:cn=foo", this.context.lookup("remote/directory/cn=foo"));
+    assertEquals(2, boundaryResolutions.get());
+  }
+
+  @Test(expected = InvalidNameException.class)
+  public void testUnparseableNameWithoutForeignNamingSystem() throws NamingException {
+    this.context.createSubcontext("local");
+    this.context.lookup("local/cn=foo");
+  }
+
+  public static final class ForeignContextFactory implements ObjectFactory {
+
+    public ForeignContextFactory() {
+      super();
+    }
+
+    @Override
+    public final Object getObjectInstance(final Object object, final Name name, final Context context, final Hashtable<?, ?> environment) {
+      boundaryResolutions.incrementAndGet();
+      return Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] { Context.class }, (proxy, method, arguments) -> {
+          if (method.getName().equals("lookup")) {
+            foreignLookups.incrementAndGet();
+            return "foreign:" + arguments[0];
+          } else if (method.getName().equals("close")) {
+            return null;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+  }
+
+}
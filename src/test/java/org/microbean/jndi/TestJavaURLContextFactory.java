@@ -16,16 +16,23 @@
  */
 package org.microbean.jndi;
 
+import java.util.Hashtable;
+
 import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.Name;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
 
 import org.junit.Test;
 
+import org.microbean.jndi.java.javaURLContextFactory;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestJavaURLContextFactory {
 
@@ -40,4 +47,119 @@ public class TestJavaURLContextFactory {
     assertTrue(result instanceof Context);    
   }
 
+  @Test
+  public void testURLContextIsReusedAcrossLookupsAndThreads() throws Exception {
+    final Context context = new InitialContext();
+    context.bind("java:comp/env/foo", "bar");
+    assertEquals("bar", context.lookup("java:comp/env/foo"));
+    final Object[] result = new Object[1];
+    final Thread thread = new Thread(() -> {
+        try {
+          result[0] = context.lookup("java:comp/env");
+        } catch (final NamingException namingException) {
+          result[0] = namingException;
+        }
+      });
+    thread.start();
+    thread.join();
+    // Each thread sees its own, initially empty, java:comp/env.
+    assertTrue(result[0] instanceof Context);
+    assertFalse(((Context)result[0]).list("").hasMore());
+  }
+
+  @Test
+  public void testClosingCompOnOneThread() throws Exception {
+    final Context context = new InitialContext();
+    context.bind("java:comp/env/closeTest", "kept");
+    final Thread thread = new Thread(() -> {
+        try {
+          final Context comp = (Context)context.lookup("java:comp");
+          comp.bind("env/closeTest", "discarded");
+          comp.close();
+        } catch (final NamingException namingException) {
+          throw new IllegalStateException(namingException);
+        }
+      });
+    thread.start();
+    thread.join();
+    assertEquals("kept", context.lookup("java:comp/env/closeTest"));
+  }
+
+  @Test
+  public void testClosingLookupResultsLeavesScopesOpen() throws Exception {
+    final Hashtable<String, String> environment = new Hashtable<>();
+    environment.put("test.property", "seen");
+    final Context context = new InitialContext(environment);
+    ((Context)context.lookup("java:global")).createSubcontext("closeTest").bind("value", "global");
+    ((Context)context.lookup("java:")).close();
+    final Context global = (Context)context.lookup("java:global");
+    // The caller's environment reaches the shared scopes.
+    assertEquals("seen", global.getEnvironment().get("test.property"));
+    assertEquals("seen", ((Context)global.lookup("closeTest")).getEnvironment().get("test.property"));
+    global.close();
+    ((Context)context.lookup("java:global/closeTest")).close();
+    assertEquals("global", new InitialContext().lookup("java:global/closeTest/value"));
+  }
+
+  @Test
+  public void testUndeployApplication() throws Exception {
+    final Hashtable<String, String> environment = new Hashtable<>();
+    environment.put(javaURLContextFactory.APPLICATION_NAME, "undeployed");
+    final Context context = new InitialContext(environment);
+    context.bind("java:app/env/undeployTest", "app");
+    context.bind("java:module/undeployTest", "module");
+    assertEquals("app", context.lookup("java:app/env/undeployTest"));
+    javaURLContextFactory.undeployApplication("undeployed");
+    for (final String name : new String[] { "java:app/env/undeployTest", "java:module/undeployTest" }) {
+      try {
+        new InitialContext(environment).lookup(name);
+        fail();
+      } catch (final NameNotFoundException expected) {
+
+      }
+    }
+  }
+
+  @Test
+  public void testScopes() throws Exception {
+    final Hashtable<String, String> environmentA = new Hashtable<>();
+    environmentA.put(javaURLContextFactory.APPLICATION_NAME, "a");
+    final Hashtable<String, String> environmentB = new Hashtable<>();
+    environmentB.put(javaURLContextFactory.APPLICATION_NAME, "b");
+    final Context a = new InitialContext(environmentA);
+    final Context b = new InitialContext(environmentB);
+
+    a.bind("java:global/scopeTest", "global");
+    a.bind("java:app/env/scopeTest", "a");
+    b.bind("java:app/env/scopeTest", "b");
+    a.bind("java:module/scopeTest", "module");
+
+    assertEquals("global", b.lookup("java:global/scopeTest"));
+    assertEquals("a", a.lookup("java:app/env/scopeTest"));
+    assertEquals("b", b.lookup("java:app/env/scopeTest"));
+    assertEquals("module", a.lookup("java:module/scopeTest"));
+    try {
+      b.lookup("java:module/scopeTest");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+  }
+
+  @Test
+  public void testEnvironmentsShareRoots() throws Exception {
+    // Environments that differ only in what does not select a root,
+    // such as per-request properties, reach the same comp.
+    final Hashtable<String, String> first = new Hashtable<>();
+    first.put("request", "1");
+    new InitialContext(first).bind("java:comp/env/shareTest", "shared");
+    for (int i = 2; i < 1000; i++) {
+      final Hashtable<String, String> environment = new Hashtable<>();
+      environment.put("request", Integer.toString(i));
+      final Context context = new InitialContext(environment);
+      assertEquals("shared", context.lookup("java:comp/env/shareTest"));
+      assertEquals(Integer.toString(i), ((Context)context.lookup("java:global")).getEnvironment().get("request"));
+    }
+  }
+
 }
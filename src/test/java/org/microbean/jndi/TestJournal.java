@@ -0,0 +1,241 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CompoundName;
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestJournal {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final NameParser nameParser = name -> new CompoundName(name, syntax);
+
+  public TestJournal() {
+    super();
+  }
+
+  @Test
+  public void testSocketFollower() throws Exception {
+    try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+         final Socket leaderSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+         final Socket followerSocket = serverSocket.accept();
+         final StreamJournal journal = new StreamJournal(leaderSocket.getOutputStream())) {
+      final Context replica = new MapContext(nameParser);
+      final JournalFollower follower = new JournalFollower(followerSocket.getInputStream(), replica);
+      final Thread thread = new Thread(follower);
+      thread.start();
+
+      final int changes = changeLeader(journal);
+      assertTrue(follower.awaitApplied(changes, 10L, TimeUnit.SECONDS));
+      assertReplicated(replica);
+      assertNull(follower.getLastFailure());
+      follower.close();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testFileFollower() throws Exception {
+    final File file = File.createTempFile("journal", ".bin");
+    file.deleteOnExit();
+    final VersionedContext replica = new VersionedContext(nameParser);
+    final JournalFollower follower = JournalFollower.tail(file, replica);
+    final Thread thread = new Thread(follower);
+    thread.start();
+    try (final StreamJournal journal = new StreamJournal(new FileOutputStream(file, true))) {
+      final int changes = changeLeader(journal);
+      assertTrue(follower.awaitApplied(changes, 10L, TimeUnit.SECONDS));
+      assertReplicated(replica);
+      assertNull(follower.getLastFailure());
+    } finally {
+      follower.close();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testOnlyAllowedClassesDecoded() throws Exception {
+    final ArrayList<String> list = new ArrayList<>();
+    final byte[] frame = StreamJournal.encode(new Journal.Entry(Journal.Operation.BIND, new CompositeName("list"), list));
+    try {
+      StreamJournal.decode(frame, StreamJournal.DEFAULT_ALLOWED_CLASSES);
+      fail();
+    } catch (final IOException expected) {
+      assertTrue(expected instanceof InvalidClassException);
+    }
+    assertEquals(list, StreamJournal.decode(frame, name -> StreamJournal.DEFAULT_ALLOWED_CLASSES.test(name) || name.equals("java.util.ArrayList")).getValue());
+
+    final byte[] ints = StreamJournal.encode(new Journal.Entry(Journal.Operation.BIND, new CompositeName("ints"), new int[][] { { 1 } }));
+    assertEquals(1, ((int[][])StreamJournal.decode(ints, StreamJournal.DEFAULT_ALLOWED_CLASSES).getValue())[0][0]);
+  }
+
+  @Test
+  public void testConcurrentWritersConverge() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(AbstractContext.JOURNAL, new StreamJournal(bytes));
+    final MapContext leader = new MapContext(environment, nameParser);
+    final VersionedContext versionedLeader = new VersionedContext(environment, nameParser);
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Object>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(executor.submit((Callable<Object>)() -> {
+              start.await();
+              for (int i = 0; i < 500; i++) {
+                leader.rebind("key", thread + "/" + i);
+                try (final VersionedContext.Transaction transaction = versionedLeader.begin()) {
+                  transaction.getContext().rebind("versioned", thread + "/" + i);
+                  transaction.commit();
+                }
+              }
+              return null;
+            }));
+      }
+      start.countDown();
+      for (final Future<Object> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // Both leaders journal to one stream, under different names, so
+    // one replica can follow both.
+    final Context replica = new MapContext(nameParser);
+    final JournalFollower follower = new JournalFollower(new ByteArrayInputStream(bytes.toByteArray()), replica);
+    follower.run();
+    assertNull(follower.getLastFailure());
+    assertEquals(leader.lookup("key"), replica.lookup("key"));
+    assertEquals(versionedLeader.lookup("versioned"), replica.lookup("versioned"));
+  }
+
+  @Test
+  public void testUnjournalableBindNotMade() throws NamingException {
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(AbstractContext.JOURNAL, new StreamJournal(new ByteArrayOutputStream()));
+    final Context leader = new MapContext(environment, nameParser);
+    leader.bind("a", "one");
+    try {
+      leader.rebind("a", new Object());
+      fail();
+    } catch (final NamingException expected) {
+
+    }
+    assertEquals("one", leader.lookup("a"));
+    try {
+      leader.bind("b", new Object());
+      fail();
+    } catch (final NamingException expected) {
+
+    }
+    try {
+      leader.lookup("b");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+  }
+
+  @Test
+  public void testExpiryJournaled() throws NamingException {
+    final List<Journal.Entry> entries = new ArrayList<>();
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(AbstractContext.JOURNAL, (Journal)entries::add);
+    final ExpiringContext leader = new ExpiringContext(environment, nameParser, -1L, TimeUnit.SECONDS);
+    leader.bind("a", "one", 0L, TimeUnit.SECONDS);
+    try {
+      leader.lookup("a");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+    assertEquals(2, entries.size());
+    assertEquals(Journal.Operation.UNBIND, entries.get(1).getOperation());
+    assertEquals("a", entries.get(1).getName().toString());
+  }
+
+  private static final int changeLeader(final Journal journal) throws NamingException {
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(AbstractContext.JOURNAL, journal);
+    final Context leader = new MapContext(environment, nameParser);
+    final Context jdbc = leader.createSubcontext("jdbc");
+    jdbc.bind("ds", "one");
+    jdbc.rebind("ds", "two");
+    jdbc.bind("old", "renamed");
+    jdbc.rename("old", "new");
+    leader.bind("gone", "gone");
+    leader.unbind("gone");
+    leader.createSubcontext("jms");
+    leader.destroySubcontext("jms");
+    return 9;
+  }
+
+  private static final void assertReplicated(final Context replica) throws NamingException {
+    assertEquals("two", replica.lookup("jdbc/ds"));
+    assertEquals("renamed", replica.lookup("jdbc/new"));
+    assertEquals(2, count(replica, "jdbc"));
+    assertEquals(1, count(replica, ""));
+  }
+
+  private static final int count(final Context context, final String name) throws NamingException {
+    int returnValue = 0;
+    for (final java.util.Enumeration<?> e = context.list(name); e.hasMoreElements(); e.nextElement()) {
+      returnValue++;
+    }
+    return returnValue;
+  }
+
+}
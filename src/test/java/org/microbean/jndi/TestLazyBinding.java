@@ -0,0 +1,172 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLazyBinding {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private Context context;
+
+  public TestLazyBinding() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.context = new ConcurrentMapContext(name -> new CompoundName(name, syntax));
+  }
+
+  @Test
+  public void testSingleFlight() throws Exception {
+    final AtomicInteger initializations = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final LazyBinding lazyBinding = new LazyBinding(() -> {
+        initializations.incrementAndGet();
+        release.await();
+        return new Object();
+      });
+    this.context.createSubcontext("pools").bind("expensive", lazyBinding);
+    assertFalse(lazyBinding.isInitialized());
+
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Object>> lookups = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        lookups.add(executor.submit((Callable<Object>)() -> this.context.lookup("pools/expensive")));
+      }
+      Thread.sleep(50L);
+      release.countDown();
+      final Object first = lookups.get(0).get();
+      for (final Future<Object> lookup : lookups) {
+        assertTrue(first == lookup.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, initializations.get());
+    assertTrue(lazyBinding.isInitialized());
+  }
+
+  @Test
+  public void testRetryAfterFailure() throws NamingException {
+    final AtomicInteger attempts = new AtomicInteger();
+    this.context.bind("flaky", new LazyBinding(() -> {
+          if (attempts.incrementAndGet() == 1) {
+            throw new IllegalStateException("not yet");
+          }
+          return "ready";
+        }));
+    try {
+      this.context.lookup("flaky");
+      fail();
+    } catch (final IllegalStateException expected) {
+
+    }
+    assertEquals("ready", this.context.lookup("flaky"));
+    assertEquals("ready", this.context.lookup("flaky"));
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  public void testWaitersSeeFailureUnchanged() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    this.context.bind("missing", new LazyBinding(() -> {
+          started.countDown();
+          release.await();
+          throw new NameNotFoundException("gone");
+        }));
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<Object> first = executor.submit((Callable<Object>)() -> this.context.lookup("missing"));
+      started.await();
+      final Future<Object> waiter = executor.submit((Callable<Object>)() -> this.context.lookup("missing"));
+      Thread.sleep(50L);
+      release.countDown();
+      for (final Future<Object> lookup : Arrays.asList(first, waiter)) {
+        try {
+          lookup.get();
+          fail();
+        } catch (final ExecutionException expected) {
+          assertTrue(expected.getCause() instanceof NameNotFoundException);
+          assertEquals("gone", expected.getCause().getMessage());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCloseInitializesNothing() throws NamingException {
+    final LazyBinding untouched = new LazyBinding(() -> {
+        throw new IllegalStateException("initialized on close");
+      });
+    this.context.createSubcontext("pools").bind("untouched", untouched);
+    final Context touched = new ConcurrentMapContext(name -> new CompoundName(name, syntax));
+    this.context.bind("touched", new LazyBinding(() -> touched));
+    assertTrue(touched == this.context.lookup("touched"));
+    this.context.close();
+    assertFalse(untouched.isInitialized());
+    try {
+      touched.lookup("x");
+      fail();
+    } catch (final NamingException expected) {
+      // Closed along with the context that made it.
+    }
+  }
+
+  @Test
+  public void testCircularInitialization() throws NamingException {
+    this.context.bind("self", new LazyBinding(() -> this.context.lookup("self")));
+    try {
+      this.context.lookup("self");
+      fail();
+    } catch (final NamingException expected) {
+
+    }
+  }
+
+}
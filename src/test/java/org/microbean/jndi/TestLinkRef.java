@@ -0,0 +1,110 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Properties;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.LinkLoopException;
+import javax.naming.LinkRef;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+
+import javax.naming.spi.ObjectFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLinkRef {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final AtomicInteger dereferences = new AtomicInteger();
+
+  private MapContext context;
+
+  public TestLinkRef() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.context = new MapContext(null, null, name -> new CompoundName(name, syntax), null);
+    dereferences.set(0);
+  }
+
+  @Test
+  public void testAlias() throws NamingException {
+    final Context jdbc = this.context.createSubcontext("jdbc");
+    jdbc.bind("primary-east", new Reference(String.class.getName(), CountingObjectFactory.class.getName(), null));
+    jdbc.bind("primary", new LinkRef("./primary-east"));
+    jdbc.bind("default", new LinkRef("./primary"));
+
+    assertEquals("primary-east", this.context.lookup("jdbc/default"));
+    assertEquals("primary-east", this.context.lookup("jdbc/default"));
+    // Where the link leads is memoized, but what is bound there is
+    // dereferenced on every lookup, just as it is without the link.
+    assertEquals(2, dereferences.get());
+    assertEquals("primary-east", this.context.lookup("jdbc/primary-east"));
+    assertEquals(3, dereferences.get());
+    assertTrue(this.context.lookupLink("jdbc/default") instanceof LinkRef);
+
+    // Changing any binding in the chain invalidates the memoized target.
+    jdbc.rebind("primary-east", "replaced");
+    assertEquals("replaced", this.context.lookup("jdbc/default"));
+    jdbc.rebind("primary", new LinkRef("./other"));
+    jdbc.bind("other", "other");
+    assertEquals("other", this.context.lookup("jdbc/default"));
+  }
+
+  @Test
+  public void testLinkToSubcontext() throws NamingException {
+    this.context.createSubcontext("jdbc").bind("primary", "primary");
+    this.context.bind("db", new LinkRef("./jdbc"));
+    assertEquals("primary", this.context.lookup("db/primary"));
+  }
+
+  @Test(expected = LinkLoopException.class)
+  public void testCycle() throws NamingException {
+    this.context.bind("a", new LinkRef("./b"));
+    this.context.bind("b", new LinkRef("./a"));
+    this.context.lookup("a");
+  }
+
+  public static final class CountingObjectFactory implements ObjectFactory {
+
+    public CountingObjectFactory() {
+      super();
+    }
+
+    @Override
+    public final Object getObjectInstance(final Object object, final Name name, final Context context, final Hashtable<?, ?> environment) {
+      dereferences.incrementAndGet();
+      return name.toString();
+    }
+
+  }
+
+}
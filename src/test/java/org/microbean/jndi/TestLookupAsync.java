@@ -0,0 +1,134 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Properties;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.LinkRef;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.TimeLimitExceededException;
+
+import javax.naming.spi.ObjectFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLookupAsync {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static volatile CountDownLatch interrupted;
+
+  private MapContext context;
+
+  public TestLookupAsync() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.tearDown();
+    this.context = new MapContext(null, null, name -> new CompoundName(name, syntax), null);
+    interrupted = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() throws NamingException {
+    if (this.context != null) {
+      this.context.close();
+    }
+  }
+
+  @Test
+  public void testLookupAsync() throws Exception {
+    this.context.createSubcontext("a").bind("b", "foo");
+    assertEquals("foo", this.context.lookupAsync("a/b").toCompletableFuture().get(10L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDeadlineInterruptsSlowObjectFactory() throws Exception {
+    this.context.bind("slow", new Reference(Object.class.getName(), SlowObjectFactory.class.getName(), null));
+    final CompletableFuture<Object> future = this.context.lookupAsync("slow", 50L, TimeUnit.MILLISECONDS).toCompletableFuture();
+    try {
+      future.get(10L, TimeUnit.SECONDS);
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof TimeLimitExceededException);
+    }
+    assertTrue(interrupted.await(10L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTerminalLinkFollowedOnExecutor() throws Exception {
+    this.context.bind("slow", new Reference(Object.class.getName(), SlowObjectFactory.class.getName(), null));
+    this.context.bind("alias", new LinkRef("./slow"));
+    // Returns at once, although the link's target takes a minute.
+    final CompletableFuture<Object> future = this.context.lookupAsync("alias", 50L, TimeUnit.MILLISECONDS).toCompletableFuture();
+    try {
+      future.get(10L, TimeUnit.SECONDS);
+      fail();
+    } catch (final ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof TimeLimitExceededException);
+    }
+    assertTrue(interrupted.await(10L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testThreadSpecificLink() throws Exception {
+    final ThreadSpecificContext threadSpecific = new ThreadSpecificContext(name -> new CompoundName(name, syntax));
+    threadSpecific.bind("target", "T");
+    threadSpecific.bind("link", new LinkRef("./target"));
+    assertEquals("T", threadSpecific.lookup("link"));
+    // The executor's thread has no bindings of its own; the link must
+    // be resolved on this one.
+    assertEquals("T", threadSpecific.lookupAsync("link").toCompletableFuture().get(10L, TimeUnit.SECONDS));
+  }
+
+  public static final class SlowObjectFactory implements ObjectFactory {
+
+    public SlowObjectFactory() {
+      super();
+    }
+
+    @Override
+    public final Object getObjectInstance(final Object object, final Name name, final Context context, final Hashtable<?, ?> environment) {
+      try {
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1L));
+      } catch (final InterruptedException expected) {
+        interrupted.countDown();
+      }
+      return "slow";
+    }
+
+  }
+
+}
@@ -0,0 +1,111 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Properties;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.LinkRef;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestLookupHandle {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private MapContext context;
+
+  public TestLookupHandle() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.context = new MapContext(name -> new CompoundName(name, syntax));
+  }
+
+  @Test
+  public void testRevalidation() throws NamingException {
+    final Context jdbc = this.context.createSubcontext("env").createSubcontext("jdbc");
+    jdbc.bind("primary", "one");
+    final LookupHandle handle = this.context.compile("env/jdbc/primary");
+    assertEquals("one", handle.get());
+
+    // The terminal context is always read afresh.
+    jdbc.rebind("primary", "two");
+    assertEquals("two", handle.get());
+    jdbc.unbind("primary");
+    try {
+      handle.get();
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+
+    // A change on the path means walking it again.
+    ((Context)this.context.lookup("env")).destroySubcontext("jdbc");
+    ((Context)this.context.lookup("env")).createSubcontext("jdbc").bind("primary", "three");
+    assertEquals("three", handle.get());
+
+    ((Context)this.context.lookup("env/jdbc")).bind("alias", new LinkRef("./primary"));
+    assertEquals("three", this.context.compile("env/jdbc/alias").get());
+  }
+
+  @Test
+  public void testThreadSpecificContexts() throws Exception {
+    final Context initialContext = new InitialContext();
+    initialContext.bind("java:comp/env/handleTest", "main");
+    final LookupHandle handle = LookupHandle.compile(initialContext, "java:comp/env/handleTest");
+    assertEquals("main", handle.get());
+
+    final Object[] result = new Object[1];
+    final Thread thread = new Thread(() -> {
+        try {
+          initialContext.bind("java:comp/env/handleTest", "other");
+          result[0] = handle.get();
+        } catch (final NamingException namingException) {
+          result[0] = namingException;
+        }
+      });
+    thread.start();
+    thread.join();
+    assertEquals("other", result[0]);
+    assertEquals("main", handle.get());
+  }
+
+  @Test
+  public void testCompileLooksNothingUp() throws Exception {
+    new InitialContext().bind("java:comp/env/quiet", "value");
+    final Context initialContext = new InitialContext() {
+        @Override
+        public final Object lookup(final String name) throws NamingException {
+          throw new AssertionError(name);
+        }
+      };
+    final LookupHandle handle = LookupHandle.compile(initialContext, "java:comp/env/quiet");
+    assertEquals("value", handle.get());
+  }
+
+}
@@ -0,0 +1,120 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLookupTracer {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  public TestLookupTracer() {
+    super();
+  }
+
+  private static final MapContext newContext(final LookupTracer lookupTracer) throws NamingException {
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(AbstractContext.LOOKUP_TRACER, lookupTracer);
+    final MapContext returnValue = new MapContext(null, environment, name -> new CompoundName(name, syntax), null);
+    returnValue.createSubcontext("jdbc").bind("primary", "primary");
+    return returnValue;
+  }
+
+  @Test
+  public void testSampledBreakdown() throws NamingException {
+    final LookupTracer lookupTracer = new LookupTracer(1.0, 16);
+    final MapContext context = newContext(lookupTracer);
+    assertEquals("primary", context.lookup("jdbc/primary"));
+
+    final List<LookupTrace> traces = lookupTracer.drain();
+    assertEquals(1, traces.size());
+    final LookupTrace trace = traces.get(0);
+    assertEquals("jdbc/primary", trace.getName());
+    assertTrue(trace.isSampled());
+    final List<LookupTrace.Step> steps = trace.getSteps();
+    assertEquals(LookupTrace.Stage.PARSE, steps.get(0).getStage());
+    assertEquals(LookupTrace.Stage.GET, steps.get(1).getStage());
+    assertEquals("jdbc", steps.get(1).getComponent());
+    assertEquals(LookupTrace.Stage.DEREFERENCE, steps.get(2).getStage());
+    // The steps taken inside jdbc come before the hop into it.
+    assertEquals(1, steps.get(3).getDepth());
+    final LookupTrace.Step hop = steps.get(steps.size() - 1);
+    assertEquals(LookupTrace.Stage.HOP, hop.getStage());
+    assertEquals(0, hop.getDepth());
+    assertTrue(hop.getNanos() <= trace.getElapsedNanos());
+
+    assertTrue(lookupTracer.drain().isEmpty());
+  }
+
+  @Test
+  public void testThreshold() throws NamingException {
+    final LookupTracer slowOnly = new LookupTracer(0.0, 1L, TimeUnit.HOURS, 16);
+    newContext(slowOnly).lookup("jdbc/primary");
+    assertTrue(slowOnly.drain().isEmpty());
+
+    final LookupTracer everything = new LookupTracer(0.0, 0L, TimeUnit.NANOSECONDS, 16);
+    newContext(everything).lookup("jdbc/primary");
+    final List<LookupTrace> traces = everything.drain();
+    assertEquals(1, traces.size());
+    assertFalse(traces.get(0).isSampled());
+  }
+
+  @Test
+  public void testRingKeepsNewest() throws NamingException {
+    final LookupTracer lookupTracer = new LookupTracer(1.0, 2);
+    final MapContext context = newContext(lookupTracer);
+    context.lookup("jdbc");
+    context.lookup("jdbc/primary");
+    context.lookupLink("jdbc/primary");
+    final List<LookupTrace> traces = lookupTracer.drain();
+    assertEquals(2, traces.size());
+    assertTrue(traces.get(0).getSequence() < traces.get(1).getSequence());
+    assertEquals("jdbc/primary", traces.get(1).getName());
+  }
+
+  @Test
+  public void testURLContext() throws NamingException {
+    final LookupTracer lookupTracer = new LookupTracer(1.0, 16);
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(AbstractContext.LOOKUP_TRACER, lookupTracer);
+    final Context context = new InitialContext(environment);
+    context.bind("java:comp/env/tracerTest", "traced");
+    lookupTracer.drain();
+    assertEquals("traced", context.lookup("java:comp/env/tracerTest"));
+    final List<LookupTrace> traces = lookupTracer.drain();
+    assertEquals(1, traces.size());
+    final LookupTrace trace = traces.get(0);
+    assertEquals(LookupTrace.Stage.URL_CONTEXT, trace.getSteps().get(0).getStage());
+    assertTrue(trace.getNanos(LookupTrace.Stage.URL_CONTEXT) <= trace.getElapsedNanos());
+  }
+
+}
@@ -16,11 +16,17 @@
  */
 package org.microbean.jndi;
 
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
 
+import javax.naming.CompositeName;
 import javax.naming.CompoundName;
 import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameParser;
 import javax.naming.NamingException;
 
 import org.junit.After;
@@ -83,5 +89,163 @@ public class TestMapContext {
     assertEquals("foobar", result);
     result = this.context.lookup("java://///TransactionManager");
   }
+
+  @Test
+  public void testBindingsSurvivePromotionPastSmallContextThreshold() throws NamingException {
+    final int count = CompactMap.PROMOTION_THRESHOLD * 2;
+    for (int i = 0; i < count; i++) {
+      this.context.bind("name" + i, "value" + i);
+      for (int j = 0; j <= i; j++) {
+        assertEquals("value" + j, this.context.lookup("name" + j));
+      }
+    }
+    this.context.rebind("name0", "rebound");
+    assertEquals("rebound", this.context.lookup("name0"));
+    this.context.unbind("name1");
+    int listed = 0;
+    final Enumeration<?> enumeration = this.context.list("");
+    while (enumeration.hasMoreElements()) {
+      enumeration.nextElement();
+      listed++;
+    }
+    assertEquals(count - 1, listed);
+  }
   
+  @Test
+  public void testLookupAll() throws NamingException {
+    final Context env = this.context.createSubcontext("comp").createSubcontext("env");
+    env.bind("a", "A");
+    env.createSubcontext("jdbc").bind("b", "B");
+    this.context.bind("c", "C");
+    final Name c = new CompositeName("c");
+    final Name b = new CompositeName("java:comp/env/jdbc/b");
+    final Name a = new CompositeName("comp/env/a");
+    final Map<Name, Object> results = ((AbstractContext<?>)this.context).lookupAll(Arrays.asList(c, b, a));
+    assertEquals(3, results.size());
+    final Iterator<Map.Entry<Name, Object>> iterator = results.entrySet().iterator();
+    assertEquals("C", iterator.next().getValue());
+    assertEquals("B", iterator.next().getValue());
+    assertEquals("A", iterator.next().getValue());
+  }
+
+  @Test
+  public void testWalk() throws NamingException {
+    final Context a = this.context.createSubcontext("a");
+    a.bind("x", "X");
+    a.createSubcontext("b").bind("y", "Y");
+    this.context.bind("z", "Z");
+    final int[] counts = new int[3];
+    ((AbstractContext<?>)this.context).walk(Integer.MAX_VALUE, (context, key, value, depth) -> {
+        counts[depth]++;
+        return true;
+      });
+    assertEquals(2, counts[0]);
+    assertEquals(2, counts[1]);
+    assertEquals(1, counts[2]);
+
+    final int[] shallow = new int[1];
+    ((AbstractContext<?>)this.context).walk(0, (context, key, value, depth) -> {
+        shallow[0]++;
+        return true;
+      });
+    assertEquals(2, shallow[0]);
+  }
+
+  @Test
+  public void testParallelStream() throws NamingException {
+    for (int i = 0; i < 20; i++) {
+      final Context subcontext = this.context.createSubcontext("c" + i);
+      for (int j = 0; j < 100; j++) {
+        subcontext.bind("b" + j, Integer.valueOf(j));
+      }
+    }
+    final AbstractContext<?> root = (AbstractContext<?>)this.context;
+    assertEquals(20 * 100 + 20, root.parallelStream(new CompositeName()).count());
+    assertEquals(20 * 4950, root.parallelStream(new CompositeName()).mapToInt(b -> b.getObject() instanceof Integer ? (Integer)b.getObject() : 0).sum());
+    assertEquals(100, root.stream("c7").filter(b -> b.getName().startsWith("b")).count());
+    assertTrue(root.stream("").anyMatch(b -> b.getName().equals("c3/b42")));
+  }
+
+  @Test
+  public void testFootprint() throws NamingException {
+    final AbstractContext<?> root = (AbstractContext<?>)this.context;
+    root.bind("a", "aa");
+    final Context c = root.createSubcontext("c");
+    c.bind("b", "bb");
+
+    // The first call counts what is there; later ones are kept up to
+    // date by writes.
+    Footprint footprint = root.getFootprint();
+    assertEquals(2, footprint.getBindingCount());
+    assertEquals(1, footprint.getSubcontextCount());
+    assertEquals(4, footprint.getKeyBytes());
+    assertTrue(footprint.getEstimatedBytes() > 0L);
+
+    root.bind("dd", "x");
+    root.rename("a", "aaa");
+    footprint = root.getFootprint();
+    assertEquals(3, footprint.getBindingCount());
+    assertEquals(2 * ("aaa".length() + "c".length() + "dd".length()), footprint.getKeyBytes());
+    root.unbind("dd");
+    assertEquals(2, root.getFootprint().getBindingCount());
+
+    final Footprint subtree = root.getSubtreeFootprint();
+    assertEquals(2, subtree.getContextCount());
+    assertEquals(3, subtree.getBindingCount());
+    assertEquals(root.getFootprint().getEstimatedBytes() + ((AbstractContext<?>)c).getFootprint().getEstimatedBytes(), subtree.getEstimatedBytes());
+
+    c.unbind("b");
+    root.destroySubcontext("c");
+    assertEquals(0, root.getFootprint().getSubcontextCount());
+    assertEquals(1, root.getSubtreeFootprint().getContextCount());
+  }
+
+  @Test
+  public void testFootprintStorage() throws Exception {
+    final NameParser nameParser = name -> new CompoundName(name, syntax);
+    final AbstractContext<?> compact = new MapContext(nameParser);
+    final AbstractContext<?> concurrent = new ConcurrentMapContext(nameParser);
+    compact.bind("a", "aa");
+    concurrent.bind("a", "aa");
+    // Bindings cost what they do wherever they are; storage does not.
+    assertTrue(compact.getFootprint().getEstimatedBytes() < concurrent.getFootprint().getEstimatedBytes());
+
+    // Every thread's bindings count, not only the caller's.
+    final ThreadSpecificContext threadSpecific = new ThreadSpecificContext(nameParser);
+    threadSpecific.bind("a", "aa");
+    final Thread thread = new Thread(() -> {
+        try {
+          threadSpecific.bind("b", "bb");
+          threadSpecific.bind("c", "cc");
+        } catch (final NamingException namingException) {
+          throw new IllegalStateException(namingException);
+        }
+      });
+    thread.start();
+    thread.join();
+    assertEquals(3, threadSpecific.getFootprint().getBindingCount());
+
+    // Writes racing the first count are counted exactly once.
+    final AbstractContext<?> racing = new ConcurrentMapContext(nameParser);
+    final Thread[] writers = new Thread[4];
+    for (int i = 0; i < writers.length; i++) {
+      final int writer = i;
+      writers[i] = new Thread(() -> {
+          try {
+            for (int j = 0; j < 2000; j++) {
+              racing.bind("name" + writer + "-" + j, "x");
+            }
+          } catch (final NamingException namingException) {
+            throw new IllegalStateException(namingException);
+          }
+        });
+      writers[i].start();
+    }
+    racing.getFootprint();
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+    assertEquals(8000, racing.getFootprint().getBindingCount());
+  }
+
 }
@@ -0,0 +1,157 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import java.util.Hashtable;
+
+import javax.naming.ConfigurationException;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class TestMapContextFactory {
+
+  public TestMapContextFactory() {
+    super();
+  }
+
+  private static final Hashtable<String, Object> environment(final String sharedRoot) {
+    final Hashtable<String, Object> returnValue = new Hashtable<>();
+    returnValue.put(Context.INITIAL_CONTEXT_FACTORY, MapContextFactory.class.getName());
+    returnValue.put(MapContextFactory.SHARED_ROOT, sharedRoot);
+    return returnValue;
+  }
+
+  @Test
+  public void testUnsharedByDefault() throws NamingException {
+    final Hashtable<String, Object> environment = new Hashtable<>();
+    environment.put(Context.INITIAL_CONTEXT_FACTORY, MapContextFactory.class.getName());
+    new InitialContext(environment).bind("unshared", "x");
+    try {
+      new InitialContext(environment).lookup("unshared");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+  }
+
+  @Test
+  public void testProcessRoot() throws NamingException {
+    final Hashtable<String, Object> environmentA = environment(MapContextFactory.PROCESS);
+    environmentA.put("view", "a");
+    final Hashtable<String, Object> environmentB = environment(MapContextFactory.PROCESS);
+    environmentB.put("view", "b");
+    final Context a = new InitialContext(environmentA);
+    final Context b = new InitialContext(environmentB);
+
+    a.createSubcontext("processRootTest").bind("ds", "one");
+    assertEquals("one", b.lookup("processRootTest/ds"));
+    assertEquals("a", a.getEnvironment().get("view"));
+    assertEquals("b", b.getEnvironment().get("view"));
+
+    // Caches built through one view see changes made through another.
+    final LookupHandle handle = LookupHandle.compile((Context)a.lookup(""), "processRootTest/ds");
+    assertEquals("one", handle.get());
+    b.unbind("processRootTest/ds");
+    b.destroySubcontext("processRootTest");
+    b.createSubcontext("processRootTest").bind("ds", "two");
+    assertEquals("two", handle.get());
+
+    // Closing a view leaves the tree alone.
+    a.close();
+    assertEquals("two", b.lookup("processRootTest/ds"));
+    b.unbind("processRootTest/ds");
+    b.destroySubcontext("processRootTest");
+  }
+
+  @Test
+  public void testClassLoaderRoots() throws Exception {
+    final Hashtable<String, Object> environment = environment(MapContextFactory.CLASS_LOADER);
+    new InitialContext(environment).bind("classLoaderRootTest", "mine");
+    assertEquals("mine", new InitialContext(environment).lookup("classLoaderRootTest"));
+
+    final Thread thread = Thread.currentThread();
+    final ClassLoader old = thread.getContextClassLoader();
+    try (final URLClassLoader other = new URLClassLoader(new URL[0], old)) {
+      thread.setContextClassLoader(other);
+      assertFalse(new InitialContext(environment).list("").hasMore());
+    } finally {
+      thread.setContextClassLoader(old);
+    }
+  }
+
+  @Test
+  public void testSharedSubcontexts() throws NamingException {
+    final Hashtable<String, Object> environmentA = environment(MapContextFactory.PROCESS);
+    environmentA.put("view", "a");
+    final Hashtable<String, Object> environmentB = environment(MapContextFactory.PROCESS);
+    environmentB.put("view", "b");
+    final Context a = new InitialContext(environmentA);
+    final Context b = new InitialContext(environmentB);
+
+    // A subcontext made through one view carries each reader's
+    // environment, and closing it closes it for nobody else.
+    final Context made = a.createSubcontext("sharedSubcontextTest");
+    made.bind("ds", "one");
+    final Context seen = (Context)b.lookup("sharedSubcontextTest");
+    assertEquals("b", seen.getEnvironment().get("view"));
+    made.close();
+    ((Context)a.lookup("sharedSubcontextTest")).close();
+    assertEquals("one", seen.lookup("ds"));
+    assertEquals("one", b.lookup("sharedSubcontextTest/ds"));
+    b.unbind("sharedSubcontextTest/ds");
+    b.destroySubcontext("sharedSubcontextTest");
+  }
+
+  @Test
+  public void testReleaseClassLoaderRoot() throws Exception {
+    final Hashtable<String, Object> environment = environment(MapContextFactory.CLASS_LOADER);
+    final Thread thread = Thread.currentThread();
+    final ClassLoader old = thread.getContextClassLoader();
+    try (final URLClassLoader other = new URLClassLoader(new URL[0], old)) {
+      thread.setContextClassLoader(other);
+      new InitialContext(environment).bind("releaseTest", "x");
+      assertEquals("x", new InitialContext(environment).lookup("releaseTest"));
+      MapContextFactory.releaseClassLoaderRoot(other);
+      assertFalse(new InitialContext(environment).list("").hasMore());
+      MapContextFactory.releaseClassLoaderRoot(other);
+    } finally {
+      thread.setContextClassLoader(old);
+    }
+  }
+
+  @Test
+  public void testUnknownSharedRoot() throws NamingException {
+    try {
+      new InitialContext(environment("nonsense")).lookup("x");
+      fail();
+    } catch (final ConfigurationException expected) {
+
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMapDirContext {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private DirContext context;
+
+  public TestMapDirContext() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.context = new MapDirContext(name -> new CompoundName(name, syntax));
+    final DirContext jdbc = this.context.createSubcontext("jdbc", null);
+    jdbc.bind("east1", "east1", attributes("region", "east", "vendor", "postgres"));
+    jdbc.bind("east2", "east2", attributes("region", "EAST", "vendor", "oracle"));
+    jdbc.bind("west1", "west1", attributes("region", "west", "vendor", "postgres"));
+    this.context.createSubcontext("jms", null).bind("east", "queue", attributes("region", "east"));
+  }
+
+  @Test
+  public void testFilterSearch() throws NamingException {
+    final SearchControls subtree = new SearchControls();
+    subtree.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    assertEquals(names("east1", "east2"), names(this.context.search("jdbc", "(region=east)", subtree)));
+    assertEquals(names("jdbc/east1", "jdbc/east2", "jms/east"), names(this.context.search("", "(region=east)", subtree)));
+    assertEquals(names("east1"), names(this.context.search("jdbc", "(&(region=east)(vendor=post*))", subtree)));
+    assertEquals(names("east2", "west1"), names(this.context.search("jdbc", "(|(vendor=oracle)(region={0}))", new Object[] { "west" }, subtree)));
+    assertEquals(names("east2", "west1"), names(this.context.search("jdbc", "(!(&(region=east)(vendor=postgres)))", subtree)));
+  }
+
+  @Test
+  public void testIndexFollowsUpdates() throws NamingException {
+    final SearchControls subtree = new SearchControls();
+    subtree.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    this.context.modifyAttributes("jdbc/east1", DirContext.REPLACE_ATTRIBUTE, attributes("region", "west"));
+    this.context.unbind("jdbc/east2");
+    assertEquals(names(), names(this.context.search("jdbc", "(region=east)", subtree)));
+    assertEquals(names("east1", "west1"), names(this.context.search("jdbc", "(region=west)", subtree)));
+
+    // Rebinding without attributes keeps the old ones.
+    this.context.rebind("jdbc/west1", "replaced");
+    assertEquals("west", this.context.getAttributes("jdbc/west1").get("region").get());
+
+    this.context.unbind("jms");
+    assertEquals(names(), names(this.context.search("", "(region=east)", subtree)));
+  }
+
+  @Test
+  public void testCopiesShareVersion() throws NamingException {
+    this.context.bind("top", "one");
+    final LookupHandle handle = LookupHandle.compile((Context)this.context.lookup(""), "top");
+    assertEquals("one", handle.get());
+    this.context.rebind("top", "two");
+    assertEquals("two", handle.get());
+  }
+
+  @Test
+  public void testAttributesSearch() throws NamingException {
+    assertEquals(names("east1", "west1"), names(this.context.search("jdbc", attributes("vendor", "postgres"))));
+    assertEquals(names("east1", "east2", "west1"), names(this.context.search("jdbc", new BasicAttributes(true))));
+  }
+
+  private static final BasicAttributes attributes(final String... idsAndValues) {
+    final BasicAttributes returnValue = new BasicAttributes(true);
+    for (int i = 0; i < idsAndValues.length; i += 2) {
+      returnValue.put(idsAndValues[i], idsAndValues[i + 1]);
+    }
+    return returnValue;
+  }
+
+  private static final Set<String> names(final String... names) {
+    final Set<String> returnValue = new TreeSet<>();
+    for (final String name : names) {
+      returnValue.add(name);
+    }
+    return returnValue;
+  }
+
+  private static final Set<String> names(final NamingEnumeration<SearchResult> results) throws NamingException {
+    final Set<String> returnValue = new TreeSet<>();
+    while (results.hasMore()) {
+      returnValue.add(results.next().getName());
+    }
+    return returnValue;
+  }
+
+}
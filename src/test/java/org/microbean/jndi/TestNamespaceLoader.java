@@ -0,0 +1,149 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.naming.ConfigurationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestNamespaceLoader {
+
+  public TestNamespaceLoader() {
+    super();
+  }
+
+  private static final Path write(final String contents) throws IOException {
+    final Path path = Files.createTempFile("test", ".namespace");
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  private static final Map<String, Object> bindings(final Context context) throws NamingException {
+    final Map<String, Object> returnValue = new HashMap<>();
+    ((MapContext)context).forEachBinding(returnValue::put);
+    return returnValue;
+  }
+
+  @Test
+  public void testLazyMaterialization() throws Exception {
+    final Path path = write("# Mostly unused\r\n" +
+                            "jdbc/primary = jdbc:h2:mem:primary\r\n" +
+                            "mail/host = smtp.example.com\n" +
+                            "jdbc/pool/size = (int) 8\n" +
+                            "jdbc/default = (link) ./primary\n" +
+                            "empty = (context)\n" +
+                            "greeting = héllo");
+    final Context context = NamespaceLoader.load(path);
+    final Map<String, Object> root = bindings(context);
+    assertEquals(4, root.size());
+    for (final Object value : root.values()) {
+      assertFalse(((LazyBinding)value).isInitialized());
+    }
+
+    assertEquals(Integer.valueOf(8), context.lookup("jdbc/pool/size"));
+    assertTrue(((LazyBinding)root.get("jdbc")).isInitialized());
+    assertFalse(((LazyBinding)root.get("mail")).isInitialized());
+    final Map<String, Object> jdbc = bindings((Context)context.lookup("jdbc"));
+    assertTrue(((LazyBinding)jdbc.get("pool")).isInitialized());
+    assertFalse(((LazyBinding)jdbc.get("primary")).isInitialized());
+
+    assertEquals("jdbc:h2:mem:primary", context.lookup("jdbc/default"));
+    assertEquals("héllo", context.lookup("greeting"));
+    assertEquals("jdbc/pool", ((Context)context.lookup("jdbc/pool")).getNameInNamespace());
+    assertFalse(((Context)context.lookup("empty")).list("").hasMore());
+
+    // Loaded trees can be written to like any other.
+    context.bind("mail/port", Integer.valueOf(25));
+    assertEquals("smtp.example.com", context.lookup("mail/host"));
+  }
+
+  @Test
+  public void testMistakes() throws Exception {
+    try {
+      NamespaceLoader.load(write("a = one\na/b = two\n"));
+      fail();
+    } catch (final ConfigurationException expected) {
+      assertEquals("line 2: a is not a context", expected.getExplanation());
+    }
+
+    // Mistakes below the top level wait until they are reached.
+    final Context context = NamespaceLoader.load(write("a/b = one\na/b/c = (int) x\nd = (int) y\n"));
+    try {
+      context.lookup("a/b");
+      fail();
+    } catch (final ConfigurationException expected) {
+      assertEquals("line 2: a/b is not a context", expected.getExplanation());
+    }
+    try {
+      context.lookup("d");
+      fail();
+    } catch (final ConfigurationException expected) {
+      assertEquals("line 3: \"y\" is not a valid int", expected.getExplanation());
+    }
+  }
+
+  @Test
+  public void testChangedFile() throws Exception {
+    final Path path = write("a/b = one\n");
+    final Context context = NamespaceLoader.load(path);
+    Files.write(path, "a/b = one\na/c = two\n".getBytes(StandardCharsets.UTF_8));
+    try {
+      context.lookup("a/b");
+      fail();
+    } catch (final ConfigurationException expected) {
+
+    }
+  }
+
+  @Test
+  public void testCloseReadsNothing() throws Exception {
+    // Closing must not parse bindings nobody has looked up, nor read
+    // the file again.
+    final Path path = write("env/bad = (int) notanumber\nenv/good = (int) 1\nbad = (int) notanumber\n");
+    final Context context = NamespaceLoader.load(path);
+    context.close();
+
+    final Context touched = NamespaceLoader.load(path);
+    assertEquals(Integer.valueOf(1), touched.lookup("env/good"));
+    Files.write(path, "changed = (int) 2\n".getBytes(StandardCharsets.UTF_8));
+    touched.close();
+    try {
+      touched.lookup("env/good");
+      fail();
+    } catch (final NamingException expected) {
+
+    }
+  }
+
+}
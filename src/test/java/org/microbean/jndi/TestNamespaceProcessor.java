@@ -0,0 +1,196 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestNamespaceProcessor {
+
+  public TestNamespaceProcessor() {
+    super();
+  }
+
+  @Test
+  public void testFrozenContext() throws NamingException {
+    final Context context =
+      new FrozenContext(new String[] { "a", "jdbc" },
+                        new Object[] { "one", FrozenContext.subcontext(new String[] { "primary" }, new Object[] { Integer.valueOf(2) }) });
+    assertEquals("one", context.lookup("a"));
+    assertEquals(Integer.valueOf(2), context.lookup("jdbc/primary"));
+    assertEquals("jdbc", ((Context)context.lookup("jdbc")).getNameInNamespace());
+    try {
+      context.bind("b", "two");
+      fail();
+    } catch (final OperationNotSupportedException expected) {
+
+    }
+    try {
+      context.createSubcontext("mail");
+      fail();
+    } catch (final OperationNotSupportedException expected) {
+
+    }
+
+    // Closing a copy leaves the shared tree alone.
+    ((Context)context.lookup("")).close();
+    assertEquals(Integer.valueOf(2), context.lookup("jdbc/primary"));
+
+    // So does closing a subcontext, which every lookup shares.
+    ((Context)context.lookup("jdbc")).close();
+    assertEquals(Integer.valueOf(2), ((Context)context.lookup("jdbc")).lookup("primary"));
+    final Context copy = (Context)((Context)context.lookup("jdbc")).lookup("");
+    copy.close();
+    try {
+      copy.lookup("primary");
+      fail();
+    } catch (final NamingException expected) {
+
+    }
+    assertEquals(Integer.valueOf(2), context.lookup("jdbc/primary"));
+  }
+
+  @Test
+  public void testGeneratedNamespace() throws Exception {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      // Running on a JRE.
+      return;
+    }
+    final Path directory = Files.createTempDirectory("namespace");
+    write(directory.resolve("src/com/example/App.java"),
+          "package com.example;\n@org.microbean.jndi.Namespace(\"com/example/app.namespace\")\npublic class App {}\n");
+    write(directory.resolve("src/com/example/app.namespace"),
+          "# The application's namespace\n" +
+          "jdbc/primary = jdbc:h2:mem:\"primary\"\n" +
+          "jdbc/timeout = (int) 30\n" +
+          "jdbc/maxAge = (long) 3000000000\n" +
+          "jdbc/enabled = (boolean) true\n" +
+          "jdbc/ratio = (double) 0.75\n" +
+          "jdbc/default = (link) ./primary\n" +
+          "mail = (context)\n" +
+          "greeting = (string) (hello)\n");
+    final Path classes = Files.createDirectories(directory.resolve("classes"));
+    assertEquals(0, compile(compiler, directory, classes, "src/com/example/App.java"));
+
+    try (final URLClassLoader classLoader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, this.getClass().getClassLoader())) {
+      final Context context = (Context)classLoader.loadClass("com.example.AppNamespace").getMethod("getContext").invoke(null);
+      assertTrue(context instanceof FrozenContext);
+      assertEquals("jdbc:h2:mem:\"primary\"", context.lookup("jdbc/primary"));
+      assertEquals(Integer.valueOf(30), context.lookup("jdbc/timeout"));
+      assertEquals(Long.valueOf(3000000000L), context.lookup("jdbc/maxAge"));
+      assertEquals(Boolean.TRUE, context.lookup("jdbc/enabled"));
+      assertEquals(Double.valueOf(0.75), context.lookup("jdbc/ratio"));
+      assertEquals("jdbc:h2:mem:\"primary\"", context.lookup("jdbc/default"));
+      assertFalse(((Context)context.lookup("mail")).list("").hasMore());
+      assertEquals("(hello)", context.lookup("greeting"));
+    }
+  }
+
+  @Test
+  public void testLargeNamespace() throws Exception {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      return;
+    }
+    final Path directory = Files.createTempDirectory("namespace");
+    write(directory.resolve("src/com/example/Big.java"),
+          "package com.example;\n@org.microbean.jndi.Namespace(value = \"com/example/big.namespace\", className = \"BigTree\")\npublic class Big {}\n");
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      sb.append("env/entry").append(i).append(" = (int) ").append(i).append('\n');
+      sb.append("name").append(i).append("/value = value").append(i).append('\n');
+    }
+    write(directory.resolve("src/com/example/big.namespace"), sb.toString());
+    final Path classes = Files.createDirectories(directory.resolve("classes"));
+    assertEquals(0, compile(compiler, directory, classes, "src/com/example/Big.java"));
+    try (final URLClassLoader classLoader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, this.getClass().getClassLoader())) {
+      final Context context = (Context)classLoader.loadClass("com.example.BigTree").getMethod("getContext").invoke(null);
+      assertEquals(Integer.valueOf(4321), context.lookup("env/entry4321"));
+      assertEquals("value19999", context.lookup("name19999/value"));
+    }
+    // Too much for one class's constant pool, so spread over several.
+    assertTrue(Files.exists(classes.resolve("com/example/BigTree$Part4.class")));
+  }
+
+  @Test
+  public void testErrorsReported() throws Exception {
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      return;
+    }
+    final Path directory = Files.createTempDirectory("namespace");
+    write(directory.resolve("src/com/example/Bad.java"),
+          "package com.example;\n@org.microbean.jndi.Namespace(\"com/example/bad.namespace\")\npublic class Bad {}\n");
+    write(directory.resolve("src/com/example/bad.namespace"), "a = one\na/b = two\n");
+    final Path classes = Files.createDirectories(directory.resolve("classes"));
+    final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    assertNotEquals(0, compiler.run(null, null, errors, options(directory, classes, "src/com/example/Bad.java")));
+    assertTrue(new String(errors.toByteArray(), StandardCharsets.UTF_8).contains("line 2: a is not a context"));
+  }
+
+  private static final int compile(final JavaCompiler compiler, final Path directory, final Path classes, final String source) {
+    final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    final int returnValue = compiler.run(null, null, errors, options(directory, classes, source));
+    if (returnValue != 0) {
+      System.err.println(new String(errors.toByteArray(), StandardCharsets.UTF_8));
+    }
+    return returnValue;
+  }
+
+  private static final String[] options(final Path directory, final Path classes, final String source) {
+    final List<String> options = Arrays.asList("-processor", NamespaceProcessor.class.getName(),
+                                               "-classpath", System.getProperty("java.class.path"),
+                                               "-sourcepath", directory.resolve("src").toString(),
+                                               "-d", classes.toString(),
+                                               "-s", classes.toString(),
+                                               directory.resolve(source).toString());
+    return options.toArray(new String[options.size()]);
+  }
+
+  private static final void write(final Path path, final String contents) throws IOException {
+    Files.createDirectories(path.getParent());
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
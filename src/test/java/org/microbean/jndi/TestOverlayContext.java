@@ -0,0 +1,128 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Properties;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestOverlayContext {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private MapContext base;
+
+  public TestOverlayContext() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.base = new MapContext(null, null, name -> new CompoundName(name, syntax), null);
+    this.base.createSubcontext("jdbc").bind("primary", "shared");
+    this.base.bind("shared", "shared");
+  }
+
+  @Test
+  public void testWritesStayInOverlay() throws NamingException {
+    final OverlayContext a = new OverlayContext(this.base);
+    final OverlayContext b = new OverlayContext(this.base);
+
+    a.bind("jdbc/private", "a");
+    a.rebind("jdbc/primary", "a");
+    a.unbind("shared");
+
+    assertEquals("a", a.lookup("jdbc/private"));
+    assertEquals("a", a.lookup("jdbc/primary"));
+    try {
+      a.lookup("shared");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+
+    assertEquals("shared", b.lookup("jdbc/primary"));
+    assertEquals("shared", b.lookup("shared"));
+    assertEquals("shared", this.base.lookup("jdbc/primary"));
+    assertEquals("shared", this.base.lookup("shared"));
+    try {
+      this.base.lookup("jdbc/private");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+
+    int count = 0;
+    final NamingEnumeration<NameClassPair> list = a.list("jdbc");
+    while (list.hasMore()) {
+      list.next();
+      count++;
+    }
+    assertEquals(2, count);
+
+    a.close();
+    assertEquals("shared", this.base.lookup("jdbc/primary"));
+  }
+
+  @Test
+  public void testCopiesKeepSubcontextOverlays() throws NamingException {
+    final OverlayContext overlay = new OverlayContext(this.base);
+    overlay.bind("jdbc/private", "mine");
+    final Context copy = (Context)overlay.lookup("");
+    assertEquals("mine", copy.lookup("jdbc/private"));
+    copy.bind("jdbc/copied", "copy");
+    assertEquals("copy", overlay.lookup("jdbc/copied"));
+    try {
+      this.base.lookup("jdbc/copied");
+      fail();
+    } catch (final NameNotFoundException expected) {
+
+    }
+  }
+
+  @Test
+  public void testBaseWritesShowThrough() throws NamingException {
+    final OverlayContext overlay = new OverlayContext(this.base);
+    overlay.bind("jdbc/private", "overlay");
+    final LookupHandle handle = LookupHandle.compile(overlay, "jdbc/primary");
+    assertEquals("shared", handle.get());
+
+    this.base.rebind("jdbc/primary", "changed");
+    assertEquals("changed", handle.get());
+
+    // The base binds a different subcontext; the overlay follows it,
+    // and keeps its own bindings beneath it.
+    this.base.unbind("jdbc/primary");
+    this.base.destroySubcontext("jdbc");
+    this.base.createSubcontext("jdbc").bind("primary", "replaced");
+    assertEquals("replaced", overlay.lookup("jdbc/primary"));
+    assertEquals("replaced", handle.get());
+    assertEquals("overlay", overlay.lookup("jdbc/private"));
+  }
+
+}
@@ -0,0 +1,76 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.naming.Binding;
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSortedMapContext {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  public TestSortedMapContext() {
+    super();
+  }
+
+  @Test
+  public void testPagedListingWhileWriting() throws NamingException {
+    final SortedMapContext context = new SortedMapContext(name -> new CompoundName(name, syntax));
+    final Context big = context.createSubcontext("big");
+    for (int i = 0; i < 100; i++) {
+      big.bind(String.format("name%03d", i), Integer.valueOf(i));
+    }
+    final List<String> seen = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    while (true) {
+      final NamingEnumeration<Binding> page = context.listBindings("big", cursor, 30);
+      int size = 0;
+      while (page.hasMore()) {
+        final Binding binding = page.next();
+        cursor = binding.getName();
+        seen.add(cursor);
+        size++;
+      }
+      if (size == 0) {
+        break;
+      }
+      pages++;
+      // Writers behind the cursor don't disturb the pages still to
+      // come.
+      big.unbind("name000");
+      big.rebind("name000", "back");
+    }
+    assertEquals(4, pages);
+    assertEquals(100, seen.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(String.format("name%03d", i), seen.get(i));
+    }
+  }
+
+}
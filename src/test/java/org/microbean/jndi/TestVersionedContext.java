@@ -0,0 +1,156 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Properties;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestVersionedContext {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private VersionedContext context;
+
+  public TestVersionedContext() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.context = new VersionedContext(name -> new CompoundName(name, syntax));
+    this.context.createSubcontext("app").createSubcontext("jdbc").bind("ds", "old");
+    this.context.bind("app/queue", "old");
+  }
+
+  @Test
+  public void testCommitPublishesAtomically() throws NamingException {
+    try (final VersionedContext.Transaction transaction = this.context.begin()) {
+      final Context staged = transaction.getContext();
+      staged.rebind("app/jdbc/ds", "new");
+      staged.rebind("app/queue", "new");
+      ((Context)staged.lookup("app")).createSubcontext("jms").bind("topic", "new");
+      assertEquals("new", staged.lookup("app/jdbc/ds"));
+      // Nothing is visible outside the transaction until it commits.
+      assertEquals("old", this.context.lookup("app/jdbc/ds"));
+      assertEquals("old", this.context.lookup("app/queue"));
+      try {
+        ((Context)this.context.lookup("app")).lookup("jms");
+        fail();
+      } catch (final NameNotFoundException expected) {
+
+      }
+      transaction.commit();
+    }
+    assertEquals("new", this.context.lookup("app/jdbc/ds"));
+    assertEquals("new", this.context.lookup("app/queue"));
+    assertEquals("new", this.context.lookup("app/jms/topic"));
+  }
+
+  @Test
+  public void testRollbackAndReplay() throws NamingException {
+    final VersionedContext.Transaction rolledBack = this.context.begin();
+    rolledBack.getContext().rebind("app/queue", "discarded");
+    rolledBack.rollback();
+    assertEquals("old", this.context.lookup("app/queue"));
+
+    final VersionedContext.Transaction transaction = this.context.begin();
+    transaction.getContext().rebind("app/queue", "staged");
+    this.context.bind("app/other", "concurrent");
+    transaction.commit();
+    assertEquals("staged", this.context.lookup("app/queue"));
+    assertEquals("concurrent", this.context.lookup("app/other"));
+  }
+
+  @Test
+  public void testReplayRechecksBinds() throws NamingException {
+    try (final VersionedContext.Transaction transaction = this.context.begin()) {
+      transaction.getContext().bind("app/x", "staged");
+      transaction.getContext().rebind("app/y", "staged");
+      this.context.bind("app/x", "concurrent");
+      try {
+        transaction.commit();
+        fail();
+      } catch (final NameAlreadyBoundException expected) {
+
+      }
+    }
+    assertEquals("concurrent", this.context.lookup("app/x"));
+
+    // A rebind replaces whatever was bound in the meantime.
+    try (final VersionedContext.Transaction transaction = this.context.begin()) {
+      transaction.getContext().rebind("app/y", "staged");
+      this.context.bind("app/y", "concurrent");
+      transaction.commit();
+    }
+    assertEquals("staged", this.context.lookup("app/y"));
+  }
+
+  @Test
+  public void testManyBindings() throws NamingException {
+    final Context app = (Context)this.context.lookup("app");
+    for (int i = 0; i < 5000; i++) {
+      app.bind("name" + i, Integer.valueOf(i));
+    }
+    for (int i = 0; i < 5000; i += 2) {
+      app.unbind("name" + i);
+    }
+    for (int i = 0; i < 5000; i++) {
+      if (i % 2 == 0) {
+        try {
+          app.lookup("name" + i);
+          fail();
+        } catch (final NameNotFoundException expected) {
+
+        }
+      } else {
+        assertEquals(Integer.valueOf(i), app.lookup("name" + i));
+      }
+    }
+    assertEquals("old", this.context.lookup("app/queue"));
+  }
+
+  @Test
+  public void testSnapshot() throws NamingException {
+    final VersionedContext snapshot = this.context.snapshot();
+    final Object app = this.context.lookup("app");
+    assertSame(app, this.context.lookup("app"));
+    this.context.rebind("app/queue", "new");
+    this.context.unbind("app/jdbc/ds");
+    assertEquals("old", snapshot.lookup("app/queue"));
+    assertEquals("old", snapshot.lookup("app/jdbc/ds"));
+    try {
+      snapshot.rebind("app/queue", "nope");
+      fail();
+    } catch (final OperationNotSupportedException expected) {
+
+    }
+  }
+
+}
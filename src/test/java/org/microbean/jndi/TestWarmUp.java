@@ -0,0 +1,122 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright © 2018 microBean.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.microbean.jndi;
+
+import java.util.Hashtable;
+import java.util.Properties;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CompoundName;
+import javax.naming.Context;
+import javax.naming.LinkRef;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+
+import javax.naming.spi.ObjectFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestWarmUp {
+
+  private static final Properties syntax = Contexts.leftToRightSlashSeparatedSyntax();
+
+  private static final AtomicInteger dereferences = new AtomicInteger();
+
+  private MapContext context;
+
+  public TestWarmUp() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws NamingException {
+    this.tearDown();
+    this.context = new MapContext(null, null, name -> new CompoundName(name, syntax), null);
+    dereferences.set(0);
+  }
+
+  @After
+  public void tearDown() throws NamingException {
+    if (this.context != null) {
+      this.context.close();
+    }
+  }
+
+  @Test
+  public void testWarmUpKeepsDereferencedBindings() throws NamingException {
+    final Context jdbc = this.context.createSubcontext("jdbc");
+    for (int i = 0; i < 20; i++) {
+      jdbc.bind("ds" + i, new Reference(String.class.getName(), CountingObjectFactory.class.getName(), null));
+    }
+    jdbc.bind("broken", new Reference(String.class.getName(), "no.such.Factory", null));
+    this.context.bind("plain", "plain");
+
+    final WarmUpReport report = this.context.warmUp("jdbc");
+    assertNotNull(report);
+    assertEquals(21, report.getEntries().size());
+    assertEquals(20, dereferences.get());
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals("ds" + i, this.context.lookup("jdbc/ds" + i));
+    }
+    // Subsequent lookups are served from the kept results...
+    assertEquals(20, dereferences.get());
+    // ...while the bindings themselves are left as they were.
+    ((MapContext)jdbc).forEachBinding((key, value) -> assertTrue(value instanceof Reference));
+
+    // Rebinding drops the kept result.
+    jdbc.rebind("ds0", new Reference(String.class.getName(), CountingObjectFactory.class.getName(), null));
+    assertEquals("ds0", this.context.lookup("jdbc/ds0"));
+    assertEquals(21, dereferences.get());
+  }
+
+  @Test
+  public void testContextsReachableTwiceAreWarmedOnce() throws NamingException {
+    final Context jdbc = this.context.createSubcontext("jdbc");
+    jdbc.bind("ds", new Reference(String.class.getName(), CountingObjectFactory.class.getName(), null));
+    this.context.bind("alias", jdbc);
+    this.context.bind("link", new LinkRef("./jdbc"));
+    jdbc.bind("self", jdbc);
+
+    final WarmUpReport report = this.context.warmUp("");
+    assertEquals(1, report.getEntries().size());
+    assertEquals(1, dereferences.get());
+  }
+
+  public static final class CountingObjectFactory implements ObjectFactory {
+
+    public CountingObjectFactory() {
+      super();
+    }
+
+    @Override
+    public final Object getObjectInstance(final Object object, final Name name, final Context context, final Hashtable<?, ?> environment) {
+      dereferences.incrementAndGet();
+      return name.toString();
+    }
+
+  }
+
+}